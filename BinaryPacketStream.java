@@ -0,0 +1,77 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A PacketStream that sends Packets as
+ * WireCodec frames.
+ */
+public class BinaryPacketStream implements PacketStream {
+
+	// Streams for reading and writing frames
+	DataInputStream in;
+	OutputStream out;
+
+	// Reused for encoding and decoding,
+	// grown when a frame does not fit
+	ByteBuffer writeBuffer = ByteBuffer.allocate( 1024 );
+	ByteBuffer readBuffer = ByteBuffer.allocate( 1024 );
+
+	/**
+	 * The constructor.
+	 * @param   in    the connection's input
+	 * @param   out   the connection's output
+	 */
+	public BinaryPacketStream( InputStream in, OutputStream out ) {
+		this.in = new DataInputStream( in );
+		this.out = new BufferedOutputStream( out );
+	}
+
+	public void write( Packet<?> packet ) throws IOException {
+
+		int size = WireCodec.maxSize( packet );
+		if( writeBuffer.capacity() < size ) {
+			writeBuffer = ByteBuffer.allocate( size );
+		}
+
+		writeBuffer.clear();
+		WireCodec.encode( packet, writeBuffer );
+		out.write( writeBuffer.array(), 0, writeBuffer.position() );
+		out.flush();
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> Packet<T> read() throws IOException {
+
+		// The length comes from the peer, so it is
+		// checked before any room is made for it
+		int length = in.readInt();
+		try {
+			WireCodec.frameLength( length );
+		} catch ( IllegalArgumentException e ) {
+			throw new IOException( e.getMessage() );
+		}
+		if( readBuffer.capacity() < length + 4 ) {
+			readBuffer = ByteBuffer.allocate( length + 4 );
+		}
+
+		readBuffer.clear();
+		readBuffer.putInt( length );
+		in.readFully( readBuffer.array(), 4, length );
+		readBuffer.position( 0 );
+		readBuffer.limit( length + 4 );
+		return (Packet<T>) (Packet<?>) WireCodec.decode( readBuffer );
+	}
+
+	public int available() throws IOException {
+		return in.available();
+	}
+
+	public void close() throws IOException {
+		out.close();
+		in.close();
+	}
+}
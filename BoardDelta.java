@@ -0,0 +1,199 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * This class holds an update to a player's copy
+ * of an ocean. It is either a snapshot, sent the
+ * first time and whenever the copy has to be
+ * rebuilt, or just the cells that changed since
+ * the last update. A snapshot holds every cell,
+ * or for a board mostly empty just the cells that
+ * show a mark, whichever is smaller. Now and then it also holds
+ * a checksum of the whole board, so the player can
+ * tell if their copy has gone wrong.
+ */
+public class BoardDelta implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// The version of the board once this is applied
+	int version;
+
+	// True if this replaces the whole board
+	boolean snapshot;
+
+	// The size of the board, for a snapshot
+	int rows;
+	int columns;
+
+	// For a snapshot of every cell, every cell
+	// row by row, otherwise the marks of the
+	// cells that changed or show a mark along
+	// with where they are
+	char[] marks;
+	int[] changedRows;
+	int[] changedColumns;
+
+	// True if checksum holds the checksum
+	// of the board once this is applied
+	boolean checked;
+	int checksum;
+
+	/**
+	 * A snapshot of the board as it is shown.
+	 * @param   ocean        the board
+	 * @param   yesOrNo      true if boats are shown
+	 * @return  BoardDelta   the snapshot
+	 */
+	public static BoardDelta snapshot( Ocean ocean, boolean yesOrNo ) {
+
+		BoardDelta delta = new BoardDelta();
+		delta.version = ocean.version();
+		delta.snapshot = true;
+		delta.rows = ocean.rowSize;
+		delta.columns = ocean.columnSize;
+
+		// Each cell listed takes nine bytes to send,
+		// each cell of the whole board one
+		int marked = 0;
+		for( int tile = 0; tile < ocean.tileCount; tile++ ) {
+			marked += Long.bitCount( ocean.shownCells( tile, yesOrNo ) );
+		}
+		if( (long) ocean.rowSize * ocean.columnSize <= 9L * marked ) {
+			delta.marks = new char[ocean.rowSize * ocean.columnSize];
+			for( int row = 0; row < ocean.rowSize; row++ ) {
+				for( int column = 0; column < ocean.columnSize; column++ ) {
+					delta.marks[row * ocean.columnSize + column] = ocean.shown( row, column, yesOrNo );
+				}
+			}
+			return delta;
+		}
+
+		delta.marks = new char[marked];
+		delta.changedRows = new int[marked];
+		delta.changedColumns = new int[marked];
+		int index = 0;
+		for( int tile = 0; tile < ocean.tileCount; tile++ ) {
+			long cells = ocean.shownCells( tile, yesOrNo );
+			while( cells != 0 ) {
+				long bit = Long.lowestOneBit( cells );
+				cells &= cells - 1;
+				delta.changedRows[index] = ocean.row( tile, bit );
+				delta.changedColumns[index] = ocean.column( tile, bit );
+				delta.marks[index] = ocean.shown( delta.changedRows[index], delta.changedColumns[index], yesOrNo );
+				index++;
+			}
+		}
+		return delta;
+	}
+
+	/**
+	 * A snapshot of the board as it is shown, made
+	 * from an OceanSnapshot, so it may be made on
+	 * any thread while the game goes on.
+	 * @param   ocean        the board as it was
+	 * @param   yesOrNo      true if boats are shown
+	 * @return  BoardDelta   the snapshot
+	 */
+	public static BoardDelta snapshot( OceanSnapshot ocean, boolean yesOrNo ) {
+
+		BoardDelta delta = new BoardDelta();
+		delta.version = ocean.version();
+		delta.snapshot = true;
+		delta.rows = ocean.rowSize;
+		delta.columns = ocean.columnSize;
+
+		int[] marked = { 0 };
+		ocean.marks( yesOrNo, ( row, column, mark ) -> marked[0]++ );
+		if( (long) ocean.rowSize * ocean.columnSize <= 9L * marked[0] ) {
+			delta.marks = new char[ocean.rowSize * ocean.columnSize];
+			Arrays.fill( delta.marks, ' ' );
+			ocean.marks( yesOrNo, ( row, column, mark ) -> delta.marks[row * ocean.columnSize + column] = mark );
+			return delta;
+		}
+
+		delta.marks = new char[marked[0]];
+		delta.changedRows = new int[marked[0]];
+		delta.changedColumns = new int[marked[0]];
+		int[] index = { 0 };
+		ocean.marks( yesOrNo, ( row, column, mark ) -> {
+			delta.changedRows[index[0]] = row;
+			delta.changedColumns[index[0]] = column;
+			delta.marks[index[0]++] = mark;
+		} );
+		return delta;
+	}
+
+	/**
+	 * The cells of the board that changed since the
+	 * given version, as they are now shown.
+	 * @param   ocean        the board
+	 * @param   since        the version the player has
+	 * @param   yesOrNo      true if boats are shown
+	 * @return  BoardDelta   the changes
+	 */
+	public static BoardDelta since( Ocean ocean, int since, boolean yesOrNo ) {
+
+		BoardDelta delta = new BoardDelta();
+		delta.version = ocean.version();
+		int count = delta.version - since;
+		delta.marks = new char[count];
+		delta.changedRows = new int[count];
+		delta.changedColumns = new int[count];
+
+		for( int index = 0; index < count; index++ ) {
+			int[] change = ocean.changes.get( since + index );
+			delta.changedRows[index] = change[0];
+			delta.changedColumns[index] = change[1];
+			delta.marks[index] = ocean.shown( change[0], change[1], yesOrNo );
+		}
+		return delta;
+	}
+
+	/**
+	 * Attach the checksum of the board as shown.
+	 * @param   ocean     the board
+	 * @param   yesOrNo   true if boats are shown
+	 */
+	public void check( Ocean ocean, boolean yesOrNo ) {
+		checked = true;
+		checksum = ocean.checksum( yesOrNo );
+	}
+
+	/**
+	 * Apply this update to a player's copy of the
+	 * board. The copy shows every cell as it was sent.
+	 * @param   copy    the player's copy, or null if
+	 *                  they do not have one yet
+	 * @return  Ocean   the updated copy, or null if
+	 *                  it could not be brought up to
+	 *                  date and needs a snapshot
+	 */
+	public Ocean applyTo( Ocean copy ) {
+
+		if( snapshot && changedRows == null ) {
+			copy = new Ocean( 0, 0, rows, columns );
+			for( int row = 0; row < rows; row++ ) {
+				for( int column = 0; column < columns; column++ ) {
+					copy.put( row, column, marks[row * columns + column] );
+				}
+			}
+		}
+		else {
+			if( snapshot ) {
+				copy = new Ocean( 0, 0, rows, columns );
+			}
+			if( copy == null ) {
+				return null;
+			}
+			for( int index = 0; index < marks.length; index++ ) {
+				copy.put( changedRows[index], changedColumns[index], marks[index] );
+			}
+		}
+
+		if( checked && copy.checksum( true ) != checksum ) {
+			return null;
+		}
+		return copy;
+	}
+}
@@ -0,0 +1,56 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * The purpose of this class is to hand out direct
+ * ByteBuffers for datagrams and take them back once
+ * they have been used, so that sending and receiving
+ * does not create a new buffer every time.
+ */
+public class BufferPool {
+
+	// The largest payload a UDP datagram can carry
+	public static final int DATAGRAM_SIZE = 65507;
+
+	// The size of each buffer
+	int size;
+
+	// Buffers not currently in use
+	ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+	/**
+	 * The constructor.
+	 * @param   size   the size of each buffer
+	 */
+	public BufferPool( int size ) {
+		this.size = size;
+	}
+
+	/**
+	 * Take a buffer out of the pool, creating one if
+	 * they are all in use. It is cleared and ready to
+	 * be written to.
+	 * @return   ByteBuffer   the buffer
+	 */
+	public ByteBuffer acquire() {
+
+		ByteBuffer buffer;
+		synchronized( this ) {
+			buffer = free.poll();
+		}
+		if( buffer == null ) {
+			return ByteBuffer.allocateDirect( size );
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Give a buffer back to the pool.
+	 * @param   buffer   the buffer, which must not
+	 *                   be used again by the caller
+	 */
+	public synchronized void release( ByteBuffer buffer ) {
+		free.push( buffer );
+	}
+}
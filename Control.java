@@ -32,6 +32,11 @@ public class Control {
 		// Player objects
 		players[0] = new Player ( "player a", 'A', 'a' );
 		players[1] = new Player ( "player b", 'B', 'b' );
+		
+		// Both players share the screen, so
+		// tell them when a ship sinks
+		model.onSunk( 0, ( game, player, ship ) ->
+				view.message( "You sank my " + ship + "!" ) );
 	}
 	
 	/**
@@ -117,14 +122,9 @@ public class Control {
 			int[] target = view.getInput( players[turn].playerName );
 			
 			// Pass the target to the waiting player's checkHit()
-			// method. If it returns true, then it hit, otherwise
-			// it is a miss.
-			if( model.checkHit( turn + sign, target[0], target[1], players[turn].hitMark ) ) {
-				view.message( "Hit!" );
-			}
-			else {
-				view.message( "Miss!" );
-			}
+			// method and tell the player what became of it
+			view.message( model.checkHit( turn + sign, target[0], target[1],
+					players[turn].hitMark ).message );
 			
 			// Switch current and waiting players
 			temp = current;
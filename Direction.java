@@ -0,0 +1,48 @@
+/**
+ * The directions a ship can point in on the
+ * ocean, and how the row and column change
+ * with each step along it.
+ */
+public enum Direction {
+
+	NORTH( -1, 0, "north", "up" ),
+	EAST( 0, 1, "east", "right" ),
+	SOUTH( 1, 0, "south", "down" ),
+	WEST( 0, -1, "west", "left" );
+
+	// Kept, as values() makes a new array each time
+	private static final Direction[] values = values();
+
+	// How the row and column change
+	// with each step
+	final int rowChange;
+	final int columnChange;
+
+	// The names a player may use for it
+	final String name;
+	final String alias;
+
+	Direction( int rowChange, int columnChange, String name, String alias ) {
+		this.rowChange = rowChange;
+		this.columnChange = columnChange;
+		this.name = name;
+		this.alias = alias;
+	}
+
+	/**
+	 * The direction a player means, given as
+	 * NESW or up, down, left and right, in any
+	 * case.
+	 * @param   direction   what the player typed
+	 * @return  Direction   the direction, or null
+	 *                      if it is not one
+	 */
+	public static Direction parse( String direction ) {
+		for( Direction value : values ) {
+			if( value.name.equalsIgnoreCase( direction ) || value.alias.equalsIgnoreCase( direction ) ) {
+				return value;
+			}
+		}
+		return null;
+	}
+}
@@ -1,5 +1,3 @@
-import java.util.Arrays;
-
 /**
  * The purpose of this class is
  * to create and managed a fleet
@@ -16,6 +14,11 @@ public class Fleet {
 	// Position in the array of lengths
 	int type = 0;
 	
+	// The length and direction of the ship
+	// built last, for whoever records it
+	int builtLength;
+	Direction builtDirection;
+	
 	// The array of ships
 	Ship[] ships = new Ship[4];
 	
@@ -26,6 +29,41 @@ public class Fleet {
 	// The ship marker
 	char shipMark;
 	
+	// Which ship takes each cell that has one, so
+	// a shot is resolved with a single look up,
+	// keyed by the number of the cell
+	LongIndex shipCells = new LongIndex( 32 );
+	
+	// The places not yet hit and the ships not
+	// yet sunk, counting those still to be
+	// built, so the fleet is afloat until the
+	// last place is hit
+	int remainingHits = 0;
+	int remainingShips;
+	
+	// Who is told when a ship is sunk, if anyone,
+	// and the game and player they are told of
+	SunkListener listener;
+	int game;
+	int player;
+	
+	/**
+	 * Told when a ship of a fleet is sunk, in
+	 * place of printing it where no player
+	 * would see it.
+	 */
+	public interface SunkListener {
+		
+		/**
+		 * A ship was sunk.
+		 * @param   game     the numeric id of the game
+		 * @param   player   the numeric id of the
+		 *                   player whose ship it was
+		 * @param   ship     the class of ship
+		 */
+		void sunk( int game, int player, String ship );
+	}
+	
 	/**
 	 * The constructor, it creates the
 	 * object and initializes the Ocean
@@ -35,158 +73,73 @@ public class Fleet {
 	public Fleet( Ocean ocean, char shipMark){
 		this.ocean = ocean;
 		this.shipMark = shipMark;
+		
+		remainingShips = ships.length;
+		for( int length : lengths ) {
+			remainingHits += length;
+		}
+	}
+	
+	/**
+	 * Tell someone whenever a ship of this
+	 * fleet is sunk.
+	 * @param   game       the numeric id of the game
+	 * @param   player     the numeric id of the
+	 *                     player whose fleet it is
+	 * @param   listener   who is told, or null
+	 */
+	public void listen( int game, int player, SunkListener listener ) {
+		this.game = game;
+		this.player = player;
+		this.listener = listener;
 	}
 	
 	/**
 	 * The purpose of this method is to check
 	 * whether or not the ship can be built at
 	 * the given position ( indicated by row
-	 * and column ) or in the given direction
-	 * ( indicated by rowColumn ).
+	 * and column ) in the given direction. Both
+	 * ends must be on the ocean, and no place in
+	 * between taken by another ship, which the
+	 * ocean knows one bit per cell. Nothing is
+	 * allocated, so bots can try many places.
 	 * @param   row         the row where we
 	 *                      want to build
 	 * @param   column      the column where we 
 	 *                      want to build
 	 * @param   length      the length of the
 	 *                      desired ship
-	 * @param   rowColumn   the values by which
-	 *                      we shall change row
-	 *                      and column
+	 * @param   direction   the direction it
+	 *                      points in, null if
+	 *                      it was not valid
 	 * @return  boolean     true if we can,
 	 *                      false otherwise
 	 */
-	private boolean checkBuild( int row, int column,
-			int length, int[] rowColumn ) {
-			
-		// Was it a valid direction?
-		if( rowColumn != null ) {
-			
-			// Set row and column changes
-			int rowChange = rowColumn[0];
-			int columnChange = rowColumn[1];
-			
-			// Controls how many positions
-			// along the length we have checked
-			int spot = 0;
-			
-			// If we it goes out of bounds,
-			// this will be false;
-			boolean inside = true;
-			
-			// Loop over the spots the ship may occupy
-			while( spot < length && inside ) {
-				
-				// If it is within the bounds of the
-				// game board, inside will remain true
-				inside = ocean.checkOcean( row, column );
-				
-				// Put the position into an int array
-				// for comparison with the locations
-				// of the ships that are already on
-				// the board.
-				int[] location = { row, column };
-				
-				// Check to see if that location is already taken
-				// Loop over the ships and then the positions of those
-				// ships. At the same time, check to see if that spot 
-				// is on the ocean.
-				int shipNumber = 0;
-				while( ships[shipNumber] != null && shipNumber < 4 && inside ) {
-					
-					// Loop over the positions taken by the selected ship
-					for( int position = 0; position < ships[shipNumber].length; position++ ) {
-						
-						// If we still haven't found a position outside of the
-						// ocean or taken by another ship, compare the current
-						// position
-						if( inside ) {
-							
-							// If the current position is already taken, then inside will 
-							// go false and we shall exit all of the loops.
-							inside = !Arrays.equals( ships[shipNumber].positions[position], location );
-						}
-					}
-					
-					// Look at the next ship already on the board
-					shipNumber++;
-				}
-						
-				// Alter the values of row and column
-				// according to rowChange and columnChange
-				row += rowChange;
-				column += columnChange;
-				
-				// Move to the next spot
-				spot++;
-			}
-		
-			return inside;
-		}
+	public boolean checkBuild( int row, int column,
+			int length, Direction direction ) {
 		
-		// If the given direction is not valid
-		else {
+		// Was it a valid direction?
+		if( direction == null ) {
 			return false;
-		}		
-	}
-	
-	/**
-	 * This method does two things:
-	 * First, it determines how row and 
-	 * column should be altered for any
-	 * given direction. Second, it determines
-	 * whether the given direction is a 
-	 * valid direction.
-	 * @param   direction      a String indicating NESW
-	 *                         or up, down, left, and right
-	 * @return  int[] / null   int[] if a valid direction,
-	 *                         null otherwise
-	 */
-	private int[] getDirection( String direction ) {
-		
-		// Depending on the direction, these 
-		// values will either be 0, 1, or -1.
-		int rowChange = 0;
-		int columnChange = 0;
-		
-		// Determine which direction the ship shall
-		// be built.
-		if( direction.equalsIgnoreCase( "east" ) ||
-				direction.equalsIgnoreCase( "right" ) ) {
-			columnChange = 1;
 		}
 		
-		else if ( direction.equalsIgnoreCase( "west" ) ||
-				direction.equalsIgnoreCase( "left" ) ) {
-			columnChange = -1;
-		}
-		
-		else if ( direction.equalsIgnoreCase( "north" ) ||
-				direction.equalsIgnoreCase( "up" ) ) {
-			rowChange = -1;
-		}
-		
-		else if ( direction.equalsIgnoreCase( "south" ) ||
-				direction.equalsIgnoreCase( "down" ) ) {
-			rowChange = 1;
+		// A ship is straight, so if both of its
+		// ends are on the ocean all of it is
+		int endRow = row + direction.rowChange * ( length - 1 );
+		int endColumn = column + direction.columnChange * ( length - 1 );
+		if( !ocean.contains( row, column ) || !ocean.contains( endRow, endColumn ) ) {
+			return false;
 		}
 		
-		else {
-			
-			// If the given direction is not NESW,
-			// or up, down, left, or right,
-			// then we can not build the boat since
-			// that is not a valid direction.
-			System.out.println( "Not a valid direction! Must be NESW or " +
-					"up, down, left, right.");
-			return null;
+		// Check that no spot along it is taken
+		for( int spot = 0; spot < length; spot++ ) {
+			if( ocean.isBoat( row, column ) ) {
+				return false;
+			}
+			row += direction.rowChange;
+			column += direction.columnChange;
 		}
-		
-		
-		// Return the normal vector of the direction
-		// as an int array.
-		int[] dirValue = { rowChange, columnChange };
-		
-		return dirValue;
+		return true;
 	}
 	
 	/**
@@ -209,10 +162,19 @@ public class Fleet {
 		
 		// Determines the modification of row
 		// and column according to direction
-		int[] rowColumn = getDirection( direction );
+		Direction pointing = Direction.parse( direction );
+		if( pointing == null ) {
+			
+			// If the given direction is not NESW,
+			// or up, down, left, or right,
+			// then we can not build the boat since
+			// that is not a valid direction.
+			System.out.println( "Not a valid direction! Must be NESW or " +
+					"up, down, left, right.");
+		}
 		
 		// If it can be built, do so
-		if( checkBuild( row, column, lengths[type], rowColumn ) ) {
+		if( checkBuild( row, column, lengths[type], pointing ) ) {
 			
 			// Index where we shall place the ship
 			int index = 0;
@@ -232,12 +194,17 @@ public class Fleet {
 				positions[position] = spot;
 				
 				// Calculate the next spot
-				row += rowColumn[0];
-				column += rowColumn[1];
+				row += pointing.rowChange;
+				column += pointing.columnChange;
 			}
 			
 			// Create the ship object and place it in the array
 			ships[index] = new Ship(positions, lengths[type], shipMark, ocean);
+			for( int[] position : positions ) {
+				shipCells.put( cell( position[0], position[1] ), index );
+			}
+			builtLength = lengths[type];
+			builtDirection = pointing;
 			type++;
 			return true;
 		}
@@ -248,65 +215,116 @@ public class Fleet {
 		}
 	}
 	
+	/**
+	 * The length of the ship built last.
+	 * @return   int   its length, 0 if none
+	 *                 has been built
+	 */
+	public int builtLength() {
+		return builtLength;
+	}
+	
+	/**
+	 * The direction of the ship built last.
+	 * @return   Direction   the direction it points
+	 *                       in, null if none has
+	 *                       been built
+	 */
+	public Direction builtDirection() {
+		return builtDirection;
+	}
+	
+	/**
+	 * The number of a cell, counting along the rows.
+	 * @param   row      the row of the cell
+	 * @param   column   the column of the cell
+	 * @return  long     the number
+	 */
+	private long cell( int row, int column ) {
+		return (long) row * ocean.columnSize + column;
+	}
+	
+	/**
+	 * Which ship takes a cell.
+	 * @param   row      the row of the cell
+	 * @param   column   the column of the cell
+	 * @return  int      the index of the ship in
+	 *                   ships, -1 if there is none
+	 */
+	public int shipAt( int row, int column ) {
+		return shipCells.get( cell( row, column ) );
+	}
+	
 	/**
 	 * The purpose of this method is to
 	 * check to see if the attack hits
-	 * any of the ships in the fleet
-	 * @param   row      the row being
-	 *                   attacked
-	 * @param   column   the column being
-	 *                   attacked
-	 * @return  boolean  true if it hit,
-	 *                   false otherwise
+	 * any of the ships in the fleet. The
+	 * ship, if any, is looked up by the
+	 * cell, and the ocean remembers which
+	 * cells were fired at before.
+	 * @param   row          the row being
+	 *                       attacked
+	 * @param   column       the column being
+	 *                       attacked
+	 * @param   hitMark      the mark for a hit
+	 * @return  ShotResult   what became of
+	 *                       the shot
 	 */
-	public boolean checkHit( int row, int column, char hitMark ) {
-		
-		// Initialize as false, since we
-		// don't know it hit until all of
-		// the ships are checked.
-		boolean hit = false;
+	public ShotResult checkHit( int row, int column, char hitMark ) {
 		
-		// Position in the ships array of the
-		// current ship we are checking
-		int shipNumber = 0;
+		// Firing at the same place twice
+		// changes nothing
+		if( ocean.isShot( row, column ) ) {
+			return ShotResult.ALREADY_SHOT;
+		}
 		
-		// Loop over the ships
-		while( shipNumber < 4 && ships[shipNumber] != null && !hit ) {
-			
-			// Make a call to the current ship's hitOrMiss method.
-			hit = ships[shipNumber].hitOrMiss( row, column, hitMark );
-			
-			// Check the next ship
-			shipNumber++;
+		// If no ship is there it is a miss
+		int ship = shipAt( row, column );
+		if( ship < 0 ) {
+			ocean.setMark( row, column, Ocean.MISS );
+			return ShotResult.MISS;
 		}
 		
-		return hit;
+		ShotResult result = ships[ship].hit( row, column, hitMark );
+		remainingHits--;
+		if( result == ShotResult.SUNK ) {
+			remainingShips--;
+			if( listener != null ) {
+				listener.sunk( game, player, ships[ship].type() );
+			}
+		}
+		return result;
 	}
 	
 	/**
 	 * The purpose of this method is to
-	 * check all of our ships to see if they
-	 * are still afloat.
+	 * check whether any of our ships is
+	 * still afloat. The ships sunk are
+	 * counted as they sink, so none of
+	 * them is looked at.
 	 * @return   boolean   so long as one ship is
 	 *                     still afloat, this will
 	 *                     return true
 	 */
 	public boolean checkShips() {
-		
-		// If a single ship is still afloat,
-		// this will become true
-		boolean afloat = false;
-		
-		// Loop over the ships
-		for( int ship = 0; ship < ships.length; ship++ ) {
-			
-			// If we still haven't found a ship that is
-			// afloat, check again.
-			if( !afloat ) {
-				afloat = ships[ship].sunkOrAfloat();
-			}
-		}
-		
-		return afloat;
+		return remainingShips > 0;
+	}
+	
+	/**
+	 * The number of places on the ships, built
+	 * or still to be built, not yet hit.
+	 * @return   int   the places left to hit
+	 */
+	public int remainingHits() {
+		return remainingHits;
+	}
+	
+	/**
+	 * The number of ships, built or still to
+	 * be built, not yet sunk.
+	 * @return   int   the ships left to sink
+	 */
+	public int remainingShips() {
+		return remainingShips;
 	}
 }
@@ -0,0 +1,245 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * The purpose of this class is to be the only
+ * thing that touches the Model of one game of
+ * battleship. The threads talking to the players
+ * post commands to its mailbox and wait for the
+ * answers, and the commands are carried out one at
+ * a time, in the order they were posted, on
+ * whichever thread of a shared pool is free. No two
+ * threads ever work on the same game at once, so
+ * the Model needs no locks, and many games are
+ * spread over the cores instead of queuing for one.
+ */
+public class GameActor {
+
+	// The most commands carried out at once before
+	// the thread is given to another game
+	public static final int BATCH = 64;
+
+	// The Model of the game, touched only
+	// by the commands
+	Model model;
+
+	// Carries out the commands, shared by
+	// every game
+	Executor executor;
+
+	// The commands posted and not yet carried out
+	ConcurrentLinkedQueue<Command<?>> mailbox = new ConcurrentLinkedQueue<>();
+
+	// True while the commands are being carried
+	// out, or are about to be
+	AtomicBoolean scheduled = new AtomicBoolean();
+
+	/**
+	 * Something to be done with the Model, and
+	 * its answer once it is done.
+	 */
+	abstract static class Command<T> {
+
+		// Completed once the command is carried out
+		CompletableFuture<T> answer = new CompletableFuture<>();
+
+		/**
+		 * Carry out the command.
+		 * @param   model   the Model of the game
+		 * @return  T       the answer
+		 */
+		abstract T apply( Model model );
+
+		/**
+		 * Carry out the command and hand its answer,
+		 * or what went wrong, to whoever waits for it.
+		 * @param   model   the Model of the game
+		 */
+		void run( Model model ) {
+			try {
+				answer.complete( apply( model ) );
+			} catch ( Throwable e ) {
+				answer.completeExceptionally( e );
+			}
+		}
+	}
+
+	/**
+	 * Build a ship for a player.
+	 */
+	static class PlaceShip extends Command<Boolean> {
+
+		int player;
+		int row;
+		int column;
+		String direction;
+
+		/**
+		 * The constructor.
+		 * @param   player      the numeric id of the player
+		 *                      for whom the ship is built
+		 * @param   row         the row of its first place
+		 * @param   column      the column of its first place
+		 * @param   direction   the direction it points in
+		 */
+		PlaceShip( int player, int row, int column, String direction ) {
+			this.player = player;
+			this.row = row;
+			this.column = column;
+			this.direction = direction;
+		}
+
+		Boolean apply( Model model ) {
+			return model.buildShip( player, row, column, direction );
+		}
+	}
+
+	/**
+	 * Fire at a player's ocean.
+	 */
+	static class Shoot extends Command<ShotResult> {
+
+		int player;
+		int row;
+		int column;
+		char hitMark;
+
+		/**
+		 * The constructor.
+		 * @param   player    the numeric id of the
+		 *                    player fired at
+		 * @param   row       the row fired at
+		 * @param   column    the column fired at
+		 * @param   hitMark   the mark of the player firing
+		 */
+		Shoot( int player, int row, int column, char hitMark ) {
+			this.player = player;
+			this.row = row;
+			this.column = column;
+			this.hitMark = hitMark;
+		}
+
+		ShotResult apply( Model model ) {
+			return model.checkHit( player, row, column, hitMark );
+		}
+	}
+
+	/**
+	 * Read something from the Model, such as
+	 * what a player is to be sent of it.
+	 */
+	static class Render<T> extends Command<T> {
+
+		// What is read
+		Function<Model, T> reading;
+
+		/**
+		 * The constructor.
+		 * @param   reading   what is read
+		 */
+		Render( Function<Model, T> reading ) {
+			this.reading = reading;
+		}
+
+		T apply( Model model ) {
+			return reading.apply( model );
+		}
+	}
+
+	/**
+	 * The constructor.
+	 * @param   model      the Model of the game
+	 * @param   executor   carries out the commands
+	 */
+	public GameActor( Model model, Executor executor ) {
+		this.model = model;
+		this.executor = executor;
+	}
+
+	/**
+	 * Post a command and wait for its answer.
+	 * @param   command   the command
+	 * @return  T         its answer
+	 */
+	public <T> T ask( Command<T> command ) throws InterruptedException {
+
+		post( command );
+		try {
+			return command.answer.get();
+		} catch ( ExecutionException e ) {
+
+			// Whatever went wrong in the command goes
+			// wrong for the one who asked
+			Throwable cause = e.getCause();
+			if( cause instanceof RuntimeException ) {
+				throw (RuntimeException) cause;
+			}
+			if( cause instanceof Error ) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException( cause );
+		}
+	}
+
+	/**
+	 * Post a command without waiting for it.
+	 * @param   command   the command
+	 */
+	public void post( Command<?> command ) {
+		mailbox.add( command );
+		schedule();
+	}
+
+	/**
+	 * Have the commands carried out, unless
+	 * they already are.
+	 */
+	private void schedule() {
+		if( scheduled.compareAndSet( false, true ) ) {
+			executor.execute( this::drain );
+		}
+	}
+
+	/**
+	 * Carry out the commands posted, a batch
+	 * at a time.
+	 */
+	private void drain() {
+
+		for( int done = 0; done < BATCH; done++ ) {
+			Command<?> command = mailbox.poll();
+			if( command == null ) {
+				break;
+			}
+			command.run( model );
+		}
+		scheduled.set( false );
+
+		// A command posted while the last batch was
+		// carried out found it already scheduled
+		if( !mailbox.isEmpty() ) {
+			schedule();
+		}
+	}
+
+	/**
+	 * A pool of threads to carry out the commands
+	 * of many games. A game runs on one thread at
+	 * a time, so one thread per core is enough.
+	 * @param   threads           the number of threads
+	 * @return  ExecutorService   the pool
+	 */
+	public static ExecutorService pool( int threads ) {
+		return Executors.newFixedThreadPool( threads, runnable -> {
+			Thread thread = new Thread( runnable, "game-actor" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+	}
+}
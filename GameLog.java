@@ -0,0 +1,537 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The purpose of this class is to keep a record of
+ * every game played on a server, shared by all of
+ * them: players joining, ships placed, shots fired,
+ * what became of them and who won. Events are only
+ * ever added to the end, in files of a fixed size
+ * made ahead of time and mapped into memory, so
+ * writing one is copying a few bytes. A thread of
+ * its own forces what was written out to the disk
+ * every few milliseconds, many events at a time,
+ * rather than once per event.
+ *
+ * Each event is its length, its type, the game,
+ * the time in milliseconds and then what happened.
+ * The length is written last, so an event only
+ * counts once it is whole, and a length of 0 marks
+ * the end of what has been written in a file.
+ */
+public class GameLog {
+
+	// The types of event
+	public static final byte JOIN = 1;
+	public static final byte SHIP_PLACED = 2;
+	public static final byte SHOT = 3;
+	public static final byte RESULT = 4;
+	public static final byte GAME_OVER = 5;
+
+	// Why a game ended: the last ship was sunk, a
+	// player sent something that made no sense, or
+	// a player left or stopped answering
+	public static final int SUNK = 0;
+	public static final int FORFEIT = 1;
+	public static final int DISCONNECT = 2;
+
+	// Length, type, game and time
+	public static final int HEADER = 4 + 1 + 4 + 8;
+
+	// The most bytes of a name kept, as its length
+	// is written in a short
+	public static final int MAX_TEXT = Short.MAX_VALUE;
+
+	// Where the files are kept and how large each is
+	File directory;
+	int segmentSize;
+
+	// How often what was written is forced to the disk
+	int flushMillis;
+
+	// The file being written, its number and where
+	// the next event goes in it
+	FileChannel channel;
+	MappedByteBuffer segment;
+	int number;
+	int position;
+
+	// The next file, made ahead of time by the
+	// flushing thread so writing never waits for it
+	FileChannel nextChannel;
+	MappedByteBuffer nextSegment;
+
+	// The highest game id in the files when the
+	// log was opened, so a server's ids carry on
+	// from the last run rather than repeat them
+	int lastGame = 0;
+
+	// Events written, and how many of them had
+	// been written at the last flush
+	long events = 0;
+	long flushed = 0;
+
+	// False once closed, or once writing has failed
+	volatile boolean open = true;
+
+	// Forces what was written to the disk
+	Thread flusher;
+
+	/**
+	 * The constructor. It carries on from the end of
+	 * the last file in the directory, if there is one.
+	 * @param   directory     where the files are kept
+	 * @param   segmentSize   the size of each file
+	 * @param   flushMillis   how often what was written
+	 *                        is forced to the disk
+	 */
+	public GameLog( File directory, int segmentSize, int flushMillis ) throws IOException {
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.flushMillis = flushMillis;
+		directory.mkdirs();
+
+		// Find the last file and the end of what
+		// was written in it
+		int[] numbers = segmentNumbers( directory );
+		number = numbers.length == 0 ? 0 : numbers[numbers.length - 1];
+		channel = openSegment( number );
+		segment = map( channel );
+		while( position + 4 <= segmentSize && segment.getInt( position ) > 0 ) {
+			lastGame = Math.max( lastGame, segment.getInt( position + 5 ) );
+			position += segment.getInt( position );
+		}
+
+		// Games are spread over files, so the oldest
+		// ones are read too, only the header of each
+		// event
+		for( int older = 0; older < numbers.length - 1; older++ ) {
+			File file = new File( directory, String.format( "segment-%08d.log", numbers[older] ) );
+			try( FileChannel reading = new RandomAccessFile( file, "r" ).getChannel() ) {
+				MappedByteBuffer events = reading.map( FileChannel.MapMode.READ_ONLY, 0, reading.size() );
+				for( int at = 0; at + HEADER <= events.limit() && events.getInt( at ) > 0; at += events.getInt( at ) ) {
+					lastGame = Math.max( lastGame, events.getInt( at + 5 ) );
+				}
+			}
+		}
+
+		flusher = new Thread( this::flushEvery, "game-log" );
+		flusher.setDaemon( true );
+		flusher.start();
+	}
+
+	/**
+	 * Open a log in the directory the system property
+	 * game.log names, if it is set.
+	 * @return  GameLog   the log, or null if there is none
+	 *                    or it could not be opened
+	 */
+	public static GameLog fromProperties() {
+
+		String directory = System.getProperty( "game.log" );
+		if( directory == null ) {
+			return null;
+		}
+		try {
+			return new GameLog( new File( directory ),
+					Integer.getInteger( "game.log.segment", 64 << 20 ),
+					Integer.getInteger( "game.log.flush", 5 ) );
+		} catch ( IOException e ) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * The highest game id written to the log before
+	 * it was opened.
+	 * @return   int   the id, 0 if there were no games
+	 */
+	public int lastGame() {
+		return lastGame;
+	}
+
+	/**
+	 * The numbers of the files in a directory,
+	 * in order.
+	 * @param   directory   the directory
+	 * @return  int[]       the numbers
+	 */
+	static int[] segmentNumbers( File directory ) {
+
+		String[] names = directory.list( ( dir, name ) -> name.matches( "segment-\\d{8}\\.log" ) );
+		if( names == null ) {
+			return new int[0];
+		}
+		int[] numbers = new int[names.length];
+		for( int name = 0; name < names.length; name++ ) {
+			numbers[name] = Integer.parseInt( names[name].substring( 8, 16 ) );
+		}
+		Arrays.sort( numbers );
+		return numbers;
+	}
+
+	/**
+	 * Open a file of the log, making it if need be.
+	 * @param   number        the number of the file
+	 * @return  FileChannel   the file
+	 */
+	private FileChannel openSegment( int number ) throws IOException {
+		File file = new File( directory, String.format( "segment-%08d.log", number ) );
+		return new RandomAccessFile( file, "rw" ).getChannel();
+	}
+
+	/**
+	 * Map a whole file into memory, making it
+	 * its full size if it is not yet.
+	 * @param   channel            the file
+	 * @return  MappedByteBuffer   the file in memory
+	 */
+	private MappedByteBuffer map( FileChannel channel ) throws IOException {
+		return channel.map( FileChannel.MapMode.READ_WRITE, 0, segmentSize );
+	}
+
+	/**
+	 * Write an event.
+	 * @param   type      the type of event
+	 * @param   game      the numeric id of the game
+	 * @param   values    the numbers that say what happened
+	 * @param   text      a name that goes with them, or null
+	 */
+	private synchronized void append( byte type, int game, int[] values, String text ) {
+
+		if( !open ) {
+			return;
+		}
+		byte[] bytes = text == null ? null : text.getBytes( StandardCharsets.UTF_8 );
+		if( bytes != null && bytes.length > MAX_TEXT ) {
+			bytes = Arrays.copyOf( bytes, MAX_TEXT );
+		}
+		int length = HEADER + 4 * values.length + ( bytes == null ? 0 : 2 + bytes.length );
+
+		// An event no file could hold is left out,
+		// rather than rolling over to a file it does
+		// not fit in either
+		if( length + 4 > segmentSize ) {
+			System.out.println( "Event of " + length + " bytes left out of the game log" );
+			return;
+		}
+		try {
+
+			// An event that does not fit goes at the
+			// start of the next file, and the rest of
+			// this one is left as 0s
+			if( position + length + 4 > segmentSize ) {
+				roll();
+			}
+			int start = position;
+			segment.put( start + 4, type );
+			segment.putInt( start + 5, game );
+			segment.putLong( start + 9, System.currentTimeMillis() );
+			int at = start + HEADER;
+			for( int value : values ) {
+				segment.putInt( at, value );
+				at += 4;
+			}
+			if( bytes != null ) {
+				segment.putShort( at, (short) bytes.length );
+				segment.put( at + 2, bytes );
+			}
+			segment.putInt( start, length );
+			position += length;
+			events++;
+		} catch ( IOException | RuntimeException e ) {
+
+			// A game does not stop because its log
+			// could not be written
+			open = false;
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Go on to the next file, forcing what is
+	 * in this one to the disk first.
+	 */
+	private void roll() throws IOException {
+
+		segment.force();
+		channel.close();
+		number++;
+		if( nextSegment != null ) {
+			channel = nextChannel;
+			segment = nextSegment;
+			nextChannel = null;
+			nextSegment = null;
+		}
+		else {
+			channel = openSegment( number );
+			segment = map( channel );
+		}
+		position = 0;
+	}
+
+	/**
+	 * Force what was written to the disk every few
+	 * milliseconds, and make the next file ahead of
+	 * time once this one is half full.
+	 */
+	private void flushEvery() {
+
+		while( open ) {
+			try {
+				Thread.sleep( flushMillis );
+			} catch ( InterruptedException e ) {
+				return;
+			}
+			flush();
+
+			// The number of the file wanted next, -1
+			// if it is not wanted yet
+			int upcoming = -1;
+			synchronized( this ) {
+				if( open && nextSegment == null && position > segmentSize / 2 ) {
+					upcoming = number + 1;
+				}
+			}
+			if( upcoming >= 0 ) {
+				try {
+					FileChannel file = openSegment( upcoming );
+					MappedByteBuffer mapped = map( file );
+					
+					// The file is made with holes in it, so
+					// each page is written once here rather
+					// than by the first event to reach it
+					for( int page = 0; page < segmentSize; page += 4096 ) {
+						mapped.put( page, (byte) 0 );
+					}
+					synchronized( this ) {
+						
+						// Writing may have gone on to it
+						// by itself meanwhile
+						if( open && number + 1 == upcoming ) {
+							nextChannel = file;
+							nextSegment = mapped;
+							file = null;
+						}
+					}
+					if( file != null ) {
+						file.close();
+					}
+				} catch ( IOException e ) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Force every event written so far to the disk.
+	 */
+	public void flush() {
+
+		MappedByteBuffer written;
+		long count;
+		synchronized( this ) {
+			if( events == flushed ) {
+				return;
+			}
+			written = segment;
+			count = events;
+		}
+
+		// The events are forced outside the lock,
+		// so games go on writing meanwhile
+		written.force();
+		synchronized( this ) {
+			flushed = Math.max( flushed, count );
+		}
+	}
+
+	/**
+	 * Force what was written to the disk and
+	 * stop writing.
+	 */
+	public void close() {
+
+		flush();
+		synchronized( this ) {
+			open = false;
+			try {
+				channel.close();
+				if( nextChannel != null ) {
+					nextChannel.close();
+				}
+			} catch ( IOException e ) {
+				e.printStackTrace();
+			}
+		}
+		flusher.interrupt();
+	}
+
+	/**
+	 * A player joined a game.
+	 * @param   game     the numeric id of the game
+	 * @param   player   the numeric id of the player
+	 * @param   name     their name
+	 */
+	public void join( int game, int player, String name ) {
+		append( JOIN, game, new int[] { player }, name );
+	}
+
+	/**
+	 * A ship was placed.
+	 * @param   game        the numeric id of the game
+	 * @param   player      whose ship it is
+	 * @param   row         the row of its first place
+	 * @param   column      the column of its first place
+	 * @param   length      its length
+	 * @param   direction   the direction it points in
+	 */
+	public void shipPlaced( int game, int player, int row, int column, int length, Direction direction ) {
+		append( SHIP_PLACED, game, new int[] { player, row, column, length, direction.ordinal() }, null );
+	}
+
+	/**
+	 * A shot was fired.
+	 * @param   game     the numeric id of the game
+	 * @param   player   the player fired at
+	 * @param   row      the row fired at
+	 * @param   column   the column fired at
+	 */
+	public void shot( int game, int player, int row, int column ) {
+		append( SHOT, game, new int[] { player, row, column }, null );
+	}
+
+	/**
+	 * What became of a shot.
+	 * @param   game     the numeric id of the game
+	 * @param   player   the player fired at
+	 * @param   result   what became of it
+	 */
+	public void result( int game, int player, ShotResult result ) {
+		append( RESULT, game, new int[] { player, result.ordinal() }, null );
+	}
+
+	/**
+	 * A game ended.
+	 * @param   game     the numeric id of the game
+	 * @param   winner   the numeric id of the winner,
+	 *                   or -1 if nobody won
+	 * @param   reason   why it ended, SUNK, FORFEIT
+	 *                   or DISCONNECT
+	 */
+	public void gameOver( int game, int winner, int reason ) {
+		append( GAME_OVER, game, new int[] { winner, reason }, null );
+	}
+
+	/**
+	 * Print every event in a directory of files,
+	 * one per line.
+	 * @param   directory   where the files are kept
+	 */
+	public static void dump( File directory ) throws IOException {
+
+		for( int number : segmentNumbers( directory ) ) {
+			File file = new File( directory, String.format( "segment-%08d.log", number ) );
+			try( FileChannel channel = new RandomAccessFile( file, "r" ).getChannel() ) {
+				MappedByteBuffer segment = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+				int position = 0;
+				while( position + 4 <= segment.limit() && segment.getInt( position ) > 0 ) {
+					int length = segment.getInt( position );
+					byte type = segment.get( position + 4 );
+					StringBuilder line = new StringBuilder();
+					line.append( segment.getLong( position + 9 ) ).append( " game " )
+							.append( segment.getInt( position + 5 ) ).append( ' ' );
+					int[] values = new int[( type == JOIN ? 1 : ( length - HEADER ) / 4 )];
+					for( int value = 0; value < values.length; value++ ) {
+						values[value] = segment.getInt( position + HEADER + 4 * value );
+					}
+					switch( type ) {
+						case JOIN:
+							byte[] name = new byte[segment.getShort( position + HEADER + 4 )];
+							segment.get( position + HEADER + 6, name );
+							line.append( "join player " ).append( values[0] ).append( ' ' )
+									.append( new String( name, StandardCharsets.UTF_8 ) );
+							break;
+						case SHIP_PLACED:
+							line.append( "ship player " ).append( values[0] ).append( " at " ).append( values[1] )
+									.append( ',' ).append( values[2] ).append( " length " ).append( values[3] )
+									.append( ' ' ).append( Direction.values()[values[4]].name );
+							break;
+						case SHOT:
+							line.append( "shot at player " ).append( values[0] ).append( ' ' )
+									.append( values[1] ).append( ',' ).append( values[2] );
+							break;
+						case RESULT:
+							line.append( "result for player " ).append( values[0] ).append( ' ' )
+									.append( ShotResult.values()[values[1]] );
+							break;
+						case GAME_OVER:
+							int reason = values.length > 1 ? values[1] : SUNK;
+							line.append( reason == FORFEIT ? "forfeited, " : reason == DISCONNECT ? "left, " : "" )
+									.append( values[0] < 0 ? "won by nobody" : "won by player " + values[0] );
+							break;
+						default:
+							line.append( "unknown event " ).append( type );
+					}
+					System.out.println( line );
+					position += length;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The main method. It prints a log, or times
+	 * writing events to one from several threads.
+	 * @param   args   command line arguments: "dump" and
+	 *                 the directory, or "bench", the
+	 *                 directory, the number of events
+	 *                 and the number of threads
+	 */
+	public static void main( String [] args ) throws IOException, InterruptedException {
+
+		File directory = new File( args.length > 1 ? args[1] : "game-log" );
+		if( args.length == 0 || args[0].equals( "dump" ) ) {
+			dump( directory );
+			return;
+		}
+
+		int count = args.length > 2 ? Integer.parseInt( args[2] ) : 1000000;
+		int threads = args.length > 3 ? Integer.parseInt( args[3] ) : 4;
+		GameLog log = new GameLog( directory, Integer.getInteger( "game.log.segment", 64 << 20 ),
+				Integer.getInteger( "game.log.flush", 5 ) );
+
+		// Each thread plays its own games, a shot
+		// and its result at a time
+		Thread[] writing = new Thread[threads];
+		long start = System.nanoTime();
+		for( int thread = 0; thread < threads; thread++ ) {
+			int first = thread;
+			writing[thread] = new Thread( () -> {
+				for( int event = 0; event < count / threads / 2; event++ ) {
+					int game = first + threads * ( event / 100 );
+					log.shot( game, event & 1, event / 10 % 10, event % 10 );
+					log.result( game, event & 1, ShotResult.MISS );
+				}
+			} );
+			writing[thread].start();
+		}
+		for( Thread thread : writing ) {
+			thread.join();
+		}
+		double seconds = ( System.nanoTime() - start ) / 1e9;
+		long written = log.events;
+		log.close();
+		System.out.printf( "events=%d threads=%d %.2f us/event events/s=%.0f segments=%d%n",
+				written, threads, seconds * 1e6 / written, written / seconds,
+				segmentNumbers( directory ).length );
+	}
+}
@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The purpose of this class is to run the helper
+ * tasks of one game together. If either player's
+ * task fails, because they disconnected or stopped
+ * answering, the other player's task is cancelled
+ * and its socket closed so it does not sit blocked
+ * on a read forever. The game owns its tasks: join()
+ * returns only once both have finished.
+ */
+public class GameScope {
+
+	// Runs the helper tasks
+	ExecutorService executor;
+
+	// The helpers of this game and their tasks
+	List<TCP_Server_Helper> helpers = new ArrayList<>();
+	List<Future<?>> tasks = new ArrayList<>();
+
+	// True once the tasks have been cancelled
+	boolean cancelled = false;
+
+	/**
+	 * The constructor.
+	 * @param   executor   runs the helper tasks
+	 */
+	public GameScope( ExecutorService executor ) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Start a helper's task in this scope.
+	 * @param   helper   the helper to be run
+	 */
+	public synchronized void fork( TCP_Server_Helper helper ) {
+
+		helpers.add( helper );
+		tasks.add( executor.submit( () -> {
+			try {
+				helper.run();
+			} finally {
+
+				// A player whose task ended early takes
+				// the whole game down with them
+				if( helper.failed ) {
+					cancel();
+				}
+			}
+		} ) );
+	}
+
+	/**
+	 * Cancel every task in this scope. Blocking socket
+	 * reads ignore interrupts, so the sockets are
+	 * closed as well.
+	 */
+	public synchronized void cancel() {
+
+		if( cancelled ) {
+			return;
+		}
+		cancelled = true;
+
+		for( Future<?> task : tasks ) {
+			task.cancel( true );
+		}
+		for( TCP_Server_Helper helper : helpers ) {
+			try {
+				helper.client.close();
+			} catch ( IOException e ) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Wait for every task in this scope to finish.
+	 */
+	public void join() throws InterruptedException {
+
+		List<Future<?>> started;
+		synchronized( this ) {
+			started = new ArrayList<>( tasks );
+		}
+
+		for( Future<?> task : started ) {
+			try {
+				task.get();
+			} catch ( Exception e ) {
+
+				// Cancelled or failed tasks have
+				// already been dealt with
+			}
+		}
+	}
+
+	/**
+	 * Create an executor that runs each task on its
+	 * own virtual thread. Virtual threads only exist
+	 * on Java 21 and later, so on an older runtime
+	 * this falls back to a fixed pool of platform
+	 * threads, as many as there would be carriers.
+	 * A helper blocks until the other player's helper
+	 * takes its turn, so the pool holds at least one
+	 * game and is kept even, and games beyond what it
+	 * holds wait for one to end.
+	 * @param   carriers   the most platform threads that
+	 *                     may carry virtual threads, or
+	 *                     0 for the JDK's default of one
+	 *                     per core
+	 * @return  ExecutorService   the executor
+	 */
+	public static ExecutorService virtualThreads( int carriers ) {
+
+		// The carrier pool is sized when the first
+		// virtual thread is created
+		if( carriers > 0 ) {
+			System.setProperty( "jdk.virtualThreadScheduler.parallelism", String.valueOf( carriers ) );
+			System.setProperty( "jdk.virtualThreadScheduler.maxPoolSize", String.valueOf( carriers ) );
+		}
+
+		try {
+			return (ExecutorService) Executors.class
+					.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+		} catch ( ReflectiveOperationException e ) {
+			int threads = carriers > 0 ? carriers : Runtime.getRuntime().availableProcessors();
+			threads = Math.max( 2, threads + ( threads & 1 ) );
+			System.out.println( "Virtual threads need Java 21, so games run on a pool of " +
+					threads + " platform threads, two to a game." );
+			return Executors.newFixedThreadPool( threads );
+		}
+	}
+}
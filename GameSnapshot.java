@@ -0,0 +1,71 @@
+/**
+ * A game of battleship as it was after one move,
+ * which never changes. The Model publishes one
+ * after every move it applies, so players,
+ * spectators, reports and logs can print and send
+ * the game from any thread without a lock and
+ * without seeing a move half done. The oceans
+ * share every tile not marked since the last
+ * snapshot, so one costs little to make.
+ */
+public class GameSnapshot {
+
+	// The number of moves applied before it
+	final int version;
+
+	// The oceans of both players
+	final OceanSnapshot[] oceans;
+
+	// True while both fleets have a ship afloat
+	final boolean playing;
+
+	/**
+	 * The constructor.
+	 * @param   version   the number of moves applied
+	 * @param   first     the first player's ocean
+	 * @param   second    the second player's ocean
+	 * @param   playing   true if the game goes on
+	 */
+	GameSnapshot( int version, OceanSnapshot first, OceanSnapshot second, boolean playing ) {
+		this.version = version;
+		this.oceans = new OceanSnapshot[] { first, second };
+		this.playing = playing;
+	}
+
+	/**
+	 * The number of moves applied before this
+	 * snapshot, ships built and shots fired.
+	 * @return   int   the version
+	 */
+	public int version() {
+		return version;
+	}
+
+	/**
+	 * Whether the game was still going.
+	 * @return   boolean   true if both fleets had
+	 *                     a ship afloat
+	 */
+	public boolean checkStatus() {
+		return playing;
+	}
+
+	/**
+	 * A player's ocean.
+	 * @param   player          the numeric id of the player
+	 * @return  OceanSnapshot   their ocean
+	 */
+	public OceanSnapshot ocean( int player ) {
+		return oceans[player];
+	}
+
+	/**
+	 * A player's ocean as text.
+	 * @param   player    the numeric id of the player
+	 * @param   yesOrNo   true if the boats are printed
+	 * @return  String    the ocean
+	 */
+	public String printOcean( int player, boolean yesOrNo ) {
+		return oceans[player].printOcean( yesOrNo );
+	}
+}
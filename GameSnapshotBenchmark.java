@@ -0,0 +1,99 @@
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class measures GameSnapshot. It plays a game
+ * at random on a board of any size, publishing a
+ * snapshot after every move, while reader threads
+ * print boards from the latest snapshot, and reports
+ * what the snapshots cost and whether any reader saw
+ * a board part way through a move.
+ */
+public class GameSnapshotBenchmark {
+
+	/**
+	 * The main method. It times how long a snapshot
+	 * takes to make after each move of a game played
+	 * at random, and how many boards reader threads
+	 * print from the latest snapshot meanwhile. Each
+	 * reader checks that what it read is the board
+	 * as it was after that move, not part way through.
+	 * @param   args   command line arguments: the number
+	 *                 of readers, the moves, and the size
+	 *                 of the board such as 1000x1000
+	 */
+	public static void main( String [] args ) throws InterruptedException {
+
+		int readers = args.length > 0 ? Integer.parseInt( args[0] ) : 8;
+		int moves = args.length > 1 ? Integer.parseInt( args[1] ) : 200000;
+		String[] size = ( args.length > 2 ? args[2] : "10x10" ).split( "x" );
+		int rows = Integer.parseInt( size[0] );
+		int columns = Integer.parseInt( size[size.length - 1] );
+
+		// The ships lie along the first eight rows, the
+		// longest five cells, and the shots go below them
+		if( rows <= 8 || columns < 5 ) {
+			throw new IllegalArgumentException( "A board of " + rows + "x" + columns
+					+ " is too small, it needs at least 9x5" );
+		}
+
+		Model model = new Model( rows, columns );
+		model.modelSetUp( 'A', 'B' );
+		for( int player = 0; player < 2; player++ ) {
+			for( int ship = 0; ship < 4; ship++ ) {
+				model.buildShip( player, 2 * ship, 0, "east" );
+			}
+		}
+
+		// The checksums of the oceans after each
+		// move, as the model had them
+		ConcurrentHashMap<Integer, Long> expected = new ConcurrentHashMap<>();
+		AtomicBoolean done = new AtomicBoolean();
+		LongAdder printed = new LongAdder();
+		LongAdder torn = new LongAdder();
+
+		Thread[] reading = new Thread[readers];
+		for( int reader = 0; reader < readers; reader++ ) {
+			reading[reader] = new Thread( () -> {
+				while( !done.get() ) {
+					GameSnapshot snapshot = model.snapshot();
+					int length = snapshot.printOcean( 0, true ).length() + snapshot.printOcean( 1, false ).length();
+					Long sums = expected.get( snapshot.version );
+					if( length == 0 || sums != null && sums != ( (long) snapshot.oceans[0].checksum( true ) << 32
+							| snapshot.oceans[1].checksum( true ) & 0xFFFFFFFFL ) ) {
+						torn.increment();
+					}
+					printed.increment();
+				}
+			}, "reader-" + reader );
+			reading[reader].start();
+		}
+
+		// Fire at random, leaving the ships afloat so
+		// the game goes on, and time the snapshots alone
+		Random random = new Random( 1 );
+		long snapshotNanos = 0;
+		long start = System.nanoTime();
+		for( int move = 0; move < moves; move++ ) {
+			int row = 8 + random.nextInt( rows - 8 );
+			int column = random.nextInt( columns );
+			model.fleets[move & 1].checkHit( row, column, move % 2 == 0 ? 'a' : 'b' );
+			long before = System.nanoTime();
+			model.publish();
+			snapshotNanos += System.nanoTime() - before;
+			expected.put( model.snapshot().version, (long) model.oceans[0].checksum( true ) << 32
+					| model.oceans[1].checksum( true ) & 0xFFFFFFFFL );
+		}
+		double seconds = ( System.nanoTime() - start ) / 1e9;
+		done.set( true );
+		for( Thread thread : reading ) {
+			thread.join();
+		}
+
+		System.out.printf( "%dx%d readers=%d moves=%d snapshot=%.2f us/move moves/s=%.0f" +
+				" prints/s=%.0f torn=%d%n", rows, columns, readers, moves, snapshotNanos / 1e3 / moves,
+				moves / seconds, 2 * printed.sum() / seconds, torn.sum() );
+	}
+}
@@ -0,0 +1,600 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class sits between players and a server on
+ * the local machine and makes the link between them
+ * behave like a worse one. Everything it forwards is
+ * held back for a while, according to a Profile: a
+ * fixed latency each way plus some random jitter, a
+ * bandwidth cap, and for UDP a chance of each datagram
+ * being lost or arriving out of order. It lets the
+ * TCP and UDP servers be compared under the same
+ * conditions, over and over, on one machine.
+ *
+ * For TCP, bytes are passed on in the order they
+ * came, as the stream would. A segment that would have
+ * been lost is instead held back as long as TCP would
+ * take to send it again, and everything behind it
+ * waits too. Streams can not be reordered.
+ *
+ * For UDP, each player address gets its own socket
+ * towards the server, so the server still sees every
+ * player apart.
+ *
+ * Each direction of each link is passed on by a
+ * thread of its own, so a player who stops reading
+ * holds up nobody else. Once a direction has
+ * BACKLOG bytes waiting, a TCP stream is no longer
+ * read, so its sender is held back as it would be
+ * by a slow link, and datagrams are dropped, as a
+ * full router queue would.
+ */
+public class ImpairmentProxy {
+
+	// How long TCP takes at least to send
+	// a lost segment again, as in Linux
+	public static final long TCP_MIN_RTO = TimeUnit.MILLISECONDS.toNanos( 200 );
+
+	// The largest read passed on at once
+	public static final int CHUNK_SIZE = 16384;
+
+	// The most bytes waiting in one direction
+	// of a link before it pushes back
+	public static final int BACKLOG = 1 << 18;
+
+	/**
+	 * How bad a link is. Latency and jitter are one
+	 * way, in milliseconds. Rate is in bytes per
+	 * second each way, 0 for no cap.
+	 */
+	public static class Profile {
+
+		String name;
+		double latency;
+		double jitter;
+		double loss;
+		double reorder;
+		long rate;
+
+		public Profile( String name, double latency, double jitter, double loss, double reorder, long rate ) {
+			this.name = name;
+			this.latency = latency;
+			this.jitter = jitter;
+			this.loss = loss;
+			this.reorder = reorder;
+			this.rate = rate;
+		}
+
+		/**
+		 * A profile by name, or made up of
+		 * key=value pairs separated by commas, for
+		 * example "latency=40,jitter=15,loss=0.02,
+		 * reorder=0.01,rate=250000". Pairs may follow
+		 * a name to change some of its values.
+		 * @param   spec      the name or the pairs
+		 * @return  Profile   the profile
+		 */
+		public static Profile of( String spec ) {
+
+			Profile profile = new Profile( spec, 0, 0, 0, 0, 0 );
+			for( String part : spec.split( "," ) ) {
+				String[] pair = part.split( "=" );
+				if( pair.length == 1 ) {
+					Profile named = named( pair[0] );
+					profile.latency = named.latency;
+					profile.jitter = named.jitter;
+					profile.loss = named.loss;
+					profile.reorder = named.reorder;
+					profile.rate = named.rate;
+					continue;
+				}
+
+				double value = Double.parseDouble( pair[1] );
+				switch( pair[0] ) {
+				case "latency": profile.latency = value; break;
+				case "jitter": profile.jitter = value; break;
+				case "loss": profile.loss = value; break;
+				case "reorder": profile.reorder = value; break;
+				case "rate": profile.rate = (long) value; break;
+				default: throw new IllegalArgumentException( "Unknown setting " + pair[0] );
+				}
+			}
+			return profile;
+		}
+
+		/**
+		 * One of the built in profiles.
+		 * @param   name      its name
+		 * @return  Profile   the profile
+		 */
+		public static Profile named( String name ) {
+
+			switch( name ) {
+			case "none": return new Profile( name, 0, 0, 0, 0, 0 );
+			case "lan": return new Profile( name, 0.2, 0.1, 0, 0, 0 );
+			case "wifi": return new Profile( name, 3, 2, 0.005, 0, 0 );
+			case "mobile": return new Profile( name, 40, 15, 0.02, 0.01, 250000 );
+			case "lossy": return new Profile( name, 20, 5, 0.1, 0.02, 0 );
+			case "satellite": return new Profile( name, 300, 10, 0.005, 0, 125000 );
+			default: throw new IllegalArgumentException( "Unknown profile " + name );
+			}
+		}
+
+		public String toString() {
+			return name + " (latency=" + latency + " ms jitter=" + jitter + " ms loss=" + loss +
+					" reorder=" + reorder + " rate=" + ( rate == 0 ? "unlimited" : rate + " B/s" ) + ")";
+		}
+	}
+
+	/**
+	 * One direction of one player's link. It
+	 * remembers when the link is free to send
+	 * again, for the bandwidth cap, and for streams
+	 * when the last bytes arrive, so later bytes
+	 * never overtake them. It holds what is waiting
+	 * to be passed on, and how many bytes that is,
+	 * and its own thread passes it on.
+	 */
+	static class Lane {
+		long free;
+		long last;
+		DelayQueue<Delivery> line = new DelayQueue<>();
+		long backlog;
+		Thread writing;
+
+		// Set by the last delivery of a stream,
+		// after which the thread ends
+		boolean ended;
+	}
+
+	/**
+	 * Something to be passed on once its time comes.
+	 */
+	static class Delivery implements Delayed {
+
+		long due;
+		long order;
+		int size;
+		Runnable send;
+
+		Delivery( long due, long order, int size, Runnable send ) {
+			this.due = due;
+			this.order = order;
+			this.size = size;
+			this.send = send;
+		}
+
+		public long getDelay( TimeUnit unit ) {
+			return unit.convert( due - System.nanoTime(), TimeUnit.NANOSECONDS );
+		}
+
+		public int compareTo( Delayed other ) {
+			Delivery delivery = (Delivery) other;
+			int compared = Long.compare( due, delivery.due );
+			return compared != 0 ? compared : Long.compare( order, delivery.order );
+		}
+	}
+
+	// How bad the link is
+	Profile profile;
+
+	// Where players connect and where
+	// the server is
+	int port;
+	SocketAddress target;
+
+	// Keeps deliveries due at the same time in
+	// the order they were made
+	AtomicLong order = new AtomicLong();
+
+	// Seeded, so a run can be repeated
+	Random random = new Random( 4455 );
+
+	// What the proxy has done
+	LongAdder forwarded = new LongAdder();
+	LongAdder dropped = new LongAdder();
+	LongAdder delayed = new LongAdder();
+	LongAdder bytes = new LongAdder();
+
+	// Open while the proxy runs
+	ServerSocket listener;
+	DatagramChannel front;
+	ConcurrentHashMap<SocketAddress, DatagramChannel> upstreams = new ConcurrentHashMap<>();
+
+	// Both directions of each player's link,
+	// towards the server first
+	ConcurrentHashMap<SocketAddress, Lane[]> lanes = new ConcurrentHashMap<>();
+
+	// False once the proxy is closed
+	volatile boolean running = true;
+
+	// Every lane whose thread may still be running
+	Set<Lane> writers = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The constructor.
+	 * @param   profile   how bad the link is
+	 * @param   target    the address of the server
+	 */
+	public ImpairmentProxy( Profile profile, SocketAddress target ) {
+		this.profile = profile;
+		this.target = target;
+	}
+
+	/**
+	 * Make one direction of a link and start the
+	 * thread that passes on what goes along it once
+	 * its time comes.
+	 * @return  Lane   the direction
+	 */
+	Lane lane() {
+
+		Lane lane = new Lane();
+		lane.writing = new Thread( () -> {
+			while( running && !lane.ended ) {
+				Delivery delivery;
+				try {
+					delivery = lane.line.take();
+				} catch ( InterruptedException e ) {
+					break;
+				}
+				delivery.send.run();
+				synchronized( lane ) {
+					lane.backlog -= delivery.size;
+					lane.notifyAll();
+				}
+			}
+			writers.remove( lane );
+		}, "proxy-delivery" );
+		lane.writing.setDaemon( true );
+		writers.add( lane );
+		lane.writing.start();
+		return lane;
+	}
+
+	/**
+	 * Work out when something sent now arrives,
+	 * and queue it to be passed on then. Part of
+	 * a stream waits for room in the lane first,
+	 * and a datagram with no room is dropped.
+	 * @param   lane     the direction it goes in
+	 * @param   size     its size in bytes
+	 * @param   stream   true if it is part of a TCP
+	 *                   stream and may not be lost
+	 *                   or reordered
+	 * @param   send     passes it on
+	 */
+	void schedule( Lane lane, int size, boolean stream, Runnable send ) throws InterruptedIOException {
+
+		long due;
+		synchronized( lane ) {
+			while( stream && lane.backlog >= BACKLOG && running ) {
+				try {
+					lane.wait( 100 );
+				} catch ( InterruptedException e ) {
+					throw new InterruptedIOException();
+				}
+			}
+			long now = System.nanoTime();
+			boolean lost = profile.loss > 0 && random.nextDouble() < profile.loss;
+			if( lost && !stream || !stream && lane.backlog >= BACKLOG ) {
+				dropped.increment();
+				return;
+			}
+
+			// It can only start once what went before
+			// it is out, and takes as long as its size
+			// allows at the rate of the link
+			long start = Math.max( now, lane.free );
+			lane.free = start + ( profile.rate == 0 ? 0 : size * 1000000000L / profile.rate );
+
+			long latency = millis( profile.latency + random.nextDouble() * profile.jitter );
+			due = lane.free + latency;
+
+			if( stream ) {
+
+				// A lost segment arrives once TCP has
+				// noticed and sent it again
+				if( lost ) {
+					due += Math.max( TCP_MIN_RTO, 2 * latency );
+					delayed.increment();
+				}
+				due = Math.max( due, lane.last );
+				lane.last = due;
+			}
+			else if( profile.reorder > 0 && random.nextDouble() < profile.reorder ) {
+
+				// Held back long enough for the next
+				// datagram or two to overtake it
+				due += Math.max( millis( 1 ), latency );
+				delayed.increment();
+			}
+			lane.backlog += size;
+		}
+
+		forwarded.increment();
+		bytes.add( size );
+		lane.line.add( new Delivery( due, order.incrementAndGet(), size, send ) );
+	}
+
+	/**
+	 * A number of milliseconds in nanoseconds.
+	 * @param   millis   the milliseconds
+	 * @return  long     the nanoseconds
+	 */
+	private static long millis( double millis ) {
+		return (long) ( millis * 1000000 );
+	}
+
+	/**
+	 * Start passing TCP connections on to the server.
+	 * @param   port   the port to listen on, 0 for any
+	 * @return  int    the port listened on
+	 */
+	public int startTcp( int port ) throws IOException {
+
+		listener = new ServerSocket( port, 1024, InetAddress.getLoopbackAddress() );
+		this.port = listener.getLocalPort();
+
+		Thread accepting = new Thread( () -> {
+			while( running ) {
+				try {
+					Socket client = listener.accept();
+					Socket server = new Socket();
+					server.connect( target );
+					client.setTcpNoDelay( true );
+					server.setTcpNoDelay( true );
+					pump( client, server );
+					pump( server, client );
+				} catch ( IOException e ) {
+					if( running ) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}, "proxy-accept" );
+		accepting.setDaemon( true );
+		accepting.start();
+		return this.port;
+	}
+
+	/**
+	 * Pass one direction of a TCP connection on,
+	 * reading it in its own thread and writing it
+	 * in the lane's. Once it ends, the other
+	 * side's output is shut once everything before
+	 * has arrived, and once both directions have
+	 * ended the connection is closed.
+	 * @param   from   where the bytes come from
+	 * @param   to     where they go
+	 */
+	private void pump( Socket from, Socket to ) {
+
+		Lane lane = lane();
+		Thread pumping = new Thread( () -> {
+			try {
+				InputStream in = from.getInputStream();
+				OutputStream out = to.getOutputStream();
+				byte[] chunk = new byte[CHUNK_SIZE];
+				int read;
+				while( ( read = in.read( chunk ) ) > 0 ) {
+					byte[] bytes = Arrays.copyOf( chunk, read );
+					schedule( lane, read, true, () -> {
+						try {
+							out.write( bytes );
+						} catch ( IOException e ) {
+							close( from, to );
+						}
+					} );
+				}
+				schedule( lane, 0, true, () -> {
+					lane.ended = true;
+					try {
+						to.shutdownOutput();
+					} catch ( IOException e ) {
+						close( from, to );
+					}
+				} );
+			} catch ( IOException e ) {
+				close( from, to );
+				lane.writing.interrupt();
+			}
+		}, "proxy-pump" );
+		pumping.setDaemon( true );
+		pumping.start();
+	}
+
+	/**
+	 * Close both sides of a TCP connection.
+	 * @param   sockets   the sides
+	 */
+	private static void close( Socket... sockets ) {
+		for( Socket socket : sockets ) {
+			try {
+				socket.close();
+			} catch ( IOException e ) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Start passing UDP datagrams on to the server.
+	 * @param   port   the port to listen on, 0 for any
+	 * @return  int    the port listened on
+	 */
+	public int startUdp( int port ) throws IOException {
+
+		front = DatagramChannel.open();
+		front.bind( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ) );
+		this.port = ( (InetSocketAddress) front.getLocalAddress() ).getPort();
+
+		Thread receiving = new Thread( () -> {
+			ByteBuffer buffer = ByteBuffer.allocate( 65536 );
+			while( running ) {
+				try {
+					buffer.clear();
+					SocketAddress player = front.receive( buffer );
+					buffer.flip();
+					ByteBuffer datagram = ByteBuffer.allocate( buffer.remaining() ).put( buffer ).flip();
+
+					// Each player gets their own socket
+					// towards the server the first time
+					// they are heard from
+					DatagramChannel upstream = upstreams.get( player );
+					if( upstream == null ) {
+						upstream = upstream( player );
+					}
+
+					DatagramChannel channel = upstream;
+					Lane lane = lanes.computeIfAbsent( player, key -> new Lane[] { lane(), lane() } )[0];
+					schedule( lane, datagram.remaining(), false, () -> {
+						try {
+							channel.write( datagram );
+						} catch ( IOException e ) {
+							if( running ) {
+								e.printStackTrace();
+							}
+						}
+					} );
+				} catch ( IOException e ) {
+					if( running ) {
+						e.printStackTrace();
+					}
+					return;
+				}
+			}
+		}, "proxy-front" );
+		receiving.setDaemon( true );
+		receiving.start();
+		return this.port;
+	}
+
+	/**
+	 * Open a player's socket towards the server and
+	 * start passing on what comes back on it.
+	 * @param   player            the player's address
+	 * @return  DatagramChannel   the socket
+	 */
+	private DatagramChannel upstream( SocketAddress player ) throws IOException {
+
+		DatagramChannel upstream = DatagramChannel.open();
+		upstream.connect( target );
+		upstreams.put( player, upstream );
+		Lane lane = lanes.computeIfAbsent( player, key -> new Lane[] { lane(), lane() } )[1];
+
+		Thread receiving = new Thread( () -> {
+			ByteBuffer buffer = ByteBuffer.allocate( 65536 );
+			while( running ) {
+				try {
+					buffer.clear();
+					upstream.read( buffer );
+					buffer.flip();
+					ByteBuffer datagram = ByteBuffer.allocate( buffer.remaining() ).put( buffer ).flip();
+					schedule( lane, datagram.remaining(), false, () -> {
+						try {
+							front.send( datagram, player );
+						} catch ( IOException e ) {
+							if( running ) {
+								e.printStackTrace();
+							}
+						}
+					} );
+				} catch ( IOException e ) {
+
+					// Nothing listens on the server's port
+					// yet, or the proxy was closed
+					if( !running || !upstream.isOpen() ) {
+						return;
+					}
+				}
+			}
+		}, "proxy-upstream" );
+		receiving.setDaemon( true );
+		receiving.start();
+		return upstream;
+	}
+
+	/**
+	 * Stop passing anything on.
+	 */
+	public void close() {
+
+		running = false;
+		for( Lane lane : writers ) {
+			lane.writing.interrupt();
+		}
+		try {
+			if( listener != null ) {
+				listener.close();
+			}
+			if( front != null ) {
+				front.close();
+			}
+			for( DatagramChannel upstream : upstreams.values() ) {
+				upstream.close();
+			}
+		} catch ( IOException e ) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * What the proxy has done so far.
+	 * @return   String   the counts
+	 */
+	public String toString() {
+		return "forwarded=" + forwarded.sum() + " dropped=" + dropped.sum() +
+				" delayed=" + delayed.sum() + " bytes=" + bytes.sum();
+	}
+
+	/**
+	 * The main method. It runs a proxy until it is
+	 * stopped.
+	 * @param   args   command line arguments: tcp or
+	 *                 udp, the port to listen on, the
+	 *                 server's host and port, and the
+	 *                 profile
+	 */
+	public static void main( String [] args ) throws IOException, InterruptedException {
+
+		if( args.length < 5 ) {
+			System.out.println( "usage: ImpairmentProxy tcp|udp port host port profile" );
+			System.out.println( "profiles: none lan wifi mobile lossy satellite, or" +
+					" latency=,jitter=,loss=,reorder=,rate= pairs" );
+			return;
+		}
+
+		Profile profile = Profile.of( args[4] );
+		ImpairmentProxy proxy = new ImpairmentProxy( profile,
+				new InetSocketAddress( args[2], Integer.parseInt( args[3] ) ) );
+		int port = args[0].equalsIgnoreCase( "udp" ) ? proxy.startUdp( Integer.parseInt( args[1] ) )
+				: proxy.startTcp( Integer.parseInt( args[1] ) );
+		System.out.println( "Proxying " + args[0] + " port " + port + " to " + args[2] + ":" + args[3] +
+				" as " + profile );
+
+		while( true ) {
+			Thread.sleep( 5000 );
+			System.out.println( proxy );
+		}
+	}
+}
@@ -0,0 +1,98 @@
+import java.util.Arrays;
+
+/**
+ * A table from numbers, such as the number of a
+ * cell on the ocean, to small ints. It is kept in
+ * two arrays with open addressing, so looking a
+ * number up allocates nothing, and it grows with
+ * the numbers put in it rather than with how large
+ * they are. Numbers may not be negative.
+ */
+public class LongIndex {
+
+	// The numbers, -1 where a slot is free, and
+	// the int kept for each
+	long[] keys;
+	int[] values;
+
+	// The number of slots in use
+	int size = 0;
+
+	/**
+	 * The constructor.
+	 * @param   capacity   the number of slots to
+	 *                     start with, a power of two
+	 */
+	public LongIndex( int capacity ) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill( keys, -1 );
+	}
+
+	/**
+	 * The slot a number's search starts at.
+	 * @param   key    the number
+	 * @return  int    the slot
+	 */
+	private int slot( long key ) {
+		return (int) ( key * 0x9E3779B97F4A7C15L >>> 32 ) & ( keys.length - 1 );
+	}
+
+	/**
+	 * The int kept for a number.
+	 * @param   key   the number
+	 * @return  int   the int, -1 if there is none
+	 */
+	public int get( long key ) {
+		int at = slot( key );
+		while( keys[at] >= 0 ) {
+			if( keys[at] == key ) {
+				return values[at];
+			}
+			at = ( at + 1 ) & ( keys.length - 1 );
+		}
+		return -1;
+	}
+
+	/**
+	 * Keep an int for a number, replacing any
+	 * kept before. The table is doubled once it
+	 * is half full.
+	 * @param   key     the number
+	 * @param   value   the int
+	 */
+	public void put( long key, int value ) {
+
+		if( 2 * ( size + 1 ) > keys.length ) {
+			long[] oldKeys = keys;
+			int[] oldValues = values;
+			keys = new long[oldKeys.length * 2];
+			values = new int[oldKeys.length * 2];
+			Arrays.fill( keys, -1 );
+			size = 0;
+			for( int old = 0; old < oldKeys.length; old++ ) {
+				if( oldKeys[old] >= 0 ) {
+					put( oldKeys[old], oldValues[old] );
+				}
+			}
+		}
+
+		int at = slot( key );
+		while( keys[at] >= 0 && keys[at] != key ) {
+			at = ( at + 1 ) & ( keys.length - 1 );
+		}
+		if( keys[at] < 0 ) {
+			size++;
+		}
+		keys[at] = key;
+		values[at] = value;
+	}
+
+	/**
+	 * The number of numbers kept.
+	 * @return   int   the count
+	 */
+	public int size() {
+		return size;
+	}
+}
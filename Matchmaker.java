@@ -0,0 +1,162 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The purpose of this class is to pair up players
+ * who are looking for a game. Players are paired in
+ * the order they arrive. The lobby is split into
+ * shards, each of which holds at most one waiting
+ * player, so players arriving on different threads
+ * mostly touch different shards. A player is handed
+ * over with a single compare-and-set, without locks.
+ * @param   <T>   what a player is represented by
+ */
+public class Matchmaker<T> {
+
+	/**
+	 * A player waiting in a shard, and when
+	 * they started waiting.
+	 */
+	static class Ticket<T> {
+
+		T player;
+		long enqueued;
+
+		Ticket( T player, long enqueued ) {
+			this.player = player;
+			this.enqueued = enqueued;
+		}
+	}
+
+	// The shards, each empty or holding a waiting player
+	AtomicReferenceArray<Ticket<T>> shards;
+
+	// The number of players waiting
+	AtomicInteger depth = new AtomicInteger();
+
+	// The number of players paired with someone who
+	// was waiting, and how long those waited in total
+	LongAdder matches = new LongAdder();
+	LongAdder waitNanos = new LongAdder();
+
+	/**
+	 * The constructor.
+	 * @param   count   the number of shards, usually
+	 *                  the number of cores
+	 */
+	public Matchmaker( int count ) {
+		shards = new AtomicReferenceArray<>( Math.max( 1, count ) );
+	}
+
+	/**
+	 * Look for an opponent for a player. If someone is
+	 * waiting they are taken out of the lobby and
+	 * returned. Otherwise the player waits, and will be
+	 * returned to whoever joins next.
+	 * @param   player   the player looking for a game
+	 * @return  T        their opponent, or null if they
+	 *                   are now waiting
+	 */
+	public T join( T player ) {
+
+		Ticket<T> ticket = new Ticket<>( player, System.nanoTime() );
+		int home = (int) ( Thread.currentThread().getId() % shards.length() );
+
+		while( true ) {
+
+			// Take whoever is waiting, starting with
+			// this thread's own shard
+			Ticket<T> other = take( home );
+			if( other != null ) {
+				return other.player;
+			}
+
+			// Nobody is waiting, so wait here
+			depth.incrementAndGet();
+			if( !shards.compareAndSet( home, null, ticket ) ) {
+				depth.decrementAndGet();
+				continue;
+			}
+
+			// Someone may have started waiting in another
+			// shard while we looked. If so, step back out
+			// and take them, unless we were taken first.
+			if( waitingElsewhere( home ) ) {
+				if( !shards.compareAndSet( home, ticket, null ) ) {
+					return null;
+				}
+				depth.decrementAndGet();
+				continue;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Take a waiting player out of the lobby.
+	 * @param   home     the shard to look in first
+	 * @return  Ticket   the player taken, null if
+	 *                   nobody was waiting
+	 */
+	private Ticket<T> take( int home ) {
+
+		for( int index = 0; index < shards.length(); index++ ) {
+			int shard = ( home + index ) % shards.length();
+			Ticket<T> other = shards.get( shard );
+			if( other != null && shards.compareAndSet( shard, other, null ) ) {
+				depth.decrementAndGet();
+				matches.increment();
+				waitNanos.add( System.nanoTime() - other.enqueued );
+				return other;
+			}
+		}
+		return null;
+	}
+
+	private boolean waitingElsewhere( int home ) {
+		for( int shard = 0; shard < shards.length(); shard++ ) {
+			if( shard != home && shards.get( shard ) != null ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Take a player out of the lobby, because they
+	 * left before anyone was found for them.
+	 * @param   player    the player leaving
+	 * @return  boolean   true if they were waiting
+	 */
+	public boolean leave( T player ) {
+
+		for( int shard = 0; shard < shards.length(); shard++ ) {
+			Ticket<T> ticket = shards.get( shard );
+			if( ticket != null && ticket.player == player
+					&& shards.compareAndSet( shard, ticket, null ) ) {
+				depth.decrementAndGet();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The number of players waiting for an opponent.
+	 * @return   int   the queue depth
+	 */
+	public int queueDepth() {
+		return depth.get();
+	}
+
+	/**
+	 * How long, on average, a waiting player waited
+	 * before being paired.
+	 * @return   long   the time to match, in microseconds
+	 */
+	public long averageWaitMicros() {
+		long count = matches.sum();
+		return count == 0 ? 0 : waitNanos.sum() / count / 1000;
+	}
+}
@@ -0,0 +1,50 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class measures Matchmaker. Several threads
+ * hand synthetic players to one lobby at once, and
+ * it reports how many pairs were made each second
+ * and how long a player waited to be paired.
+ */
+public class MatchmakerBenchmark {
+
+	/**
+	 * The main method. It pairs up synthetic players
+	 * from several threads at once and reports how
+	 * fast they were paired.
+	 * @param   args   command line arguments, optionally
+	 *                 the number of players and threads
+	 */
+	public static void main( String [] args ) throws InterruptedException {
+
+		int players = args.length > 0 ? Integer.parseInt( args[0] ) : 1_000_000;
+		int threads = args.length > 1 ? Integer.parseInt( args[1] )
+				: Runtime.getRuntime().availableProcessors();
+
+		Matchmaker<Integer> lobby = new Matchmaker<>( threads );
+		LongAdder games = new LongAdder();
+		CountDownLatch done = new CountDownLatch( threads );
+
+		long start = System.nanoTime();
+		for( int thread = 0; thread < threads; thread++ ) {
+			int first = thread;
+			new Thread( () -> {
+				for( int player = first; player < players; player += threads ) {
+					if( lobby.join( player ) != null ) {
+						games.increment();
+					}
+				}
+				done.countDown();
+			} ).start();
+		}
+		done.await();
+		long millis = Math.max( 1, ( System.nanoTime() - start ) / 1_000_000 );
+
+		System.out.println( "players=" + players + " threads=" + threads +
+				" games=" + games.sum() + " left waiting=" + lobby.queueDepth() +
+				" time=" + millis + " ms" +
+				" pairs/s=" + games.sum() * 1000 / millis +
+				" avg time to match=" + lobby.averageWaitMicros() + " us" );
+	}
+}
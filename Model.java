@@ -10,6 +10,52 @@ public class Model {
 	// The fleet objects, one for each player
 	Fleet[] fleets = new Fleet[2];
 	
+	// The size of the game board
+	int rows;
+	int columns;
+	
+	// Who is told when a ship is sunk, and
+	// the game they are told it was in
+	Fleet.SunkListener sunkListener;
+	int game;
+	
+	// The game as it was after the last move,
+	// for any thread to read, and the number
+	// of moves applied
+	volatile GameSnapshot snapshot;
+	int moves = 0;
+	
+	// Where the moves of the game are
+	// recorded, if anywhere
+	GameLog log;
+	
+	// True once the end of the game is recorded
+	boolean ended = false;
+	
+	/**
+	 * The constructor. The board is 10 by 10
+	 * unless the system property board.size
+	 * says otherwise, for example 1000x1000.
+	 */
+	public Model() {
+		String[] size = System.getProperty( "board.size", "10x10" ).split( "x" );
+		rows = Integer.parseInt( size[0] );
+		columns = Integer.parseInt( size[size.length - 1] );
+	}
+	
+	/**
+	 * The constructor, for a game played on
+	 * a board of a given size. Only the cells
+	 * that are marked take up memory, so the
+	 * board may be very large.
+	 * @param   rows      the number of rows
+	 * @param   columns   the number of columns
+	 */
+	public Model( int rows, int columns ) {
+		this.rows = rows;
+		this.columns = columns;
+	}
+	
 	/**
 	 * Set up the ocean and fleet objects and
 	 * the hit marks for each player
@@ -25,8 +71,8 @@ public class Model {
 		
 		// Lower right coordinates of the
 		// game board
-		int maxRow = 10;
-		int maxColumn = 10; 
+		int maxRow = rows;
+		int maxColumn = columns;
 		
 		// Ocean objects for both players
 		oceans[0] = new Ocean(minRow, minColumn, maxRow, maxColumn);
@@ -35,6 +81,56 @@ public class Model {
 		// Fleet objects for both players
 		fleets[0] = new Fleet( oceans[0], playerA );
 		fleets[1] = new Fleet( oceans[1], playerB );
+		fleets[0].listen( game, 0, sunkListener );
+		fleets[1].listen( game, 1, sunkListener );
+		publish();
+	}
+	
+	/**
+	 * Tell someone whenever a ship is sunk in
+	 * this game. It must be called before the
+	 * model is set up.
+	 * @param   game       the numeric id of the game
+	 * @param   listener   who is told
+	 */
+	public void onSunk( int game, Fleet.SunkListener listener ) {
+		this.game = game;
+		this.sunkListener = listener;
+	}
+	
+	/**
+	 * Record the moves of this game in a log.
+	 * @param   game   the numeric id of the game
+	 * @param   log    the log, or null for none
+	 */
+	public void record( int game, GameLog log ) {
+		this.game = game;
+		this.log = log;
+	}
+	
+	/**
+	 * Record that a player joined this game.
+	 * @param   player   the numeric id of the player
+	 * @param   name     the name of the player
+	 */
+	public void join( int player, String name ) {
+		if( log != null ) {
+			log.join( game, player, name );
+		}
+	}
+	
+	/**
+	 * Record that this game ended, once, however
+	 * many times it is told.
+	 * @param   winner   the numeric id of the winner,
+	 *                   or -1 if nobody won
+	 * @param   reason   why it ended, as GameLog has it
+	 */
+	public synchronized void gameOver( int winner, int reason ) {
+		if( log != null && !ended ) {
+			log.gameOver( game, winner, reason );
+		}
+		ended = true;
 	}
 	
 	/**
@@ -53,7 +149,15 @@ public class Model {
 	 *                       false otherwise
 	 */
 	public boolean buildShip( int player, int row, int column, String direction ){
-		return fleets[player].buildShip( row, column, direction );
+		boolean built = fleets[player].buildShip( row, column, direction );
+		if( built ) {
+			publish();
+			if( log != null ) {
+				Fleet fleet = fleets[player];
+				log.shipPlaced( game, player, row, column, fleet.builtLength(), fleet.builtDirection() );
+			}
+		}
+		return built;
 	}
 	
 	/**
@@ -61,26 +165,39 @@ public class Model {
 	 * is to call the Fleet object's 
 	 * checkHit() method to see if we
 	 * have hit any of the ships.
-	 * @param   row      The row that is
-	 *                   being checked
-	 * @param   column   The column that is
-	 *                   being checked
-	 * @return  boolean  If we hit this returns
-	 *                   true, otherwise false
+	 * @param   row          The row that is
+	 *                       being checked
+	 * @param   column       The column that is
+	 *                       being checked
+	 * @return  ShotResult   what became of the
+	 *                       shot, MISS if it was
+	 *                       off the ocean
 	 */
-	public boolean checkHit( int player, int row, int column, char mark ) {
+	public ShotResult checkHit( int player, int row, int column, char mark ) {
+		
+		ShotResult result = ShotResult.MISS;
 		if( oceans[player].checkOcean( row, column) ){
-			return fleets[player].checkHit( row, column, mark );
+			result = fleets[player].checkHit( row, column, mark );
+			publish();
 		}
-		else{
-			return false;
+		
+		// Only the last ship sunk ends the game
+		if( log != null ) {
+			log.shot( game, player, row, column );
+			log.result( game, player, result );
+			if( result == ShotResult.SUNK && !checkStatus() ) {
+				gameOver( victory(), GameLog.SUNK );
+			}
 		}
+		return result;
 	}
 	
 	/**
 	 * The purpose of this method is to
 	 * see whether or not all of our ships
-	 * have been sunk.
+	 * have been sunk. Each fleet counts its
+	 * ships as they sink, so this is cheap
+	 * enough to call as often as wanted.
 	 * @return   boolean   If true we still
 	 *                     have ship, if false
 	 *                     all of our ships
@@ -90,6 +207,28 @@ public class Model {
 		return fleets[0].checkShips() && fleets[1].checkShips();
 	}
 	
+	/**
+	 * Publish the game as it is now, once a move
+	 * has been applied. Only the tiles marked by
+	 * the move are copied.
+	 */
+	public void publish() {
+		snapshot = new GameSnapshot( moves++, oceans[0].snapshot(), oceans[1].snapshot(),
+				checkStatus() );
+	}
+	
+	/**
+	 * The game as it was after the last move. It
+	 * never changes, so any thread may read it
+	 * while the game goes on.
+	 * @return   GameSnapshot   the snapshot, null
+	 *                          until the model is
+	 *                          set up
+	 */
+	public GameSnapshot snapshot() {
+		return snapshot;
+	}
+	
 	/**
 	 * This method calls the Ocean class'
 	 * printOcean method
@@ -101,6 +240,18 @@ public class Model {
 		return oceans[player].printOcean(yesOrNo);
 	}
 	
+	/**
+	 * This method creates an OceanView, which keeps
+	 * track of what a player has seen of an ocean
+	 * @param   player    the numeric id of the player
+	 *                    whose ocean is watched
+	 * @param   yesOrNo   True if the ships may be
+	 *                    seen, false otherwise
+	 */
+	public OceanView viewOcean( int player, boolean yesOrNo ) {
+		return new OceanView( oceans[player], yesOrNo );
+	}
+	
 	/**
 	 * This method checks to see who
 	 * has won the game.
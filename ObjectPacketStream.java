@@ -0,0 +1,61 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * A PacketStream that sends Packets with Java
+ * serialization. It is kept so that players
+ * built before the binary format can still play.
+ */
+public class ObjectPacketStream implements PacketStream {
+
+	// Streams for reading and writing
+	// objects
+	ObjectInputStream ois;
+	ObjectOutputStream oos;
+
+	/**
+	 * The constructor, for the server's end of the
+	 * connection. The player's stream header is read
+	 * before ours is written.
+	 * @param   in    the connection's input
+	 * @param   out   the connection's output
+	 */
+	public ObjectPacketStream( InputStream in, OutputStream out ) throws IOException {
+		ois = new ObjectInputStream( in );
+		oos = new ObjectOutputStream( out );
+	}
+
+	/**
+	 * The constructor, for the player's end of the
+	 * connection. The stream header is written before
+	 * the server's is read.
+	 * @param   out   the connection's output
+	 * @param   in    the connection's input
+	 */
+	public ObjectPacketStream( OutputStream out, InputStream in ) throws IOException {
+		oos = new ObjectOutputStream( out );
+		ois = new ObjectInputStream( in );
+	}
+
+	public void write( Packet<?> packet ) throws IOException {
+		oos.writeObject( packet );
+		oos.flush();
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> Packet<T> read() throws IOException, ClassNotFoundException {
+		return (Packet<T>) ois.readObject();
+	}
+
+	public int available() throws IOException {
+		return ois.available();
+	}
+
+	public void close() throws IOException {
+		oos.close();
+		ois.close();
+	}
+}
@@ -1,17 +1,60 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
 /**
  * The purpose of this class is to
  * simulate an ocean in a game of
  * battle ship. It is represented
- * by a 2D char array of ' ' characters.
- * Hit, miss, and boat markers are 
- * placed on it. 
+ * by three sets of cells, one bit per
+ * cell: the cells taken by boats, the
+ * cells hit and the cells missed. The
+ * board is cut into tiles of 8 by 8
+ * cells, one long per set, and only the
+ * tiles that have been marked are kept,
+ * so a board of any size costs memory
+ * only for its boats and shots. Hit, miss,
+ * and boat markers are placed on it. Every
+ * mark placed is also
+ * logged, so that a player who has a copy of
+ * the board can be sent just the cells that
+ * changed since they last saw it. Each
+ * way of printing the board keeps its text
+ * once printed, and only the rows marked
+ * since are printed again. An OceanSnapshot
+ * of it can be taken for other threads to
+ * read, sharing every tile not marked since
+ * the last one.
  *
  */
 public class Ocean {
 	
-	// The 2D char array that will
-	// hold the game board
-	char [][] ocean;
+	// Indicates a miss
+	public static final char MISS = '*';
+	
+	// The side of a tile is 1 << TILE_SHIFT
+	public static final int TILE_SHIFT = 3;
+	
+	// Boards with more cells than this are
+	// printed as a list of their marks
+	public static final long PRINT_LIMIT = 1 << 20;
+	
+	// The tiles that have been marked, in the
+	// order they were first marked. Tiles are
+	// numbered along the rows of tiles.
+	LongIndex tiles = new LongIndex( 16 );
+	long[] tileNumbers = new long[8];
+	int tileCount = 0;
+	
+	// The number of tiles across the board
+	int tileColumns;
+	
+	// For each tile kept, its cells taken by
+	// boats, hit and missed. Cell ( row, column )
+	// of a tile is bit row * 8 + column.
+	long[] boats = new long[8];
+	long[] hits = new long[8];
+	long[] misses = new long[8];
 	
 	// Size of the game board
 	int rowSize;
@@ -28,10 +71,51 @@ public class Ocean {
 	// Indicates a boat piece
 	char boat = ' ';
 	
+	// Indicates a hit
+	char hit = ' ';
+	
+	// Every mark placed so far, in order, as
+	// { row, column, mark }. The number of marks
+	// in it is the version of the board.
+	ArrayList<int[]> changes = new ArrayList<>();
+	
+	/**
+	 * The printed board for one way of printing
+	 * it, one byte per character. Every line is
+	 * the same length, so a row is always in the
+	 * same place and can be printed again by
+	 * itself.
+	 */
+	static class Rendering {
+		
+		// The text of the board, borders included
+		byte[] text;
+		
+		// The rows marked since they were printed,
+		// one bit per row
+		long[] dirty;
+		
+		// Whether any row is in dirty
+		boolean stale = false;
+		
+		// The text as last returned, null once
+		// a row has been marked
+		String printed;
+	}
+	
+	// The board as printed with its boats hidden
+	// and shown, null until it is first printed
+	Rendering[] renderings = new Rendering[2];
+	
+	// The last snapshot taken, null until one is,
+	// and the tiles marked since
+	OceanSnapshot published;
+	int[] pending = new int[8];
+	int pendingCount = 0;
+	
 	/**
 	 * The constructor. It creates the
-	 * object and initializes the 
-	 * 2d char array.
+	 * object and the empty sets of cells.
 	 * @param   minRow      the row position of the
 	 *                      upper left corner   
 	 * @param   minColumn   the column position of
@@ -55,15 +139,67 @@ public class Ocean {
 		// Determine the number of columns
 		columnSize = maxColumn - minColumn;
 		
-		// Initialize the size of the ocean
-		ocean = new char [maxRow - minRow] [maxColumn - minColumn];
+		// No tile is kept until it is marked, so
+		// every cell starts out empty
+		tileColumns = ( columnSize + ( 1 << TILE_SHIFT ) - 1 ) >>> TILE_SHIFT;
+	}
+	
+	/**
+	 * The number of the tile a cell is in.
+	 * @param   row      the row of the cell
+	 * @param   column   the column of the cell
+	 * @return  long     the number of the tile
+	 */
+	private long tile( int row, int column ) {
+		return (long) ( row >>> TILE_SHIFT ) * tileColumns + ( column >>> TILE_SHIFT );
+	}
+	
+	/**
+	 * The bit of a cell in its tile.
+	 * @param   row      the row of the cell
+	 * @param   column   the column of the cell
+	 * @return  long     the bit
+	 */
+	private static long bit( int row, int column ) {
+		int mask = ( 1 << TILE_SHIFT ) - 1;
+		return 1L << ( ( row & mask ) << TILE_SHIFT | column & mask );
+	}
+	
+	/**
+	 * Where a cell's tile is kept.
+	 * @param   row      the row of the cell
+	 * @param   column   the column of the cell
+	 * @return  int      the index of the tile, -1
+	 *                   if it has never been marked
+	 */
+	private int find( int row, int column ) {
+		return tiles.get( tile( row, column ) );
+	}
+	
+	/**
+	 * Where a cell's tile is kept, keeping a
+	 * new one if it has never been marked.
+	 * @param   row      the row of the cell
+	 * @param   column   the column of the cell
+	 * @return  int      the index of the tile
+	 */
+	private int keep( int row, int column ) {
 		
-		// Initalize all positions in the ocean to ' '
-		for( int outer = 0; outer < rowSize; outer++ ) {
-			for( int inner = 0; inner < columnSize; inner++ ) {
-				ocean[outer][inner] = ' ';
+		long number = tile( row, column );
+		int index = tiles.get( number );
+		if( index < 0 ) {
+			if( tileCount == tileNumbers.length ) {
+				int grown = tileCount * 2;
+				tileNumbers = Arrays.copyOf( tileNumbers, grown );
+				boats = Arrays.copyOf( boats, grown );
+				hits = Arrays.copyOf( hits, grown );
+				misses = Arrays.copyOf( misses, grown );
 			}
+			index = tileCount++;
+			tileNumbers[index] = number;
+			tiles.put( number, index );
 		}
+		return index;
 	}
 	
 	/**
@@ -74,6 +210,9 @@ public class Ocean {
 	 *                 piece of a boat
 	 */
 	public void boatCharacter( char boat ) {
+		if( boat != this.boat ) {
+			renderings[0] = renderings[1] = null;
+		}
 		this.boat = boat;
 	}
 	
@@ -89,7 +228,278 @@ public class Ocean {
 	 *                   a hit or miss
 	 */
 	public void setMark( int row, int column, char mark ) {	
-		ocean[row][column] = mark;
+		put( row, column, mark );
+		changes.add( new int[] { row, column, mark } );
+	}
+	
+	/**
+	 * Show a mark at a position without logging it,
+	 * as a player's copy of the board does. A space
+	 * clears the cell. A mark that is neither the
+	 * boat, hit nor miss mark is taken to be the
+	 * boat mark if it is a capital letter and the
+	 * hit mark otherwise, as the servers mark them.
+	 * @param   row      the row of the position
+	 * @param   column   the column of the position
+	 * @param   mark     the mark shown there
+	 */
+	public void put( int row, int column, char mark ) {
+		
+		// Learn the marks of a copy from
+		// what it is sent
+		if( mark != ' ' && mark != MISS && mark != boat && mark != hit ) {
+			if( Character.isUpperCase( mark ) ) {
+				boat = mark;
+			} else {
+				hit = mark;
+			}
+			
+			// Cells already printed may show
+			// the mark that was replaced
+			renderings[0] = renderings[1] = null;
+		}
+		touched( row );
+		
+		long bit = bit( row, column );
+		if( mark == ' ' ) {
+			int tile = find( row, column );
+			if( tile >= 0 ) {
+				boats[tile] &= ~bit;
+				hits[tile] &= ~bit;
+				misses[tile] &= ~bit;
+				marked( tile );
+			}
+			return;
+		}
+		
+		int tile = keep( row, column );
+		marked( tile );
+		
+		// A miss shows over a hit, but the hit
+		// is kept, as the boat is still sunk
+		if( mark == MISS ) {
+			misses[tile] |= bit;
+		}
+		
+		// A hit leaves the boat underneath it,
+		// so a boat that is hit everywhere can
+		// be told from one that was never there
+		else if( mark == hit ) {
+			hits[tile] |= bit;
+			misses[tile] &= ~bit;
+		}
+		else {
+			boats[tile] |= bit;
+			hits[tile] &= ~bit;
+			misses[tile] &= ~bit;
+		}
+	}
+	
+	/**
+	 * Note that a row has to be printed again.
+	 * @param   row   the row marked
+	 */
+	private void touched( int row ) {
+		for( Rendering rendering : renderings ) {
+			if( rendering != null ) {
+				rendering.dirty[row >>> 6] |= 1L << row;
+				rendering.stale = true;
+				rendering.printed = null;
+			}
+		}
+	}
+	
+	/**
+	 * Note that a tile has to be copied into the
+	 * next snapshot. Nothing is noted until a
+	 * snapshot has been taken.
+	 * @param   tile   the index of the tile marked
+	 */
+	private void marked( int tile ) {
+		
+		if( published == null || pendingCount > 0 && pending[pendingCount - 1] == tile ) {
+			return;
+		}
+		if( pendingCount == pending.length ) {
+			pending = Arrays.copyOf( pending, pendingCount * 2 );
+		}
+		pending[pendingCount++] = tile;
+	}
+	
+	/**
+	 * The board as it is now, which never changes
+	 * and may be read by any thread. Only the tiles
+	 * marked since the last snapshot are copied,
+	 * the rest are shared with it.
+	 * @return  OceanSnapshot   the snapshot
+	 */
+	public OceanSnapshot snapshot() {
+		
+		if( published == null ) {
+			int[] all = new int[tileCount];
+			for( int tile = 0; tile < tileCount; tile++ ) {
+				all[tile] = tile;
+			}
+			published = new OceanSnapshot( this ).with( this, all, tileCount );
+		}
+		else if( pendingCount > 0 || published.version != version()
+				|| published.boat != boat || published.hit != hit ) {
+			published = published.with( this, pending, pendingCount );
+		}
+		pendingCount = 0;
+		return published;
+	}
+	
+	/**
+	 * The version of the board, which goes up
+	 * by one every time a mark is placed.
+	 * @return   int   the number of marks placed
+	 */
+	public int version() {
+		return changes.size();
+	}
+	
+	/**
+	 * The character shown at a position.
+	 * @param   row       the row of the position
+	 * @param   column    the column of the position
+	 * @param   yesOrNo   true if boats are shown
+	 * @return  char      the character shown
+	 */
+	public char shown( int row, int column, boolean yesOrNo ) {
+		
+		int tile = find( row, column );
+		if( tile < 0 ) {
+			return ' ';
+		}
+		return shown( boats[tile], hits[tile], misses[tile], bit( row, column ), yesOrNo );
+	}
+	
+	/**
+	 * The character shown for a cell of a tile.
+	 * @param   boatCells   the tile's boat cells
+	 * @param   hitCells    the tile's hit cells
+	 * @param   missed      the tile's missed cells
+	 * @param   bit         the cell's bit
+	 * @param   yesOrNo     true if boats are shown
+	 * @return  char        the character shown
+	 */
+	private char shown( long boatCells, long hitCells, long missed, long bit, boolean yesOrNo ) {
+		if( ( missed & bit ) != 0 ) {
+			return MISS;
+		}
+		if( ( hitCells & bit ) != 0 ) {
+			return hit;
+		}
+		if( ( boatCells & bit ) != 0 && yesOrNo ) {
+			return boat;
+		}
+		return ' ';
+	}
+	
+	/**
+	 * Whether a boat was placed at a position,
+	 * hit or not.
+	 * @param   row       the row of the position
+	 * @param   column    the column of the position
+	 * @return  boolean   true if there is a boat
+	 */
+	public boolean isBoat( int row, int column ) {
+		int tile = find( row, column );
+		return tile >= 0 && ( boats[tile] & bit( row, column ) ) != 0;
+	}
+	
+	/**
+	 * Whether a position has been fired at.
+	 * @param   row       the row of the position
+	 * @param   column    the column of the position
+	 * @return  boolean   true if it was hit or missed
+	 */
+	public boolean isShot( int row, int column ) {
+		int tile = find( row, column );
+		return tile >= 0 && ( ( hits[tile] | misses[tile] ) & bit( row, column ) ) != 0;
+	}
+	
+	/**
+	 * Whether every cell taken by a boat has been
+	 * hit, a tile of cells at a time.
+	 * @return  boolean   true if all boats are sunk
+	 */
+	public boolean allSunk() {
+		for( int tile = 0; tile < tileCount; tile++ ) {
+			if( ( boats[tile] & ~hits[tile] ) != 0 ) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * A checksum of the board as it is shown, used
+	 * to tell whether a player's copy still matches.
+	 * Each cell that shows a mark adds to it, in no
+	 * particular order, so only marked tiles are
+	 * looked at.
+	 * @param   yesOrNo   true if boats are shown
+	 * @return  int       the checksum
+	 */
+	public int checksum( boolean yesOrNo ) {
+		
+		int sum = 31 * rowSize + columnSize;
+		for( int tile = 0; tile < tileCount; tile++ ) {
+			long marked = shownCells( tile, yesOrNo );
+			while( marked != 0 ) {
+				long bit = Long.lowestOneBit( marked );
+				marked &= marked - 1;
+				long cell = cellNumber( tile, bit );
+				char mark = shown( boats[tile], hits[tile], misses[tile], bit, yesOrNo );
+				sum += Long.hashCode( cell * 0x9E3779B97F4A7C15L ) * 31 + mark;
+			}
+		}
+		return sum;
+	}
+	
+	/**
+	 * The cells of a tile that show a mark.
+	 * @param   tile      the index of the tile
+	 * @param   yesOrNo   true if boats are shown
+	 * @return  long      the cells, one bit each
+	 */
+	long shownCells( int tile, boolean yesOrNo ) {
+		return misses[tile] | hits[tile] | ( yesOrNo ? boats[tile] : 0 );
+	}
+	
+	/**
+	 * The row of a cell of a tile.
+	 * @param   tile   the index of the tile
+	 * @param   bit    the cell's bit
+	 * @return  int    the row
+	 */
+	int row( int tile, long bit ) {
+		int tileRow = (int) ( tileNumbers[tile] / tileColumns );
+		return tileRow << TILE_SHIFT | Long.numberOfTrailingZeros( bit ) >>> TILE_SHIFT;
+	}
+	
+	/**
+	 * The column of a cell of a tile.
+	 * @param   tile   the index of the tile
+	 * @param   bit    the cell's bit
+	 * @return  int    the column
+	 */
+	int column( int tile, long bit ) {
+		int tileColumn = (int) ( tileNumbers[tile] % tileColumns );
+		return tileColumn << TILE_SHIFT | Long.numberOfTrailingZeros( bit ) & ( ( 1 << TILE_SHIFT ) - 1 );
+	}
+	
+	/**
+	 * The number of a cell of a tile, counting
+	 * along the rows of the board.
+	 * @param   tile   the index of the tile
+	 * @param   bit    the cell's bit
+	 * @return  long   the number
+	 */
+	private long cellNumber( int tile, long bit ) {
+		return (long) row( tile, bit ) * columnSize + column( tile, bit );
 	}
 	
 	/**
@@ -107,7 +517,7 @@ public class Ocean {
 	public boolean checkMark( int row, int column, char mark ) {
 		
 		// Look for the mark at the position
-		if( ocean[row][column] == mark ) {
+		if( shown( row, column, true ) == mark ) {
 			return true;
 		}
 		
@@ -132,8 +542,7 @@ public class Ocean {
 		// If either the row or the column exceeds
 		// the bounds of the game board, than the
 		// position must be outside.
-		if( row >= maxRow || column >= maxColumn ||
-				row < minRow || column < minColumn ) {
+		if( !contains( row, column ) ) {
 			System.out.println( "Off the ocean!" );
 			return false;
 		}
@@ -143,6 +552,21 @@ public class Ocean {
 		}
 	}
 	
+	/**
+	 * Whether the given coordinates are within
+	 * the game board, without saying so.
+	 * @param   row       the row we will be
+	 *                    checking
+	 * @param   column    the column we will be
+	 *                    checking
+	 * @return  boolean   true if it is within,
+	 *                    false otherwise
+	 */
+	public boolean contains( int row, int column ) {
+		return row < maxRow && column < maxColumn &&
+				row >= minRow && column >= minColumn;
+	}
+	
 	/**
 	 * This method prints the game board. 
 	 * If the boolean parameter is true,
@@ -155,43 +579,173 @@ public class Ocean {
 	 */
 	public String printOcean( boolean yesOrNo ) {
 		
-		// A string representation of the ocean
-		String rep = "";
+		// A board too large to print whole is
+		// printed as a list of its marks
+		if( (long) rowSize * columnSize > PRINT_LIMIT ) {
+			return printMarks( yesOrNo );
+		}
 		
-		// Place a character above the actual board
-		// as a sort of border.
-		for( int upperBound = 0; upperBound < columnSize + 2; upperBound++ ) {
-			rep += "-";
+		// Nothing has changed since it was last
+		// printed this way
+		Rendering rendering = render( yesOrNo );
+		if( rendering.printed == null ) {
+			rendering.printed = new String( rendering.text, StandardCharsets.ISO_8859_1 );
 		}
-		rep += "\n";
+		return rendering.printed;
+	}
+	
+	/**
+	 * The board printed one way, printing it
+	 * whole the first time and afterwards only
+	 * the rows marked since.
+	 * @param   yesOrNo     true if the boats
+	 *                      are printed
+	 * @return  Rendering   the printed board
+	 */
+	Rendering render( boolean yesOrNo ) {
 		
-		// Loop over the game board, printing
-		// out each character.
-		for( int outer = 0; outer < rowSize; outer++ ) {
+		int width = columnSize + 3;
+		Rendering rendering = renderings[yesOrNo ? 1 : 0];
+		if( rendering == null ) {
+			rendering = new Rendering();
+			rendering.text = frame( rowSize, columnSize );
+			rendering.dirty = new long[( rowSize + 63 ) >>> 6];
+			byte[] text = rendering.text;
 			
-			// Left border character
-			rep += "|";
-			for( int inner = 0; inner < columnSize; inner++ ) {
-				
-				if( ocean[outer][inner] == boat && !yesOrNo ) {
-					rep += ' ';
+			// Only the marked tiles have anything
+			// to print
+			for( int tile = 0; tile < tileCount; tile++ ) {
+				long marked = shownCells( tile, yesOrNo );
+				while( marked != 0 ) {
+					long bit = Long.lowestOneBit( marked );
+					marked &= marked - 1;
+					text[( row( tile, bit ) + 1 ) * width + 1 + column( tile, bit )] =
+							(byte) shown( boats[tile], hits[tile], misses[tile], bit, yesOrNo );
 				}
-				
-				else {
-					rep += ocean[outer][inner];
+			}
+			renderings[yesOrNo ? 1 : 0] = rendering;
+		}
+		
+		// Print again each row marked since
+		else if( rendering.stale ) {
+			long[] dirty = rendering.dirty;
+			for( int word = 0; word < dirty.length; word++ ) {
+				while( dirty[word] != 0 ) {
+					int row = word << 6 | Long.numberOfTrailingZeros( dirty[word] );
+					dirty[word] &= dirty[word] - 1;
+					renderRow( rendering.text, row, yesOrNo );
 				}
 			}
-			
-			// Right border character
-			rep += "|" + "\n";
+			rendering.stale = false;
+		}
+		return rendering;
+	}
+	
+	/**
+	 * An empty board as printed, one byte per
+	 * character, with a line above and below the
+	 * actual board as a sort of border and borders
+	 * either side of each row.
+	 * @param   rowSize      the number of rows
+	 * @param   columnSize   the number of columns
+	 * @return  byte[]       the text
+	 */
+	static byte[] frame( int rowSize, int columnSize ) {
+		
+		int width = columnSize + 3;
+		byte[] text = new byte[( rowSize + 2 ) * width];
+		Arrays.fill( text, (byte) ' ' );
+		for( int line = 0; line < rowSize + 2; line++ ) {
+			if( line == 0 || line == rowSize + 1 ) {
+				Arrays.fill( text, line * width, line * width + width - 1, (byte) '-' );
+			}
+			else {
+				text[line * width] = '|';
+				text[line * width + width - 2] = '|';
+			}
+			text[line * width + width - 1] = '\n';
 		}
+		return text;
+	}
+	
+	/**
+	 * Print one row of the board over the
+	 * text it had before.
+	 * @param   text      the printed board
+	 * @param   row       the row to print
+	 * @param   yesOrNo   true if the boats
+	 *                    are printed
+	 */
+	private void renderRow( byte[] text, int row, boolean yesOrNo ) {
+		
+		int start = ( row + 1 ) * ( columnSize + 3 ) + 1;
+		Arrays.fill( text, start, start + columnSize, (byte) ' ' );
+		
+		// The row's eight cells in each tile
+		// are a byte of the tile's sets
+		int shift = ( row & ( ( 1 << TILE_SHIFT ) - 1 ) ) << TILE_SHIFT;
+		long first = (long) ( row >>> TILE_SHIFT ) * tileColumns;
 		
-		// Place a character below the actual board
-		// as a sort of border.
-		for( int lowerBound = 0; lowerBound < columnSize + 2; lowerBound++ ) {
-			rep += "-";
+		// A wide board with few marks is quicker
+		// to go through by its marked tiles
+		boolean sparse = tileCount < tileColumns;
+		for( int next = 0; next < ( sparse ? tileCount : tileColumns ); next++ ) {
+			int tile = next;
+			if( sparse ) {
+				if( tileNumbers[tile] < first || tileNumbers[tile] >= first + tileColumns ) {
+					continue;
+				}
+			}
+			else if( ( tile = tiles.get( first + next ) ) < 0 ) {
+				continue;
+			}
+			long marked = shownCells( tile, yesOrNo ) & 0xFFL << shift;
+			while( marked != 0 ) {
+				long bit = Long.lowestOneBit( marked );
+				marked &= marked - 1;
+				text[start + column( tile, bit )] =
+						(byte) shown( boats[tile], hits[tile], misses[tile], bit, yesOrNo );
+			}
+		}
+	}
+	
+	/**
+	 * Copy the printed board into a buffer, such
+	 * as one about to be sent, without making a
+	 * string of it. The board must be small enough
+	 * to print whole.
+	 * @param   yesOrNo   true if the boats
+	 *                    are printed
+	 * @param   buffer    where the text goes
+	 * @param   offset    where in the buffer
+	 * @return  int       the number of bytes copied
+	 */
+	public int printOcean( boolean yesOrNo, byte[] buffer, int offset ) {
+		byte[] text = render( yesOrNo ).text;
+		System.arraycopy( text, 0, buffer, offset, text.length );
+		return text.length;
+	}
+	
+	/**
+	 * This method lists the marks on the game
+	 * board, one per line, by row and column.
+	 * @param   yesOrNo   true if the boats
+	 *                    will be listed
+	 * @return  String    the list
+	 */
+	public String printMarks( boolean yesOrNo ) {
+		
+		StringBuilder rep = new StringBuilder();
+		rep.append( rowSize ).append( " by " ).append( columnSize ).append( " ocean\n" );
+		for( int tile = 0; tile < tileCount; tile++ ) {
+			long marked = shownCells( tile, yesOrNo );
+			while( marked != 0 ) {
+				long bit = Long.lowestOneBit( marked );
+				marked &= marked - 1;
+				rep.append( row( tile, bit ) ).append( ' ' ).append( column( tile, bit ) ).append( ' ' )
+						.append( shown( boats[tile], hits[tile], misses[tile], bit, yesOrNo ) ).append( '\n' );
+			}
 		}
-		rep += "\n";
-		return rep;
+		return rep.toString();
 	}
 }
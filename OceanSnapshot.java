@@ -0,0 +1,265 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An ocean as it was at one version, which never
+ * changes, so any number of threads may print it,
+ * send it or check it while the game goes on. Its
+ * tiles are kept in a tree, 32 branches to a node
+ * and numbered along the rows of tiles as the
+ * Ocean numbers them. A new snapshot copies only
+ * the tiles marked since the last one and the
+ * nodes above them, and shares the rest.
+ */
+public class OceanSnapshot {
+
+	// Each node of the tree has 1 << BITS branches
+	public static final int BITS = 5;
+
+	// The version of the ocean it was taken at
+	final int version;
+
+	// The size of the board and the number of
+	// tiles across it
+	final int rowSize;
+	final int columnSize;
+	final int tileColumns;
+
+	// The boat and hit marks
+	final char boat;
+	final char hit;
+
+	// The number of levels of nodes, and the top
+	// one. At the bottom level each branch is a
+	// tile, as { boats, hits, misses }.
+	final int levels;
+	final Object[] root;
+
+	/**
+	 * Told each cell of a snapshot that shows a mark.
+	 */
+	public interface Cells {
+
+		/**
+		 * A cell that shows a mark.
+		 * @param   row      the row of the cell
+		 * @param   column   the column of the cell
+		 * @param   mark     the mark shown
+		 */
+		void cell( int row, int column, char mark );
+	}
+
+	/**
+	 * The constructor, for an empty snapshot
+	 * of an ocean.
+	 * @param   ocean   the ocean
+	 */
+	OceanSnapshot( Ocean ocean ) {
+
+		// Enough levels to number every tile
+		long tiles = (long) ( ( ocean.rowSize + ( 1 << Ocean.TILE_SHIFT ) - 1 ) >>> Ocean.TILE_SHIFT )
+				* ocean.tileColumns;
+		int levels = 1;
+		while( levels * BITS < 63 && 1L << levels * BITS < tiles ) {
+			levels++;
+		}
+		this.version = 0;
+		this.rowSize = ocean.rowSize;
+		this.columnSize = ocean.columnSize;
+		this.tileColumns = ocean.tileColumns;
+		this.boat = ocean.boat;
+		this.hit = ocean.hit;
+		this.levels = levels;
+		this.root = new Object[1 << BITS];
+	}
+
+	/**
+	 * The constructor, for a snapshot made
+	 * from an older one.
+	 * @param   older     the older snapshot
+	 * @param   ocean     the ocean as it is now
+	 * @param   root      the top node
+	 */
+	private OceanSnapshot( OceanSnapshot older, Ocean ocean, Object[] root ) {
+		this.version = ocean.version();
+		this.rowSize = older.rowSize;
+		this.columnSize = older.columnSize;
+		this.tileColumns = older.tileColumns;
+		this.boat = ocean.boat;
+		this.hit = ocean.hit;
+		this.levels = older.levels;
+		this.root = root;
+	}
+
+	/**
+	 * A newer snapshot, with some of the ocean's
+	 * tiles copied in as they are now.
+	 * @param   ocean           the ocean
+	 * @param   tiles           the indexes of the tiles
+	 *                          in the ocean
+	 * @param   count           the number of them
+	 * @return  OceanSnapshot   the newer snapshot
+	 */
+	OceanSnapshot with( Ocean ocean, int[] tiles, int count ) {
+
+		Object[] top = root;
+		for( int next = 0; next < count; next++ ) {
+			int tile = tiles[next];
+			long[] cells = { ocean.boats[tile], ocean.hits[tile], ocean.misses[tile] };
+			top = with( top, levels - 1, ocean.tileNumbers[tile], cells );
+		}
+		return new OceanSnapshot( this, ocean, top );
+	}
+
+	/**
+	 * A copy of a node with one tile below it
+	 * replaced.
+	 * @param   node       the node, null if there is none
+	 * @param   level      its level, 0 at the bottom
+	 * @param   number     the number of the tile
+	 * @param   cells      the tile
+	 * @return  Object[]   the copy
+	 */
+	private static Object[] with( Object[] node, int level, long number, long[] cells ) {
+
+		Object[] copy = node == null ? new Object[1 << BITS] : node.clone();
+		int branch = (int) ( number >>> level * BITS ) & ( ( 1 << BITS ) - 1 );
+		copy[branch] = level == 0 ? cells : with( (Object[]) copy[branch], level - 1, number, cells );
+		return copy;
+	}
+
+	/**
+	 * The version of the ocean this was taken at.
+	 * @return   int   the number of marks placed
+	 */
+	public int version() {
+		return version;
+	}
+
+	/**
+	 * The character shown at a position.
+	 * @param   row       the row of the position
+	 * @param   column    the column of the position
+	 * @param   yesOrNo   true if boats are shown
+	 * @return  char      the character shown
+	 */
+	public char shown( int row, int column, boolean yesOrNo ) {
+
+		long number = (long) ( row >>> Ocean.TILE_SHIFT ) * tileColumns + ( column >>> Ocean.TILE_SHIFT );
+		Object node = root;
+		for( int level = levels - 1; level >= 0 && node != null; level-- ) {
+			node = ( (Object[]) node )[(int) ( number >>> level * BITS ) & ( ( 1 << BITS ) - 1 )];
+		}
+		if( node == null ) {
+			return ' ';
+		}
+		int mask = ( 1 << Ocean.TILE_SHIFT ) - 1;
+		return shown( (long[]) node, 1L << ( ( row & mask ) << Ocean.TILE_SHIFT | column & mask ), yesOrNo );
+	}
+
+	/**
+	 * The character shown for a cell of a tile.
+	 * @param   cells     the tile
+	 * @param   bit       the cell's bit
+	 * @param   yesOrNo   true if boats are shown
+	 * @return  char      the character shown
+	 */
+	private char shown( long[] cells, long bit, boolean yesOrNo ) {
+		if( ( cells[2] & bit ) != 0 ) {
+			return Ocean.MISS;
+		}
+		if( ( cells[1] & bit ) != 0 ) {
+			return hit;
+		}
+		if( ( cells[0] & bit ) != 0 && yesOrNo ) {
+			return boat;
+		}
+		return ' ';
+	}
+
+	/**
+	 * Tell someone of every cell that shows a mark,
+	 * a row of tiles at a time.
+	 * @param   yesOrNo   true if boats are shown
+	 * @param   cells     who is told
+	 */
+	public void marks( boolean yesOrNo, Cells cells ) {
+		marks( root, levels - 1, 0, yesOrNo, cells );
+	}
+
+	/**
+	 * Tell someone of every cell below a node
+	 * that shows a mark.
+	 * @param   node      the node
+	 * @param   level     its level, 0 at the bottom
+	 * @param   first     the number of the first tile
+	 *                    below it
+	 * @param   yesOrNo   true if boats are shown
+	 * @param   cells     who is told
+	 */
+	private void marks( Object[] node, int level, long first, boolean yesOrNo, Cells cells ) {
+
+		for( int branch = 0; branch < node.length; branch++ ) {
+			if( node[branch] == null ) {
+				continue;
+			}
+			long number = first | (long) branch << level * BITS;
+			if( level > 0 ) {
+				marks( (Object[]) node[branch], level - 1, number, yesOrNo, cells );
+				continue;
+			}
+			long[] tile = (long[]) node[branch];
+			long marked = tile[2] | tile[1] | ( yesOrNo ? tile[0] : 0 );
+			int tileRow = (int) ( number / tileColumns ) << Ocean.TILE_SHIFT;
+			int tileColumn = (int) ( number % tileColumns ) << Ocean.TILE_SHIFT;
+			while( marked != 0 ) {
+				long bit = Long.lowestOneBit( marked );
+				marked &= marked - 1;
+				int cell = Long.numberOfTrailingZeros( bit );
+				cells.cell( tileRow | cell >>> Ocean.TILE_SHIFT,
+						tileColumn | cell & ( ( 1 << Ocean.TILE_SHIFT ) - 1 ), shown( tile, bit, yesOrNo ) );
+			}
+		}
+	}
+
+	/**
+	 * The checksum of the board as it is shown,
+	 * the same as Ocean.checksum gave at this
+	 * version.
+	 * @param   yesOrNo   true if boats are shown
+	 * @return  int       the checksum
+	 */
+	public int checksum( boolean yesOrNo ) {
+
+		int[] sum = { 31 * rowSize + columnSize };
+		marks( yesOrNo, ( row, column, mark ) -> {
+			long cell = (long) row * columnSize + column;
+			sum[0] += Long.hashCode( cell * 0x9E3779B97F4A7C15L ) * 31 + mark;
+		} );
+		return sum[0];
+	}
+
+	/**
+	 * The board printed as Ocean.printOcean
+	 * printed it at this version. A board too
+	 * large to print whole has its marks listed
+	 * a row of tiles at a time.
+	 * @param   yesOrNo   true if the boats
+	 *                    are printed
+	 * @return  String    the board
+	 */
+	public String printOcean( boolean yesOrNo ) {
+
+		if( (long) rowSize * columnSize > Ocean.PRINT_LIMIT ) {
+			StringBuilder rep = new StringBuilder();
+			rep.append( rowSize ).append( " by " ).append( columnSize ).append( " ocean\n" );
+			marks( yesOrNo, ( row, column, mark ) ->
+					rep.append( row ).append( ' ' ).append( column ).append( ' ' ).append( mark ).append( '\n' ) );
+			return rep.toString();
+		}
+
+		byte[] text = Ocean.frame( rowSize, columnSize );
+		marks( yesOrNo, ( row, column, mark ) ->
+				text[( row + 1 ) * ( columnSize + 3 ) + 1 + column] = (byte) mark );
+		return new String( text, StandardCharsets.ISO_8859_1 );
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * This class keeps track of how much of an ocean
+ * one player has seen, so the server can send them
+ * only what changed. The first update is a snapshot,
+ * and every few updates carry a checksum. If the
+ * player finds their copy no longer matches, they
+ * ask for it to be sent again and the next update
+ * is a snapshot.
+ */
+public class OceanView {
+
+	// The number of updates between checksums
+	public static final int CHECK_EVERY = 4;
+
+	// The ocean being watched
+	Ocean ocean;
+
+	// True if the player may see the boats on it
+	boolean yesOrNo;
+
+	// The version the player was last sent,
+	// -1 if they need a snapshot
+	int seen = -1;
+
+	// The number of updates sent so far
+	int updates = 0;
+
+	/**
+	 * The constructor.
+	 * @param   ocean     the ocean being watched
+	 * @param   yesOrNo   true if the player may see
+	 *                    the boats on it
+	 */
+	public OceanView( Ocean ocean, boolean yesOrNo ) {
+		this.ocean = ocean;
+		this.yesOrNo = yesOrNo;
+	}
+
+	/**
+	 * The update that brings the player's copy of the
+	 * ocean up to date. Updates are assumed to arrive
+	 * in order; if one does not, the checksum finds out.
+	 * @return   BoardDelta   the update
+	 */
+	public BoardDelta next() {
+
+		BoardDelta delta;
+		if( seen < 0 ) {
+			delta = BoardDelta.snapshot( ocean, yesOrNo );
+		}
+		else {
+			delta = BoardDelta.since( ocean, seen, yesOrNo );
+		}
+
+		if( ++updates % CHECK_EVERY == 0 ) {
+			delta.check( ocean, yesOrNo );
+		}
+
+		seen = delta.version;
+		return delta;
+	}
+
+	/**
+	 * The whole ocean as text, for players who
+	 * do not keep a copy of it.
+	 * @return   String   the ocean
+	 */
+	public String print() {
+		return ocean.printOcean( yesOrNo );
+	}
+
+	/**
+	 * Send a snapshot with the next update.
+	 */
+	public void resync() {
+		seen = -1;
+	}
+}
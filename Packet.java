@@ -6,7 +6,9 @@ public class Packet<T> implements Serializable {
     private static final Random random = new Random();
 
     private long timestamp;        // For measuring delay
+    private long timestampNanos;   // Same moment in nanoseconds, for the binary codec
     private int packetId;          // Unique ID for each packet
+    private int ackId;             // Last packet received from the other side
     private T objectData;  // String array data
     private T[] objectsArray;  // Objects array data
 
@@ -17,14 +19,14 @@ public class Packet<T> implements Serializable {
     public Packet(T objectData) {
         this.packetId = generatePacketId();
         this.objectData = objectData;
-        this.timestamp = System.currentTimeMillis();
+        stamp();
     }
 
     // Constructor for objects array data
     public Packet(T[] objectsArray) {
         this.packetId = generatePacketId();
         this.objectsArray = objectsArray;
-        this.timestamp = System.currentTimeMillis();
+        stamp();
     }
 
     // Constructor for both boolean and string array data
@@ -32,14 +34,30 @@ public class Packet<T> implements Serializable {
         this.packetId = generatePacketId();
         this.objectData = objectData;
         this.objectsArray = objectsArray;
-        this.timestamp = System.currentTimeMillis();
+        stamp();
     }
 
     // Constructor for ACK packet
     public Packet(int packetId, boolean isAck) {
         this.packetId = packetId;
+        this.ackId = packetId;
         this.isAck = isAck;
-        this.timestamp = System.currentTimeMillis();
+        stamp();
+    }
+
+    // Constructor for a numbered packet, sent or decoded by WireCodec
+    Packet(int packetId, long timestampNanos, T objectData, T[] objectsArray, boolean isAck) {
+        this.packetId = packetId;
+        this.timestampNanos = timestampNanos;
+        this.timestamp = timestampNanos / 1_000_000L;
+        this.objectData = objectData;
+        this.objectsArray = objectsArray;
+        this.isAck = isAck;
+    }
+
+    private void stamp() {
+        this.timestampNanos = WireCodec.now();
+        this.timestamp = timestampNanos / 1_000_000L;
     }
 
     public static int generatePacketId() {
@@ -51,10 +69,22 @@ public class Packet<T> implements Serializable {
         return timestamp;
     }
 
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
     public int getPacketId() {
         return packetId;
     }
 
+    public int getAckId() {
+        return ackId;
+    }
+
+    public void setAckId(int ackId) {
+        this.ackId = ackId;
+    }
+
     public T getObjectData() {
         return objectData;
     }
@@ -62,4 +92,8 @@ public class Packet<T> implements Serializable {
     public T[] getObjectsArray() {
         return objectsArray;
     }
+
+    public boolean isAck() {
+        return isAck;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,285 @@
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+
+/**
+ * This class sends and receives the Packets of one
+ * connection and takes care of acknowledging them.
+ *
+ * Over Java serialization every Packet is sent and
+ * then acknowledged before the next one goes out,
+ * which is what players built before the binary
+ * format expect.
+ *
+ * Over WireCodec frames the link keeps a window of
+ * Packets in flight. Packets are numbered in order,
+ * and every frame carries the number of the last
+ * Packet received from the other side, so a single
+ * acknowledgment covers everything before it and
+ * usually rides along on a Packet that was being
+ * sent anyway. A separate ACK frame is only sent
+ * when this side is about to wait for the other and
+ * nothing else has arrived to read.
+ */
+public class PacketLink {
+
+	// The number of Packets that may be waiting
+	// for acknowledgment at once
+	public static final int WINDOW = 8;
+
+	// The stream Packets are written to and read from
+	PacketStream stream;
+
+	// The socket the stream runs over, and how long a
+	// read may wait before it gives up, in milliseconds
+	Socket socket;
+	int timeout;
+
+	// True if Packets are windowed and cumulatively
+	// acknowledged, false for stop-and-wait
+	boolean windowed;
+
+	// The number given to the last Packet we sent
+	int sequence = 0;
+
+	// Packets sent but not yet acknowledged, oldest first
+	ArrayDeque<Packet<?>> inFlight = new ArrayDeque<>();
+
+	// Packets that arrived while we were waiting
+	// for an acknowledgment
+	ArrayDeque<Packet<?>> early = new ArrayDeque<>();
+
+	// The number of the last Packet we received, and
+	// whether the other side still needs to hear it
+	int received = 0;
+	boolean ackOwed = false;
+
+	/**
+	 * The constructor.
+	 * @param   stream    the stream Packets travel over
+	 * @param   socket    the socket the stream runs over
+	 * @param   timeout   how long a read may block, in
+	 *                    milliseconds, 0 for ever
+	 */
+	public PacketLink( PacketStream stream, Socket socket, int timeout ) {
+		this.stream = stream;
+		this.socket = socket;
+		this.timeout = timeout;
+		windowed = stream instanceof BinaryPacketStream;
+	}
+
+	/**
+	 * Change how long a read may block.
+	 * @param   timeout   the new timeout, in milliseconds,
+	 *                    0 for ever
+	 */
+	public void setTimeout( int timeout ) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Send an object to the other side.
+	 * @param   data   the object to be sent
+	 */
+	public void sendData( Object data ) throws IOException, ClassNotFoundException {
+
+		if( !windowed ) {
+
+			// Players using Java serialization get a
+			// TurnState as the messages it replaced
+			if( data instanceof TurnState ) {
+				for( Object message : ( (TurnState) data ).messages() ) {
+					sendAndWait( message );
+				}
+			} else {
+				sendAndWait( data );
+			}
+			return;
+		}
+
+		// Wait for room in the window, letting the other
+		// side know what we have in case it is waiting too
+		while( inFlight.size() >= WINDOW ) {
+			acknowledge();
+			Packet<?> packet = read();
+			if( !packet.isAck() ) {
+				early.add( packet );
+			}
+		}
+
+		Packet<Object> packet;
+		if( data instanceof Object[] ) {
+			packet = new Packet<>( ++sequence, WireCodec.now(), null, (Object[]) data, false );
+		} else {
+			packet = new Packet<>( ++sequence, WireCodec.now(), data, null, false );
+		}
+
+		// Acknowledge what we have received along the way
+		packet.setAckId( received );
+		ackOwed = false;
+
+		stream.write( packet );
+		inFlight.add( packet );
+		System.out.println("Sent Packet ID: " + packet.getPacketId());
+	}
+
+	/**
+	 * Receive the next object from the other side,
+	 * blocking until it arrives.
+	 * @return   Packet   the Packet holding the object
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Packet<T> receiveData() throws IOException, ClassNotFoundException {
+
+		if( !windowed ) {
+			return receiveAndAcknowledge();
+		}
+
+		if( !early.isEmpty() ) {
+			return (Packet<T>) early.poll();
+		}
+
+		while( true ) {
+
+			// Let the other side know what we have before
+			// we wait, unless more is already here to read
+			if( stream.available() == 0 ) {
+				acknowledge();
+			}
+
+			Packet<T> packet = read();
+			if( !packet.isAck() ) {
+				return packet;
+			}
+		}
+	}
+
+	/**
+	 * Send a separate acknowledgment if the other side
+	 * has not yet heard about everything we received.
+	 */
+	private void acknowledge() throws IOException {
+		if( ackOwed ) {
+			stream.write( new Packet<>( received, true ) );
+			ackOwed = false;
+		}
+	}
+
+	/**
+	 * Read one frame, apply the acknowledgment it
+	 * carries, and note it if it holds data.
+	 */
+	private <T> Packet<T> read() throws IOException, ClassNotFoundException {
+
+		socket.setSoTimeout( timeout );
+		Packet<T> packet = stream.read();
+		acknowledged( packet.getAckId() );
+
+		if( !packet.isAck() ) {
+			received = packet.getPacketId();
+			ackOwed = true;
+
+			long delay = System.currentTimeMillis() - packet.getTimestamp();
+			System.out.println("Received Packet ID: " + packet.getPacketId());
+			System.out.println("Packet delay: " + delay + " ms");
+		}
+		return packet;
+	}
+
+	/**
+	 * Forget every Packet up to and including the
+	 * given number, measuring the round trip of
+	 * the newest one.
+	 * @param   ackId   the number of the last Packet
+	 *                  the other side has received
+	 */
+	private void acknowledged( int ackId ) {
+
+		Packet<?> newest = null;
+		while( !inFlight.isEmpty() && inFlight.peek().getPacketId() <= ackId ) {
+			newest = inFlight.poll();
+		}
+
+		if( newest != null ) {
+			long delay = ( WireCodec.now() - newest.getTimestampNanos() ) / 1_000_000L;
+			System.out.println("Received ACK for Packet ID: " + newest.getPacketId());
+			System.out.println("Total Round Trip Time: " + delay + " ms");
+		}
+	}
+
+	/**
+	 * Send an object and wait for it to be
+	 * acknowledged before returning.
+	 * @param   data   the object to be sent
+	 */
+	private void sendAndWait( Object data ) throws IOException, ClassNotFoundException {
+		int packetId;
+		long packetTimestamp;
+
+		if (data instanceof Boolean) {
+            Packet<Boolean> packet = new Packet<>((boolean) data);
+			packetId = packet.getPacketId();
+			packetTimestamp = packet.getTimestamp();
+			stream.write( packet );
+        } else if (data instanceof Integer) {
+            Packet<Integer> packet = new Packet<>((Integer) data);
+			packetId = packet.getPacketId();
+			packetTimestamp = packet.getTimestamp();
+			stream.write( packet );
+        } else if (data instanceof int[]) {
+            Packet<int[]> packet = new Packet<>((int[]) data);
+			packetId = packet.getPacketId();
+			packetTimestamp = packet.getTimestamp();
+			stream.write( packet );
+        } else if (data instanceof String) {
+            Packet<String> packet = new Packet<>((String) data);
+			packetId = packet.getPacketId();
+			packetTimestamp = packet.getTimestamp();
+			stream.write( packet );
+        } else if (data instanceof String[]) {
+            Packet<String> packet = new Packet<>((String[]) data);
+			packetId = packet.getPacketId();
+			packetTimestamp = packet.getTimestamp();
+			stream.write( packet );
+        } else if (data instanceof TCP_Communicator) {
+            Packet<TCP_Communicator> packet = new Packet<>((TCP_Communicator) data);
+			packetId = packet.getPacketId();
+			packetTimestamp = packet.getTimestamp();
+			stream.write( packet );
+        } else {
+            Packet<Object> packet = new Packet<>((Object[]) data);
+			packetId = packet.getPacketId();
+			packetTimestamp = packet.getTimestamp();
+			stream.write( packet );
+        }
+
+		System.out.println("Sent Packet ID: " + packetId);
+		try {
+            socket.setSoTimeout(timeout);
+            Packet<Void> acknowledgment = stream.read();
+            System.out.println("Received ACK for Packet ID: " + acknowledgment.getPacketId());
+			long delay = System.currentTimeMillis() - packetTimestamp;
+			System.out.println("Total Round Trip Time: " + delay + " ms");
+        } catch (SocketTimeoutException e) {
+            System.out.println("Acknowledgment timeout for Packet ID: " + packetId);
+        }
+	}
+
+	/**
+	 * Receive a Packet and acknowledge it right away.
+	 * @return   Packet   the Packet that was received
+	 */
+	private <T> Packet<T> receiveAndAcknowledge() throws IOException, ClassNotFoundException {
+		socket.setSoTimeout(timeout);
+		Packet<T> receivedPacket = stream.read();
+		long delay = System.currentTimeMillis() - receivedPacket.getTimestamp();
+
+		System.out.println("Received Packet ID: " + receivedPacket.getPacketId());
+		System.out.println("Packet delay: " + delay + " ms");
+
+		Packet<Void> acknowledgment = new Packet<>(receivedPacket.getPacketId(), true);
+		stream.write(acknowledgment);
+		return receivedPacket;
+	}
+}
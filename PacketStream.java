@@ -0,0 +1,58 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+
+/**
+ * A connection over which whole Packets are
+ * written and read. The original format is Java
+ * serialization, the compact one is WireCodec.
+ */
+public interface PacketStream {
+
+	/**
+	 * Write a Packet and flush it to the connection.
+	 * @param   packet   the Packet to be written
+	 */
+	void write( Packet<?> packet ) throws IOException;
+
+	/**
+	 * Read the next Packet, blocking until it arrives.
+	 * @return   Packet   the Packet that was read
+	 */
+	<T> Packet<T> read() throws IOException, ClassNotFoundException;
+
+	/**
+	 * The number of bytes that can be read
+	 * without blocking.
+	 * @return   int   the bytes available
+	 */
+	int available() throws IOException;
+
+	/**
+	 * Close the streams.
+	 */
+	void close() throws IOException;
+
+	/**
+	 * Open the server's end of a connection. Players
+	 * using Java serialization start with its stream
+	 * header, so the first two bytes tell us which
+	 * format the player speaks.
+	 * @param   client         the player's socket
+	 * @return  PacketStream   a stream in the player's format
+	 */
+	static PacketStream accept( Socket client ) throws IOException {
+
+		InputStream in = new BufferedInputStream( client.getInputStream() );
+		in.mark( 2 );
+		int first = in.read();
+		int second = in.read();
+		in.reset();
+
+		if( first == 0xAC && second == 0xED ) {
+			return new ObjectPacketStream( in, client.getOutputStream() );
+		}
+		return new BinaryPacketStream( in, client.getOutputStream() );
+	}
+}
@@ -0,0 +1,380 @@
+import java.io.ObjectStreamConstants;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The purpose of this class is to find where
+ * one top-level object ends in a Java serialization
+ * stream without deserializing it. A non-blocking
+ * server only has whatever bytes have arrived so far,
+ * so it must know that a whole Packet is buffered
+ * before handing it to an ObjectInputStream, which
+ * would otherwise block or corrupt its state.
+ *
+ * The scanner walks the grammar of the serialization
+ * protocol and remembers the class descriptors it has
+ * seen, since later objects refer to them by handle.
+ */
+public class SerialFrameScanner implements ObjectStreamConstants {
+
+	// Thrown when the buffer ends in the middle
+	// of an object. It carries no stack trace since
+	// it is part of normal operation.
+	@SuppressWarnings("serial")
+	private static final RuntimeException INCOMPLETE =
+			new RuntimeException( "incomplete", null, false, false ) {};
+
+	/**
+	 * What the scanner needs to remember about
+	 * a class descriptor to skip over instances
+	 * of that class.
+	 */
+	private static class ClassDesc {
+
+		// The name of the class
+		String name;
+
+		// The SC_* flags of the class
+		byte flags;
+
+		// The type codes of the serializable fields,
+		// in the order their values are written
+		char[] types;
+
+		// The descriptor of the super class
+		ClassDesc superDesc;
+	}
+
+	// Class descriptors that have been assigned a handle,
+	// keyed by handle number minus baseWireHandle
+	private Map<Integer, ClassDesc> descs = new HashMap<>();
+
+	// The next handle number the stream will assign
+	private int nextHandle = 0;
+
+	// The buffer being scanned and the current
+	// absolute position in it
+	private ByteBuffer buf;
+	private int pos;
+
+	/**
+	 * Scan the buffer, starting at its position, for one
+	 * complete top-level object. The buffer's position is
+	 * not changed.
+	 * @param   buf    the bytes received so far
+	 * @return  int    the absolute index just past the end
+	 *                 of the object, or -1 if the object
+	 *                 has not fully arrived yet
+	 * @throws  StreamCorruptedException   if the bytes are not
+	 *                                     a serialization stream
+	 */
+	public int scan( ByteBuffer buf ) throws StreamCorruptedException {
+		this.buf = buf;
+		this.pos = buf.position();
+
+		try {
+
+			// A reset between objects clears the handle table.
+			// Doing it again on a rescan is harmless.
+			while( pos < buf.limit() && buf.get( pos ) == TC_RESET ) {
+				reset();
+				pos++;
+			}
+
+			// Remember where the handles stood so
+			// a partial object can be forgotten
+			int saved = nextHandle;
+			try {
+				content();
+				return pos;
+			} catch ( RuntimeException e ) {
+				if( e != INCOMPLETE ) {
+					throw e;
+				}
+				for( int handle = saved; handle < nextHandle; handle++ ) {
+					descs.remove( handle );
+				}
+				nextHandle = saved;
+				return -1;
+			}
+		} finally {
+			this.buf = null;
+		}
+	}
+
+	/**
+	 * Skip one content item of the stream.
+	 * @return   ClassDesc   the descriptor if the item
+	 *                       was a class descriptor or a
+	 *                       reference to one, otherwise null
+	 */
+	private ClassDesc content() throws StreamCorruptedException {
+
+		byte tc = u1();
+		switch( tc ) {
+
+			case TC_NULL:
+				return null;
+
+			case TC_REFERENCE:
+				return descs.get( s4() - baseWireHandle );
+
+			case TC_CLASSDESC:
+				return newClassDesc();
+
+			case TC_PROXYCLASSDESC:
+				return newProxyClassDesc();
+
+			case TC_OBJECT: {
+				ClassDesc desc = content();
+				newHandle();
+				classData( desc );
+				return null;
+			}
+
+			case TC_STRING:
+				newHandle();
+				skip( u2() );
+				return null;
+
+			case TC_LONGSTRING:
+				newHandle();
+				skip( s8() );
+				return null;
+
+			case TC_ARRAY: {
+				ClassDesc desc = content();
+				newHandle();
+				int size = s4();
+				if( size < 0 ) {
+					throw new StreamCorruptedException( "Array of " + size + " elements" );
+				}
+				char type = desc.name.charAt( 1 );
+				if( type == 'L' || type == '[' ) {
+					for( int element = 0; element < size; element++ ) {
+						content();
+					}
+				}
+				else {
+					skip( (long) size * primitiveSize( type ) );
+				}
+				return null;
+			}
+
+			case TC_CLASS:
+				content();
+				newHandle();
+				return null;
+
+			case TC_ENUM:
+				content();
+				newHandle();
+				content();
+				return null;
+
+			case TC_BLOCKDATA:
+				skip( u1() & 0xFF );
+				return null;
+
+			case TC_BLOCKDATALONG:
+				skip( s4() );
+				return null;
+
+			case TC_RESET:
+				reset();
+				return null;
+
+			case TC_EXCEPTION:
+				reset();
+				content();
+				reset();
+				return null;
+
+			default:
+				throw new StreamCorruptedException( "Unexpected type code " + tc );
+		}
+	}
+
+	/**
+	 * Read a new class descriptor and record it
+	 * under its handle.
+	 */
+	private ClassDesc newClassDesc() throws StreamCorruptedException {
+
+		ClassDesc desc = new ClassDesc();
+		desc.name = utf();
+
+		// Skip the serialVersionUID
+		skip( 8 );
+		descs.put( newHandle(), desc );
+
+		desc.flags = u1();
+		desc.types = new char[u2()];
+		for( int field = 0; field < desc.types.length; field++ ) {
+			desc.types[field] = (char) u1();
+			skip( u2() );
+
+			// Object fields also name their type
+			if( desc.types[field] == 'L' || desc.types[field] == '[' ) {
+				content();
+			}
+		}
+
+		annotation();
+		desc.superDesc = content();
+		return desc;
+	}
+
+	/**
+	 * Read a new proxy class descriptor and record
+	 * it under its handle.
+	 */
+	private ClassDesc newProxyClassDesc() throws StreamCorruptedException {
+
+		ClassDesc desc = new ClassDesc();
+		desc.name = "$Proxy";
+		desc.flags = SC_SERIALIZABLE;
+		desc.types = new char[0];
+		descs.put( newHandle(), desc );
+
+		// Skip the interface names
+		int interfaces = s4();
+		for( int name = 0; name < interfaces; name++ ) {
+			skip( u2() );
+		}
+
+		annotation();
+		desc.superDesc = content();
+		return desc;
+	}
+
+	/**
+	 * Skip the field values of an object, starting
+	 * with the highest serializable super class.
+	 */
+	private void classData( ClassDesc desc ) throws StreamCorruptedException {
+
+		if( desc == null ) {
+			return;
+		}
+		classData( desc.superDesc );
+
+		if( ( desc.flags & SC_EXTERNALIZABLE ) != 0 ) {
+			if( ( desc.flags & SC_BLOCK_DATA ) == 0 ) {
+				throw new StreamCorruptedException( "Stream protocol 1 is not supported" );
+			}
+			annotation();
+			return;
+		}
+
+		for( char type : desc.types ) {
+			if( type == 'L' || type == '[' ) {
+				content();
+			}
+			else {
+				skip( primitiveSize( type ) );
+			}
+		}
+
+		// Classes with a writeObject method may
+		// follow their fields with extra data
+		if( ( desc.flags & SC_WRITE_METHOD ) != 0 ) {
+			annotation();
+		}
+	}
+
+	/**
+	 * Skip content items up to and including
+	 * the end of block data marker.
+	 */
+	private void annotation() throws StreamCorruptedException {
+		while( peek() != TC_ENDBLOCKDATA ) {
+			content();
+		}
+		pos++;
+	}
+
+	/**
+	 * The number of bytes a primitive value
+	 * of the given type code takes up.
+	 */
+	private int primitiveSize( char type ) throws StreamCorruptedException {
+		switch( type ) {
+			case 'B': case 'Z': return 1;
+			case 'C': case 'S': return 2;
+			case 'I': case 'F': return 4;
+			case 'J': case 'D': return 8;
+			default:
+				throw new StreamCorruptedException( "Unknown field type " + type );
+		}
+	}
+
+	private int newHandle() {
+		return nextHandle++;
+	}
+
+	private void reset() {
+		descs.clear();
+		nextHandle = 0;
+	}
+
+	private void need( long bytes ) {
+		if( pos + bytes > buf.limit() ) {
+			throw INCOMPLETE;
+		}
+	}
+
+	private void skip( long bytes ) throws StreamCorruptedException {
+
+		// Lengths come from the client, and a negative
+		// one would send us back over what was read
+		if( bytes < 0 ) {
+			throw new StreamCorruptedException( "Length of " + bytes + " bytes" );
+		}
+		need( bytes );
+		pos += (int) bytes;
+	}
+
+	private byte peek() {
+		need( 1 );
+		return buf.get( pos );
+	}
+
+	private byte u1() {
+		need( 1 );
+		return buf.get( pos++ );
+	}
+
+	private int u2() {
+		need( 2 );
+		int value = buf.getShort( pos ) & 0xFFFF;
+		pos += 2;
+		return value;
+	}
+
+	private int s4() {
+		need( 4 );
+		int value = buf.getInt( pos );
+		pos += 4;
+		return value;
+	}
+
+	private long s8() {
+		need( 8 );
+		long value = buf.getLong( pos );
+		pos += 8;
+		return value;
+	}
+
+	private String utf() {
+		int length = u2();
+		need( length );
+		byte[] bytes = new byte[length];
+		buf.get( pos, bytes );
+		pos += length;
+		return new String( bytes, StandardCharsets.UTF_8 );
+	}
+}
@@ -1,5 +1,3 @@
-import java.util.Arrays;
-
 /**
  * The purpose of this class is to 
  * create ships in a game of battleship.
@@ -54,57 +52,31 @@ public class Ship {
 	}
 	
 	/**
-	 * The purpose of this method is to see 
-	 * whether the given coordinates of the
-	 * incoming attack will hit or miss the
-	 * ship.
-	 * @param   row      the row position
-	 *                   of the attack
-	 * @param   column   the column position
-	 *                   of the attack
+	 * The purpose of this method is to mark a
+	 * hit on this ship at the given coordinates,
+	 * which the fleet has already found to be
+	 * one of its positions and not hit before.
+	 * @param   row          the row position
+	 *                       of the attack
+	 * @param   column       the column position
+	 *                       of the attack
+	 * @param   hitMark      the mark for a hit
+	 * @return  ShotResult   SUNK if that was the
+	 *                       last place afloat,
+	 *                       HIT otherwise
 	 */
-	public boolean hitOrMiss( int row, int column, char hitMark ) {
-		
-		// Put the coordinates into
-		// a int array for comparison
-		int[] target = { row, column };
-		
-		// True if we found a hit
-		boolean hit = false;
-		
-		// Loop over the different coordinates
-		// in the 2D positions array.
-		for( int outer = 0; outer < length; outer++ ) {
-			
-			// Check to see if the ship is afloat and 
-			// the target matches
-			if( aFloat && Arrays.equals( target, positions[outer] ) ) {
-				ocean.setMark( row, column, hitMark );
-				numberOfHits++;
-				hit = true;
-			}
-		}
+	public ShotResult hit( int row, int column, char hitMark ) {
 		
-		// If we didn't find a hit,
-		// it's a miss.
-		if( !hit ) {
-			
-			// Put a miss mark on the board
-			ocean.setMark( row, column, '*' );
-			return false;
-		}
+		ocean.setMark( row, column, hitMark );
+		numberOfHits++;
 		
-		else {
-			
-			// Check to see whether the ship
-			// is sunk.
-			if ( numberOfHits == length ) {
-				aFloat = false;
-				System.out.println( "You sank my " + name(length) + "!" );
-			}
-			
-			return true;
+		// Check to see whether the ship
+		// is sunk.
+		if ( numberOfHits == length ) {
+			aFloat = false;
+			return ShotResult.SUNK;
 		}
+		return ShotResult.HIT;
 	}
 	
 	/**
@@ -119,6 +91,15 @@ public class Ship {
 		return aFloat;
 	}
 	
+	/**
+	 * The class of this ship, such as
+	 * Destroyer.
+	 * @return  String   the class of ship
+	 */
+	public String type() {
+		return name( length );
+	}
+	
 	/**
 	 * This method returns the class of ship
 	 * that corresponds to the given length.
@@ -0,0 +1,36 @@
+/**
+ * What became of a shot in a game of
+ * battleship, and what the player who
+ * fired it is told.
+ */
+public enum ShotResult {
+
+	// Nothing was there, or the target was
+	// off the ocean
+	MISS( "Miss!" ),
+
+	// A ship was hit but is still afloat
+	HIT( "Hit!" ),
+
+	// A ship was hit in its last place
+	SUNK( "Hit and sunk!" ),
+
+	// The target had been fired at before,
+	// so nothing changed
+	ALREADY_SHOT( "Already fired there!" );
+
+	// What the player is told
+	final String message;
+
+	ShotResult( String message ) {
+		this.message = message;
+	}
+
+	/**
+	 * Whether a ship was hit.
+	 * @return   boolean   true for HIT and SUNK
+	 */
+	public boolean isHit() {
+		return this == HIT || this == SUNK;
+	}
+}
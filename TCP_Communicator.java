@@ -1,18 +1,19 @@
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.Socket;
-import java.net.SocketTimeoutException;
 
 /**
  * This class handles communication via TCP
  * between the server and a player.
  *
  */
-@SuppressWarnings("serial")
 public class TCP_Communicator implements Serializable{
 	
+	// Kept equal to the value computed for the original
+	// class so players using Java serialization can still
+	// receive this object
+	private static final long serialVersionUID = -8789821823946931627L;
+	
 	// An object of the View class. It is
 	// used to communicate with the player.
 	View view;
@@ -24,10 +25,17 @@ public class TCP_Communicator implements Serializable{
 	// connected to the server
 	Socket socket;
 	
-	// Streams for reading and writing
-	// objects
-	ObjectOutputStream oos;
-	ObjectInputStream ois;
+	// Sends and receives the Packets
+	// of this connection
+	PacketLink link;
+	
+	// Our copies of our own ocean and of the
+	// opponent's, kept up to date by the server
+	Ocean[] copies = new Ocean[2];
+	
+	// True if a copy went wrong and the server
+	// should send the oceans whole
+	boolean resync = false;
 	
 	/**
 	 * The constructor. It initializes the name of the player.
@@ -38,80 +46,33 @@ public class TCP_Communicator implements Serializable{
 	}
 	
 	/**
-	 * This method acquires the socket, ObjectOutputStream, 
-	 * and ObjectInputStream needed to communicate with the
-	 * server
+	 * This method acquires the socket and PacketLink
+	 * needed to communicate with the server
 	 * @param   socket   the socket through which we are 
 	 *                   connected to the server
-	 * @param   oos      the ObjectOutputStream
-	 * @param   ois      the ObjectInputStream
+	 * @param   link     the PacketLink
 	 */
-	public void setSocket( Socket socket, ObjectOutputStream oos, ObjectInputStream ois ) {
+	public void setSocket( Socket socket, PacketLink link ) {
 		this.socket = socket;
-		this.oos = oos;
-		this.ois = ois;
+		this.link = link;
 		view = new View();
 	}
+	
+	/**
+	 * Play through a different View, for example
+	 * one that plays by itself.
+	 * @param   view   the View
+	 */
+	public void setView( View view ) {
+		this.view = view;
+	}
 
 	public void sendData(Object data) throws IOException, ClassNotFoundException {
-		int packetId;
-		long packetTimestamp;
-		
-		if (data instanceof Boolean) {
-            Packet<Boolean> packet = new Packet<>((boolean) data);
-			packetId = packet.getPacketId();
-			packetTimestamp = packet.getTimestamp();
-			oos.writeObject( packet );
-        } else if (data instanceof Integer) {
-            Packet<Integer> packet = new Packet<>((Integer) data);
-			packetId = packet.getPacketId();
-			packetTimestamp = packet.getTimestamp();
-			oos.writeObject( packet );
-        } else if (data instanceof int[]) {
-            Packet<int[]> packet = new Packet<>((int[]) data);
-			packetId = packet.getPacketId();
-			packetTimestamp = packet.getTimestamp();
-			oos.writeObject( packet );
-        } else if (data instanceof String) {
-            Packet<String> packet = new Packet<>((String) data);
-			packetId = packet.getPacketId();
-			packetTimestamp = packet.getTimestamp();
-			oos.writeObject( packet );
-        } else if (data instanceof String[]) {
-            Packet<String> packet = new Packet<>((String[]) data);
-			packetId = packet.getPacketId();
-			packetTimestamp = packet.getTimestamp();
-			oos.writeObject( packet );
-        } else {
-            Packet<Object> packet = new Packet<>((Object[]) data);
-			packetId = packet.getPacketId();
-			packetTimestamp = packet.getTimestamp();
-			oos.writeObject( packet );
-        }
-
-		System.out.println("Sent Packet ID: " + packetId);
-		try {
-            socket.setSoTimeout(30000);
-            Packet<Void> acknowledgment = (Packet<Void>) ois.readObject();
-            System.out.println("Received ACK for Packet ID: " + acknowledgment.getPacketId());
-			long delay = System.currentTimeMillis() - packetTimestamp;
-			System.out.println("Total Round Trip Time: " + delay + " ms");
-        } catch (SocketTimeoutException e) {
-            System.out.println("Acknowledgment timeout for Packet ID: " + packetId);
-        }
+		link.sendData(data);
 	}
 
 	public <T> Packet<T> receiveData() throws IOException, ClassNotFoundException {
-		socket.setSoTimeout(30000);
-		Packet<T> receivedPacket = (Packet<T>) ois.readObject();
-		long delay = System.currentTimeMillis() - receivedPacket.getTimestamp();
-
-		System.out.println("Received Packet ID: " + receivedPacket.getPacketId());
-		System.out.println("Packet delay: " + delay + " ms");
-
-		Packet<Void> acknowledgment = new Packet<>(receivedPacket.getPacketId(), true);
-		oos.writeObject(acknowledgment);
-		return receivedPacket;
+		return link.receiveData();
 	}
 	
 	/**
@@ -155,6 +116,21 @@ public class TCP_Communicator implements Serializable{
 		}
 	}
 		
+	/**
+	 * Ask the player where they want to attack.
+	 * If our copies of the oceans went wrong, a
+	 * third value asks the server to send them whole.
+	 * @return   int[]   the target
+	 */
+	private int[] target() {
+		int[] target = view.getInput( playerName );
+		if( resync ) {
+			resync = false;
+			return new int[] { target[0], target[1], 1 };
+		}
+		return target;
+	}
+	
 	/**
 	 * This method contains part of the logic 
 	 * needed to play a game of battleship. It 
@@ -183,45 +159,26 @@ public class TCP_Communicator implements Serializable{
 				// So long as no one has won, keep playing
 				while( game ) {
 					
-					// Blocks until the server sends a boolean
-					// value. Once it receives a value, it must
-					// be this player's turn. If the value is 
-					// false, then the game is over.
-					Packet<Boolean> packet3 = receiveData();
-					if( (boolean) packet3.getObjectData() ){
-						// The player's ocean
-						Packet<String> pkt = receiveData();
-						view.message( (String) pkt.getObjectData() );
-						pkt = receiveData();
-						view.message( (String) pkt.getObjectData() );
-						
-						// The player's guesses
-						pkt = receiveData();
-						view.message( (String) pkt.getObjectData() );
-						pkt = receiveData();
-						view.message( (String) pkt.getObjectData() );
-						
-						// Get desired target
-						sendData( view.getInput(playerName) );
-						
-						// See if it was a hit or miss
-						pkt = receiveData();
-						view.message( ( String ) pkt.getObjectData() );
-
-						// The player's guesses
-						pkt = receiveData();
-						view.message( (String) pkt.getObjectData() );
-						pkt = receiveData();
-						view.message( (String) pkt.getObjectData() );
+					// Blocks until the server sends the next
+					// TurnState. At the start of this player's
+					// turn it holds their ocean and guesses,
+					// after they fire it holds whether it hit,
+					// and once the game is over who won.
+					Packet<TurnState> packet3 = receiveData();
+					TurnState state = packet3.getObjectData();
+					
+					// Bring our copies of the oceans up to date
+					if( !state.update( copies ) ) {
+						resync = true;
 					}
-					else{
-						game = false;
+					state.show( view );
+					
+					// Get desired target
+					if( state.asksForTarget ) {
+						sendData( target() );
 					}
+					game = state.playing;
 				}
-				
-				// See who the winner is
-				Packet<String> packet4 = receiveData();
-				view.message( (String) packet4.getObjectData()); 
 			}
 			else{
 				
@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One of the few threads of the non-blocking
+ * server. It owns a Selector and services every
+ * session registered with it, so a single thread
+ * can look after thousands of players.
+ */
+public class TCP_EventLoop extends Thread {
+
+	// Tells us which of our sessions can be
+	// read from or written to
+	Selector selector;
+
+	// Work handed to this loop by other threads.
+	// It is run on this thread between selects.
+	ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+	// The server this loop belongs to
+	TCP_NIO_Server server;
+
+	/**
+	 * The constructor. It opens the Selector.
+	 * @param   id       the number of this loop,
+	 *                   used to name the thread
+	 * @param   server   the server this loop belongs to
+	 */
+	public TCP_EventLoop( int id, TCP_NIO_Server server ) throws IOException {
+		super( "tcp-loop-" + id );
+		this.server = server;
+		selector = Selector.open();
+	}
+
+	/**
+	 * Run a task on this loop's thread and
+	 * wake the loop up if it is waiting.
+	 * @param   task   the work to be done
+	 */
+	public void execute( Runnable task ) {
+		tasks.add( task );
+		selector.wakeup();
+	}
+
+	/**
+	 * Hand a newly accepted connection to this loop.
+	 * Should that fail, the connection is closed and
+	 * no longer counted by the server.
+	 * @param   channel   the player's connection
+	 */
+	public void register( SocketChannel channel ) {
+		execute( () -> {
+			TCP_Session session = null;
+			try {
+				session = new TCP_Session( channel, this, server );
+				session.key = channel.register( selector, SelectionKey.OP_READ, session );
+			} catch ( IOException | RuntimeException e ) {
+
+				// The selector is closed once the loop has
+				// been shut down, which is no surprise
+				if( selector.isOpen() ) {
+					e.printStackTrace();
+				}
+				if( session != null ) {
+					session.close();
+				}
+				else {
+					try {
+						channel.close();
+					} catch ( IOException closing ) {
+						closing.printStackTrace();
+					}
+					server.sessions.decrementAndGet();
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Close every session of this loop and then the
+	 * loop itself, on its own thread.
+	 */
+	public void shutdown() {
+		execute( () -> {
+			for( SelectionKey key : selector.keys() ) {
+				( (TCP_Session) key.attachment() ).close();
+			}
+			try {
+				selector.close();
+			} catch ( IOException e ) {
+				e.printStackTrace();
+			}
+		} );
+	}
+
+	/**
+	 * The run method. It waits for sessions to become
+	 * readable or writable and lets them do their work.
+	 */
+	public void run() {
+
+		while( selector.isOpen() ) {
+
+			try {
+				selector.select();
+			} catch ( IOException e ) {
+				e.printStackTrace();
+				return;
+			}
+
+			// Run whatever other threads asked us to do
+			Runnable task;
+			while( ( task = tasks.poll() ) != null ) {
+				task.run();
+			}
+			if( !selector.isOpen() ) {
+				return;
+			}
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while( keys.hasNext() ) {
+				SelectionKey key = keys.next();
+				keys.remove();
+
+				TCP_Session session = (TCP_Session) key.attachment();
+				if( key.isValid() && key.isReadable() ) {
+					session.onReadable();
+				}
+				if( key.isValid() && key.isWritable() ) {
+					session.onWritable();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,318 @@
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+/**
+ * This class holds everything belonging to one
+ * game of battleship on TCP_Server: the model, the
+ * players, whose turn it is and the helpers that
+ * talk to the players. The server can run many of
+ * these at once, each independent of the others.
+ * Once the game starts, only its GameActor touches
+ * the model; the helpers post commands to it and
+ * wait for the answers.
+ */
+public class TCP_Game {
+	
+	// The numeric id of this game
+	int id;
+	
+	// A reference to the main server
+	TCP_Server server;
+	
+	// Model of the BattleShip game
+	Model model = new Model();
+	
+	// The only thing that touches the model
+	// once the game has started
+	GameActor actor;
+	
+	// The players
+	Player[] players = new Player[2];
+	
+	// The boat and hit marks of the players
+	char[] boatMarks = { 'A', 'B' };
+	char[] hitMarks = { 'a', 'b' };
+	
+	// The threads that shall handle the wireless connection
+	// between the server and the player
+	TCP_Server_Helper[] helpers = new TCP_Server_Helper[2];
+	
+	// If set, the helpers run as tasks inside
+	// this scope instead of as their own threads
+	GameScope scope;
+	
+	// Hands the turn between the helpers and waits
+	// for both fleets to be set up
+	TurnCoordinator coordinator = new TurnCoordinator();
+	
+	// The number of helpers that have finished
+	int finished = 0;
+	
+	/**
+	 * The constructor. It creates a game with no
+	 * players yet.
+	 * @param   id       the numeric id of this game
+	 * @param   server   a reference to the main server
+	 */
+	public TCP_Game( int id, TCP_Server server ) {
+		this.id = id;
+		this.server = server;
+		actor = new GameActor( model, server.actors );
+		model.record( id, server.log );
+	}
+	
+	/**
+	 * Add a player to this game.
+	 * @param   player       the numeric id of the player
+	 * @param   playerName   the name of the player
+	 * @param   helper       the helper that talks to them
+	 */
+	public void addPlayer( int player, String playerName, TCP_Server_Helper helper ) {
+		players[player] = new Player( playerName, boatMarks[player], hitMarks[player] );
+		helpers[player] = helper;
+	}
+	
+	/**
+	 * Set up the model and start the helpers.
+	 * @param   executor   runs the helpers inside a
+	 *                     GameScope, or null to give
+	 *                     each its own thread
+	 */
+	public void start( ExecutorService executor ) {
+		
+		model.modelSetUp( players[0].shipMark, players[1].shipMark );
+		model.join( 0, players[0].playerName );
+		model.join( 1, players[1].playerName );
+		if( executor != null ) {
+			
+			// Both helpers are queued together, so a pool
+			// with fewer threads than there are helpers
+			// never runs one while its partner waits
+			scope = new GameScope( executor );
+			synchronized( executor ) {
+				scope.fork( helpers[0] );
+				scope.fork( helpers[1] );
+			}
+		}
+		else {
+			helpers[0].start();
+			helpers[1].start();
+		}
+	}
+	
+	/**
+	 * Called by a helper once it is done. If its player
+	 * left before the game was over, the other player
+	 * is stopped as well. Once both helpers are done
+	 * the server forgets this game.
+	 * @param   player   the numeric id of the player
+	 * @param   failed   true if the connection to them
+	 *                   failed
+	 */
+	public void left( int player, boolean failed ) {
+		
+		// A player who leaves a game still going
+		// loses it
+		if( failed ) {
+			if( model.snapshot().checkStatus() ) {
+				model.gameOver( 1 - player, GameLog.DISCONNECT );
+			}
+			abandon();
+		}
+		
+		synchronized( this ) {
+			if( ++finished < 2 ) {
+				return;
+			}
+		}
+		if( model.snapshot().checkStatus() ) {
+			model.gameOver( -1, GameLog.DISCONNECT );
+		}
+		server.finished( this );
+	}
+	
+	/**
+	 * End this game early, waking a helper waiting
+	 * for its turn and closing both connections.
+	 */
+	public void abandon() {
+		
+		coordinator.stop();
+		if( scope != null ) {
+			scope.cancel();
+			return;
+		}
+		for( TCP_Server_Helper helper : helpers ) {
+			try {
+				helper.client.close();
+			} catch ( IOException e ) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	public Player getPlayer(int player_id) {
+		return players[player_id];
+	}
+	
+	/**
+	 * This method creates one ship
+	 * out of many. It is called by a 
+	 * helper thread to check that the 
+	 * ship can indeed be built at the 
+	 * desired spot and in the desired 
+	 * direction.
+	 * @param   player   the numeric id of
+	 *                   the player for whom
+	 *                   the ship is being built
+	 * @param   inputs   the desired place and
+	 *                   direction
+	 * @return  boolean  true if it can be
+	 *                   built, false otherwise
+	 */
+	public boolean fleetSetUp( int player, Object[] inputs ) throws InterruptedException {
+		
+		// The input row
+		int row = 0;
+		
+		// The input column
+		int column = 0;
+		
+		// The input direction
+		String direction = "";
+		
+		// Retrieve row, column, and direction
+		// values from input
+		row = ( Integer ) inputs[0];
+		column = ( Integer ) inputs[1];
+		direction = ( String ) inputs[2];
+		
+		// If the ship can be built, return true
+		return actor.ask( new GameActor.PlaceShip( player, row, column, direction ) );
+	}
+
+	/**
+	 * This method is used to mark when 
+	 * each player completes their setup,
+	 * and wait for the other player to
+	 * complete theirs.
+	 * 
+	 * @param	player   the numberic id of
+	 * 					 the player who has
+	 * 					 completed their setup
+	 * @param	timeout  the most time to wait,
+	 * 					 in milliseconds
+	 * 
+	 * @return	boolean	true if both players have 
+	 * 					completed their setup
+	 */
+	public boolean awaitSetup(int player, long timeout) throws InterruptedException {
+		return coordinator.awaitSetup(player, timeout);
+	}
+	
+	/**
+	 * Check to see if the game is still
+	 * going, as of the last move published,
+	 * without waiting on the game's actor.
+	 * @return   boolean   true if the game is
+	 *                     still going, false
+	 *                     otherwise
+	 */
+	public boolean checkStatus() {
+		return model.snapshot().checkStatus();
+	}
+
+	/**
+	 * Wait until it is the given player's turn.
+	 * @param   player    the numeric id of the player
+	 * @return  boolean   true if it is their turn, false
+	 *                    if the game is over
+	 */
+	public boolean awaitTurn(int player) throws InterruptedException {
+		return coordinator.awaitTurn(player);
+	}
+
+	public int getTurn() {
+		return coordinator.getTurn();
+	}
+
+	public int getSign() {
+		return coordinator.getSign();
+	}
+
+	/**
+	 * Hand the turn to the other player, letting
+	 * them know if the game is over.
+	 */
+	public void changeTurn() {
+		coordinator.changeTurn( checkStatus() );
+	}
+	
+	/**
+	 * Get and return a string representation
+	 * of the ocean belonging to the player
+	 * argument.
+	 * @param   player    the numeric id of the player
+	 *                    whose ocean we want to return
+	 * @param   yesOrNo   a boolean value, indicating
+	 *                    if we want the ships included
+	 * @return  String    a string representation of the
+	 *                    player's arguments ocean
+	 */
+	public String printOcean( int player, boolean yesOrNo ) {
+		return model.snapshot().printOcean( player, yesOrNo );
+	}
+	
+	/**
+	 * Have the game's actor read what a player is
+	 * to be sent, such as a TurnState made from their
+	 * OceanViews, so nothing else reads the oceans.
+	 * @param   reading   what is read
+	 * @return  T         what was read
+	 */
+	public <T> T render( Function<Model, T> reading ) throws InterruptedException {
+		return actor.ask( new GameActor.Render<>( reading ) );
+	}
+	
+	/**
+	 * Get an OceanView that tracks how much of the
+	 * ocean belonging to the player argument has
+	 * been seen. The view only holds on to the ocean,
+	 * which is read when the view is rendered.
+	 * @param   player      the numeric id of the player
+	 *                      whose ocean is watched
+	 * @param   yesOrNo     a boolean value, indicating
+	 *                      if the ships may be seen
+	 * @return  OceanView   the view of the ocean
+	 */
+	public OceanView viewOcean( int player, boolean yesOrNo ) {
+		return model.viewOcean(player, yesOrNo);
+	}
+	
+	/**
+	 * Check the model to see if the given coordinates
+	 * hit a ship or not 
+	 * @param    targetedPlayer    the player who is being attacked
+	 * @param    target            the coordinates being targeted
+	 * @param    attackingPlayer   the player who is attacking
+	 * @return   ShotResult        what became of the shot
+	 */
+	public ShotResult checkHit( int targetedPlayer, int[] target, int attackingPlayer )
+			throws InterruptedException {
+		return actor.ask( new GameActor.Shoot( targetedPlayer, target[0],
+				target[1], players[attackingPlayer].hitMark ) );
+	}
+	
+	/**
+	 * Check to see who the winner is.
+	 * @return   String   the name of the winner
+	 */
+	public String victory() throws InterruptedException {
+		
+		// Get the numeric id of the winner
+		int winner = actor.ask( new GameActor.Render<>( Model::victory ) );
+		
+		return players[winner].playerName + " has won!";
+	}
+}
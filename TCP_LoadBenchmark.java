@@ -0,0 +1,175 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+/**
+ * This class puts a TCP server under load: it
+ * starts a server in the same process, has many
+ * scripted games connect to it at once, and reports
+ * how many connections each core carried and how
+ * many turns were played each second. The server is
+ * TCP_NIO_Server ("nio"), or TCP_Server with a
+ * platform thread for each helper ("platform") or
+ * with its helpers on virtual threads ("virtual"),
+ * so the three can be compared. The players are the
+ * ordinary TCP_PlayerClient with the View of
+ * TransportBenchmark, one thread each, so they share
+ * the cores with the server and the numbers are
+ * lower than the server alone could do.
+ */
+public class TCP_LoadBenchmark {
+
+	// Where the results go. The players print
+	// as they go, which is hidden.
+	static PrintStream out = System.out;
+
+	/**
+	 * Play games against a server, all at once,
+	 * and report.
+	 * @param   kind      "nio", "platform" or "virtual"
+	 * @param   games     the number of games
+	 * @param   threads   the number of event loops for
+	 *                    "nio", of carrier threads for
+	 *                    "virtual", 0 for one per core
+	 */
+	public static void run( String kind, int games, int threads ) throws IOException, InterruptedException {
+
+		// Start the server on any free port
+		int cores = Runtime.getRuntime().availableProcessors();
+		TCP_NIO_Server nio = null;
+		TCP_Server blocking = null;
+		IntSupplier connections;
+		int port;
+		Thread serving;
+		if( kind.equals( "nio" ) ) {
+			threads = threads > 0 ? threads : cores;
+			TCP_NIO_Server server = new TCP_NIO_Server( 0, threads );
+			port = ( (InetSocketAddress) server.server.getLocalAddress() ).getPort();
+			serving = new Thread( () -> {
+				try {
+					server.acceptPlayers();
+				} catch ( IOException e ) {
+					// Closed at the end of the run
+				}
+			}, "tcp-server" );
+			connections = server.sessions::get;
+			nio = server;
+		}
+		else {
+			TCP_Server server = new TCP_Server( 0 );
+			if( kind.equals( "virtual" ) ) {
+				server.executor = GameScope.virtualThreads( threads );
+			}
+			else {
+				threads = 0;
+			}
+			port = server.server.getLocalPort();
+			serving = new Thread( server::acceptPlayers, "tcp-server" );
+			connections = () -> 2 * server.games.size() + server.lobby.queueDepth();
+			blocking = server;
+		}
+		serving.setDaemon( true );
+		serving.start();
+
+		// Keep the most connections the server had at
+		// once, and the most threads in the process
+		AtomicInteger peak = new AtomicInteger();
+		AtomicInteger peakThreads = new AtomicInteger();
+		Thread sampling = new Thread( () -> {
+			while( true ) {
+				peak.accumulateAndGet( connections.getAsInt(), Math::max );
+				peakThreads.accumulateAndGet( Thread.activeCount(), Math::max );
+				try {
+					Thread.sleep( 10 );
+				} catch ( InterruptedException e ) {
+					return;
+				}
+			}
+		}, "tcp-sampler" );
+		sampling.setDaemon( true );
+		sampling.start();
+
+		// Every player connects at once
+		List<TransportBenchmark.ScriptedView> views = new ArrayList<>();
+		List<Thread> players = new ArrayList<>();
+		long start = System.nanoTime();
+		for( int player = 0; player < 2 * games; player++ ) {
+			TransportBenchmark.ScriptedView view = new TransportBenchmark.ScriptedView();
+			views.add( view );
+			String name = "player" + player;
+			Thread playing = new Thread( null, () -> {
+				TCP_PlayerClient client = new TCP_PlayerClient();
+				client.view = view;
+				client.connect( name, InetAddress.getLoopbackAddress(), port );
+			}, name, 256 << 10 );
+			playing.start();
+			players.add( playing );
+		}
+		for( Thread playing : players ) {
+			playing.join();
+		}
+		double seconds = ( System.nanoTime() - start ) / 1e9;
+		sampling.interrupt();
+		if( nio != null ) {
+			nio.close();
+		}
+		else {
+			blocking.server.close();
+			if( blocking.executor != null ) {
+				blocking.executor.shutdown();
+			}
+			blocking.actors.shutdown();
+		}
+
+		// Put every turn's time together
+		int total = 0;
+		for( TransportBenchmark.ScriptedView view : views ) {
+			total += view.count;
+		}
+		long[] micros = new long[total];
+		int filled = 0;
+		for( TransportBenchmark.ScriptedView view : views ) {
+			System.arraycopy( view.turns, 0, micros, filled, view.count );
+			filled += view.count;
+		}
+		Arrays.sort( micros );
+
+		out.printf( "%-8s threads=%d games=%d cores=%d peak=%d connections/core=%d peakThreads=%d" +
+				" turns=%d turns/s=%.0f p50=%.1f p99=%.1f ms seconds=%.2f%n", kind, threads, games,
+				cores, peak.get(), peak.get() / cores, peakThreads.get(), total, total / seconds,
+				total == 0 ? 0 : micros[total / 2] / 1000.0, total == 0 ? 0 : micros[total * 99 / 100] / 1000.0,
+				seconds );
+	}
+
+	/**
+	 * The main method. It plays each number of games
+	 * asked for, all of a number at once, against each
+	 * server asked for.
+	 * @param   args   command line arguments: the servers
+	 *                 (nio, platform, virtual) and the
+	 *                 numbers of games, each separated by
+	 *                 commas, and the number of event loops
+	 *                 or carrier threads
+	 */
+	public static void main( String [] args ) throws IOException, InterruptedException {
+
+		String[] kinds = ( args.length > 0 ? args[0] : "nio" ).split( "," );
+		String[] counts = ( args.length > 1 ? args[1] : "10,100,500" ).split( "," );
+		int threads = args.length > 2 ? Integer.parseInt( args[2] ) : 0;
+
+		System.setOut( new PrintStream( OutputStream.nullOutputStream() ) );
+		for( String count : counts ) {
+			for( String kind : kinds ) {
+				run( kind, Integer.parseInt( count ), threads );
+			}
+		}
+		System.exit( 0 );
+	}
+}
@@ -0,0 +1,232 @@
+/**
+ * This class contains the server-side logic of one
+ * game of battleship on the non-blocking server. It
+ * follows the same order of messages as
+ * TCP_Server_Helper, but instead of blocking on each
+ * read it is called whenever a player's Packet arrives.
+ */
+public class TCP_Match {
+
+	// The numeric id of this game
+	int id;
+
+	// A reference to the main server
+	TCP_NIO_Server server;
+
+	// Model of the BattleShip game
+	Model model = new Model();
+
+	// The players and their connections
+	Player[] players = new Player[2];
+	TCP_Session[] sessions = new TCP_Session[2];
+
+	// The boat and hit marks of the players
+	char[] boatMarks = { 'A', 'B' };
+	char[] hitMarks = { 'a', 'b' };
+
+	// The number of ships each player has built
+	int[] built = new int[2];
+
+	// What each player has seen of their own
+	// ocean and of their opponent's
+	OceanView[] fleetViews = new OceanView[2];
+	OceanView[] attacksViews = new OceanView[2];
+
+	// Whose turn it currently is
+	int turn = 0;
+
+	// Determines whose turn it is
+	int sign = 1;
+
+	// True once the game has ended, one way or another
+	boolean over = false;
+
+	/**
+	 * The constructor. It pairs up two players
+	 * who have sent their names.
+	 * @param   id       the numeric id of this game
+	 * @param   first    the first player's session
+	 * @param   second   the second player's session
+	 * @param   server   a reference to the main server
+	 */
+	public TCP_Match( int id, TCP_Session first, TCP_Session second, TCP_NIO_Server server ) {
+		this.id = id;
+		this.server = server;
+		sessions[0] = first;
+		sessions[1] = second;
+
+		for( int player = 0; player < 2; player++ ) {
+			players[player] = new Player( sessions[player].playerName,
+					boatMarks[player], hitMarks[player] );
+			sessions[player].match = this;
+			sessions[player].player = player;
+		}
+
+		// Ships sunk are counted, not printed
+		model.onSunk( id, ( game, player, ship ) -> server.shipsSunk.increment() );
+		model.record( id, server.log );
+	}
+
+	/**
+	 * Set up the model and tell both players that
+	 * the game is ready and to build their first ship.
+	 */
+	public synchronized void start() {
+
+		model.modelSetUp( players[0].shipMark, players[1].shipMark );
+		for( int player = 0; player < 2; player++ ) {
+			model.join( player, players[player].playerName );
+			fleetViews[player] = model.viewOcean( player, true );
+			attacksViews[player] = model.viewOcean( 1 - player, false );
+		}
+
+		for( int player = 0; player < 2; player++ ) {
+			sessions[player].send( Boolean.TRUE );
+			sessions[player].send( Integer.valueOf( 0 ) );
+		}
+	}
+
+	/**
+	 * Handle a Packet from one of the players. While
+	 * they are building ships it holds a position and
+	 * direction, after that it holds their target.
+	 * @param   player   the numeric id of the player
+	 * @param   packet   the Packet they sent
+	 */
+	public synchronized void received( int player, Packet<?> packet ) {
+
+		if( over ) {
+			return;
+		}
+
+		try {
+			if( built[player] < 4 ) {
+				buildShip( player, packet.getObjectsArray() );
+			}
+			else if( player == turn && built[turn + sign] == 4 ) {
+				int[] target = (int[]) packet.getObjectData();
+
+				// A third value asks for the oceans to be
+				// sent whole because the player's copies
+				// went wrong
+				if( target.length > 2 && target[2] != 0 ) {
+					fleetViews[player].resync();
+					attacksViews[player].resync();
+				}
+				shoot( target );
+			}
+		} catch ( RuntimeException e ) {
+
+			// A player who sends something we can
+			// not make sense of forfeits the game
+			model.gameOver( 1 - player, GameLog.FORFEIT );
+			sessions[player].close();
+		}
+	}
+
+	/**
+	 * Try to build a ship for a player and ask them
+	 * for the next one, or start the game once both
+	 * fleets are complete.
+	 * @param   player   the numeric id of the player
+	 * @param   inputs   the desired place and direction
+	 */
+	private void buildShip( int player, Object[] inputs ) {
+
+		if( model.buildShip( player, (Integer) inputs[0],
+				(Integer) inputs[1], (String) inputs[2] ) ) {
+			sessions[player].send( Boolean.TRUE );
+			built[player]++;
+		}
+		else {
+			sessions[player].send( Boolean.FALSE );
+		}
+
+		if( built[player] < 4 ) {
+			sessions[player].send( Integer.valueOf( built[player] ) );
+		}
+
+		// Once both fleets are built the game begins
+		else if( built[0] == 4 && built[1] == 4 ) {
+			sessions[0].send( Boolean.TRUE );
+			sessions[1].send( Boolean.TRUE );
+			sendTurn();
+		}
+	}
+
+	/**
+	 * Tell the current player that the game is still
+	 * going and show them both oceans.
+	 */
+	private void sendTurn() {
+
+		// Send the current player's ocean with their ships,
+		// and the waiting player's ocean without their
+		// ships. This is so that the guessing player
+		// can see their hits and misses. Players speaking
+		// WireCodec are sent only what changed.
+		sessions[turn].send( TurnState.prompt( "Your Fleet", fleetViews[turn],
+				"Your Attacks", attacksViews[turn], sessions[turn].binary ) );
+	}
+
+	/**
+	 * Fire the current player's shot, tell them how
+	 * it went, and move on to the next turn or end
+	 * the game.
+	 * @param   target   the coordinates being targeted
+	 */
+	private void shoot( int[] target ) {
+
+		// Pass the target to the model, which tells
+		// us what became of the shot
+		String result = model.checkHit( turn + sign, target[0], target[1],
+				players[turn].hitMark ).message;
+
+		// Send the result along with the
+		// opponent's ocean after the shot
+		sessions[turn].send( TurnState.result( result, "Opponent Ocean",
+				attacksViews[turn], sessions[turn].binary ) );
+
+		// Change the turn
+		turn += sign;
+		sign *= -1;
+		server.turns.increment();
+
+		if( model.checkStatus() ) {
+			sendTurn();
+		}
+		else {
+			finish();
+		}
+	}
+
+	/**
+	 * Tell both players that the game is over
+	 * and who won.
+	 */
+	private void finish() {
+
+		over = true;
+		String victory = players[model.victory()].playerName + " has won!";
+		for( int player = 0; player < 2; player++ ) {
+			sessions[player].send( TurnState.over( victory ) );
+		}
+		server.finished( this );
+	}
+
+	/**
+	 * Called when one of the players disconnects.
+	 * If the game was still going, the other player
+	 * is disconnected too.
+	 * @param   session   the session that was closed
+	 */
+	public synchronized void abandon( TCP_Session session ) {
+
+		if( !over ) {
+			over = true;
+			model.gameOver( 1 - session.player, GameLog.DISCONNECT );
+			sessions[1 - session.player].close();
+			server.finished( this );
+		}
+	}
+}
@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A non-blocking server for many games of battleship
+ * at once. Connections are accepted through a
+ * ServerSocketChannel and spread over a small number
+ * of TCP_EventLoop threads, each of which looks after
+ * its sessions with a Selector. Players speak the same
+ * Packet protocol as with TCP_Server, so the same
+ * TCP_PlayerClient can connect to either.
+ */
+public class TCP_NIO_Server {
+
+	// The channel on which we accept players
+	ServerSocketChannel server;
+
+	// The port that this server shall listen on
+	int port = 4455;
+
+	// The threads that look after the sessions
+	TCP_EventLoop[] loops;
+
+	// The loop the next player will be given to
+	int nextLoop = 0;
+
+	// Players who have sent their name and are
+	// waiting for an opponent
+	Matchmaker<TCP_Session> lobby;
+
+	// Where every game's moves are recorded, if the
+	// system property game.log names a directory
+	GameLog log = GameLog.fromProperties();
+
+	// The games currently being played, keyed by game
+	// id. Ids carry on from those in the log, if any.
+	ConcurrentHashMap<Integer, TCP_Match> matches = new ConcurrentHashMap<>();
+	AtomicInteger gameIds = new AtomicInteger( log == null ? 0 : log.lastGame() );
+
+	// Numbers reported while the server runs
+	AtomicInteger sessions = new AtomicInteger();
+	LongAdder turns = new LongAdder();
+	LongAdder shipsSunk = new LongAdder();
+	LongAdder roundTrips = new LongAdder();
+	LongAdder roundTripMillis = new LongAdder();
+
+	/**
+	 * The constructor. It opens the ServerSocketChannel
+	 * and starts the event loops.
+	 * @param   port    the port to listen on
+	 * @param   count   the number of event loops
+	 */
+	public TCP_NIO_Server( int port, int count ) throws IOException {
+		this.port = port;
+
+		server = ServerSocketChannel.open();
+		server.bind( new InetSocketAddress( port ), 1024 );
+
+		lobby = new Matchmaker<>( count );
+
+		loops = new TCP_EventLoop[count];
+		for( int loop = 0; loop < count; loop++ ) {
+			loops[loop] = new TCP_EventLoop( loop, this );
+			loops[loop].start();
+		}
+	}
+
+	/**
+	 * Accept players for as long as the server runs,
+	 * handing each to the next event loop in turn.
+	 */
+	public void acceptPlayers() throws IOException {
+
+		while( server.isOpen() ) {
+			SocketChannel channel;
+			try {
+				channel = server.accept();
+			} catch ( ClosedChannelException e ) {
+
+				// Closed by close(), the server is done
+				return;
+			}
+			sessions.incrementAndGet();
+			loops[nextLoop].register( channel );
+			nextLoop = ( nextLoop + 1 ) % loops.length;
+		}
+	}
+
+	/**
+	 * Called once a player has sent their name. If
+	 * someone is waiting in the lobby they are paired
+	 * and their game begins, otherwise the player waits.
+	 * @param   session   the player's session
+	 */
+	public void join( TCP_Session session ) {
+
+		TCP_Session waiting = lobby.join( session );
+		if( waiting != null ) {
+			TCP_Match match = new TCP_Match( gameIds.incrementAndGet(), waiting, session, this );
+			matches.put( match.id, match );
+			match.start();
+		}
+	}
+
+	/**
+	 * Called when a player's connection is closed.
+	 * @param   session   the player's session
+	 */
+	public void left( TCP_Session session ) {
+
+		sessions.decrementAndGet();
+		lobby.leave( session );
+	}
+
+	/**
+	 * Called when a game has ended.
+	 * @param   match   the game that ended
+	 */
+	public void finished( TCP_Match match ) {
+		matches.remove( match.id );
+	}
+
+	/**
+	 * Stop the server: no more players are accepted,
+	 * every session is closed and the event loops
+	 * and the log are let go.
+	 */
+	public void close() throws IOException {
+
+		server.close();
+		for( TCP_EventLoop loop : loops ) {
+			loop.shutdown();
+		}
+		for( TCP_EventLoop loop : loops ) {
+			try {
+				loop.join( 1000 );
+			} catch ( InterruptedException e ) {
+				break;
+			}
+		}
+		if( log != null ) {
+			log.close();
+		}
+	}
+
+	/**
+	 * Record how long a Packet took to be
+	 * acknowledged.
+	 * @param   millis   the round trip time
+	 */
+	public void recordRoundTrip( long millis ) {
+		roundTrips.increment();
+		roundTripMillis.add( millis );
+	}
+
+	/**
+	 * Print how many players and games the server has,
+	 * how many connections each core is carrying, how
+	 * many players are waiting and for how long, and
+	 * how many turns were played, every few seconds.
+	 * @param   seconds   the time between reports
+	 */
+	public void report( int seconds ) {
+
+		Thread reporter = new Thread( () -> {
+
+			int cores = Runtime.getRuntime().availableProcessors();
+			long lastTurns = 0;
+			while( true ) {
+				try {
+					Thread.sleep( seconds * 1000L );
+				} catch ( InterruptedException e ) {
+					return;
+				}
+
+				long totalTurns = turns.sum();
+				long trips = roundTrips.sum();
+				System.out.println( "sessions=" + sessions.get() +
+						" games=" + matches.size() +
+						" sessions/core=" + sessions.get() / cores +
+						" waiting=" + lobby.queueDepth() +
+						" timeToMatch=" + lobby.averageWaitMicros() + " us" +
+						" turns/s=" + ( totalTurns - lastTurns ) / seconds +
+						" sunk=" + shipsSunk.sum() +
+						" avgRTT=" + ( trips == 0 ? 0 : roundTripMillis.sum() / trips ) + " ms" );
+				lastTurns = totalTurns;
+			}
+		}, "tcp-report" );
+		reporter.setDaemon( true );
+		reporter.start();
+	}
+
+	/**
+	 * The main method. It starts the server, listening
+	 * on the given port with the given number of event
+	 * loops.
+	 * @param   args   command line arguments, optionally
+	 *                 the port and the number of loops
+	 */
+	public static void main( String [] args ) throws IOException {
+
+		// The port to listen on
+		int port = args.length > 0 ? Integer.parseInt( args[0] ) : 4455;
+
+		// One event loop per core unless told otherwise
+		int count = args.length > 1 ? Integer.parseInt( args[1] )
+				: Runtime.getRuntime().availableProcessors();
+
+		TCP_NIO_Server server = new TCP_NIO_Server( port, count );
+		server.report( 5 );
+		server.acceptPlayers();
+	}
+}
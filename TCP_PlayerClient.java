@@ -1,10 +1,8 @@
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
-import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.net.SocketException;
 import java.net.UnknownHostException;
 
 /**
@@ -19,65 +17,21 @@ public class TCP_PlayerClient {
 	// is connected to the server
 	Socket socket;
 	
-	// Streams for writing and reading
-	// objects
-	ObjectOutputStream oos;
-	ObjectInputStream ois;
+	// Sends and receives the Packets
+	// of this connection
+	PacketLink link;
 
-	public void sendData(Object data) throws IOException, ClassNotFoundException {
-		int packetId;
-		long packetTimestamp;
-		
-		if (data instanceof Boolean) {
-            Packet<Boolean> packet = new Packet<>((boolean) data);
-			packetId = packet.getPacketId();
-			packetTimestamp = packet.getTimestamp();
-			oos.writeObject( packet );
-        } else if (data instanceof Integer) {
-            Packet<Integer> packet = new Packet<>((Integer) data);
-			packetId = packet.getPacketId();
-			packetTimestamp = packet.getTimestamp();
-			oos.writeObject( packet );
-        } else if (data instanceof String) {
-            Packet<String> packet = new Packet<>((String) data);
-			packetId = packet.getPacketId();
-			packetTimestamp = packet.getTimestamp();
-			oos.writeObject( packet );
-        } else if (data instanceof String[]) {
-            Packet<String> packet = new Packet<>((String[]) data);
-			packetId = packet.getPacketId();
-			packetTimestamp = packet.getTimestamp();
-			oos.writeObject( packet );
-        } else {
-            Packet<Object> packet = new Packet<>((Object[]) data);
-			packetId = packet.getPacketId();
-			packetTimestamp = packet.getTimestamp();
-			oos.writeObject( packet );
-        }
+	// If set, the player plays through this View
+	// instead of the one the game makes, for example
+	// one that plays by itself
+	View view;
 
-		System.out.println("Sent Packet ID: " + packetId);
-		try {
-            socket.setSoTimeout(30000);
-            Packet<Void> acknowledgment = (Packet<Void>) ois.readObject();
-            System.out.println("Received ACK for Packet ID: " + acknowledgment.getPacketId());
-			long delay = System.currentTimeMillis() - packetTimestamp;
-			System.out.println("Total Round Trip Time: " + delay + " ms");
-        } catch (SocketTimeoutException e) {
-            System.out.println("Acknowledgment timeout for Packet ID: " + packetId);
-        }
+	public void sendData(Object data) throws IOException, ClassNotFoundException {
+		link.sendData(data);
 	}
 
 	public <T> Packet<T> receiveData() throws IOException, ClassNotFoundException {
-		socket.setSoTimeout(30000);
-		Packet<T> receivedPacket = (Packet<T>) ois.readObject();
-		long delay = System.currentTimeMillis() - receivedPacket.getTimestamp();
-
-		System.out.println("Received Packet ID: " + receivedPacket.getPacketId());
-		System.out.println("Packet delay: " + delay + " ms");
-
-		Packet<Void> acknowledgment = new Packet<>(receivedPacket.getPacketId(), true);
-		oos.writeObject(acknowledgment);
-		return receivedPacket;
+		return link.receiveData();
 	}
 	
 	/**
@@ -100,8 +54,8 @@ public class TCP_PlayerClient {
 
 			// Set up the client's end
 			socket = new Socket( server, port );
-			oos = new ObjectOutputStream( socket.getOutputStream() );
-			ois = new ObjectInputStream( socket.getInputStream() );
+			link = new PacketLink( new BinaryPacketStream( socket.getInputStream(),
+					socket.getOutputStream() ), socket, 30000 );
 			
 			// Set the timeout to 10000 milliseconds. If 10000 milliseconds
 			// pass while waiting to receive an answer from the server,
@@ -120,9 +74,12 @@ public class TCP_PlayerClient {
 			// Return timeout on the socket to infinity
 			socket.setSoTimeout( 0 );
 			
-			// Send the socket, Outputstream, and Inputstream
+			// Send the socket and PacketLink
 			// to the TCP_Communicator object.
-			communicate.setSocket( socket, oos, ois );
+			communicate.setSocket( socket, link );
+			if( view != null ) {
+				communicate.setView( view );
+			}
 			
 			// Start the game
 			communicate.game();
@@ -141,8 +98,7 @@ public class TCP_PlayerClient {
 				// Close the socket and streams
 				// once the game is over
 				socket.close();
-				oos.close();
-				ois.close();
+				link.stream.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -1,8 +1,5 @@
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
-import java.net.SocketTimeoutException;
 import java.util.Arrays;
 
 /**
@@ -21,19 +18,27 @@ public class TCP_Server_Helper extends Thread {
 	// connected to the player
 	Socket client;
 	
-	// A reference to the main server
-	TCP_Server server;
+	// The game this player is in
+	TCP_Game game;
 	
-	// Streams for reading and writing
-	// objects
-	ObjectInputStream ois;
-	ObjectOutputStream oos;
+	// Sends and receives the Packets
+	// of this connection
+	PacketLink link;
 	
 	// If there is a problem on the main
 	// server side, before the game starts,
 	// this shall go to false
 	boolean play = true;
 	
+	// True if the connection to the player failed
+	// before the game was over
+	boolean failed = false;
+	
+	// What this player has seen of their own
+	// ocean and of their opponent's
+	OceanView fleetView;
+	OceanView attacksView;
+	
 	/**
 	 * The constructor. It initializes this helper thread
 	 * with all of the information needed to handle the 
@@ -42,75 +47,28 @@ public class TCP_Server_Helper extends Thread {
 	 *                   helper thread is connected to
 	 * @param   client   the socket through which this helper
 	 *                   thread is connected to the player
-	 * @param   server   a reference to the main server
-	 * @param   ois      used for reading objects from
-	 *                   a byte stream
-	 * @param   oos      used for writing objects to
-	 *                   a byte stream
+	 * @param   game     the game this player is in
+	 * @param   link     used for sending and receiving
+	 *                   Packets
 	 */
-	public TCP_Server_Helper( int player, Socket client, TCP_Server server, 
-			ObjectInputStream ois, ObjectOutputStream oos ){
+	public TCP_Server_Helper( int player, Socket client, TCP_Game game, 
+			PacketLink link ){
 		this.player = player;
 		this.client = client;
-		this.server = server;
-		this.ois = ois;
-		this.oos = oos;
+		this.game = game;
+		this.link = link;
+
+		// Players get 30 seconds to answer once
+		// the game is under way
+		link.setTimeout( 30000 );
 	}
 
 	public void sendData(Object data) throws IOException, ClassNotFoundException {
-		int packetId;
-		long packetTimestamp;
-		
-		if (data instanceof Boolean) {
-            Packet<Boolean> packet = new Packet<>((boolean) data);
-			packetId = packet.getPacketId();
-			packetTimestamp = packet.getTimestamp();
-			oos.writeObject( packet );
-        } else if (data instanceof Integer) {
-            Packet<Integer> packet = new Packet<>((Integer) data);
-			packetId = packet.getPacketId();
-			packetTimestamp = packet.getTimestamp();
-			oos.writeObject( packet );
-        } else if (data instanceof String) {
-            Packet<String> packet = new Packet<>((String) data); // Wrap the string in a string array
-			packetId = packet.getPacketId();
-			packetTimestamp = packet.getTimestamp();
-			oos.writeObject( packet );
-        } else if (data instanceof String[]) {
-            Packet<String> packet = new Packet<>((String[]) data);
-			packetId = packet.getPacketId();
-			packetTimestamp = packet.getTimestamp();
-			oos.writeObject( packet );
-        } else {
-            Packet<Object> packet = new Packet<>((Object[]) data);
-			packetId = packet.getPacketId();
-			packetTimestamp = packet.getTimestamp();
-			oos.writeObject( packet );
-        }
-
-		System.out.println("Sent Packet ID: " + packetId);
-		try {
-            client.setSoTimeout(30000);
-            Packet<Void> acknowledgment = (Packet<Void>) ois.readObject();
-            System.out.println("Received ACK for Packet ID: " + acknowledgment.getPacketId());
-			long delay = System.currentTimeMillis() - packetTimestamp;
-			System.out.println("Total Round Trip Time: " + delay + " ms");
-        } catch (SocketTimeoutException e) {
-            System.out.println("Acknowledgment timeout for Packet ID: " + packetId);
-        }
+		link.sendData(data);
 	}
 
 	public <T> Packet<T> receiveData() throws IOException, ClassNotFoundException {
-		client.setSoTimeout(30000);
-		Packet<T> receivedPacket = (Packet<T>) ois.readObject();
-		long delay = System.currentTimeMillis() - receivedPacket.getTimestamp();
-
-		System.out.println("Received Packet ID: " + receivedPacket.getPacketId());
-		System.out.println("Packet delay: " + delay + " ms");
-
-		Packet<Void> acknowledgment = new Packet<>(receivedPacket.getPacketId(), true);
-		oos.writeObject(acknowledgment);
-		return receivedPacket;
+		return link.receiveData();
 	}
 	
 	/** 
@@ -118,44 +76,42 @@ public class TCP_Server_Helper extends Thread {
 	 * of ships for a game of
 	 * battle ship according to user
 	 * input. However, ships can not
-	 * touch or overlap.
+	 * touch or overlap. A player who goes
+	 * away, or a game cancelled meanwhile,
+	 * ends set up for this player with the
+	 * exception, so they are never counted
+	 * as ready.
 	 */
-	private void fleetSetUp( int player ) {
-		
-		try{
+	private void fleetSetUp( int player )
+			throws IOException, ClassNotFoundException, InterruptedException {
 			
-			// Index in the ships array where we
-			// will place the new ship
-			int index = 0;
+		// Index in the ships array where we
+		// will place the new ship
+		int index = 0;
 			
-			// Continue until the user has filled the 
-			// array of ships
-			while( index != 4 ) {
+		// Continue until the user has filled the 
+		// array of ships
+		while( index != 4 ) {
 				
-				// Tell the player which ship number
-				// it is working on
-				sendData( new Integer(index) );
+			// Tell the player which ship number
+			// it is working on
+			sendData( new Integer(index) );
 				
-				// Get the desired starting point and direction
-				Packet<Object> packet = receiveData();
-				Object[] inputs = packet.getObjectsArray();
+			// Get the desired starting point and direction
+			Packet<Object> packet = receiveData();
+			Object[] inputs = packet.getObjectsArray();
 				
 				
-				// If the ship can be built, increment index
-				if( server.fleetSetUp( player, inputs ) ) {
+			// If the ship can be built, increment index
+			if( game.fleetSetUp( player, inputs ) ) {
 					
-					// If the ship was built, return true
-					sendData( new Boolean(true) );
-					index++;
-				}
-				else{
-					sendData( new Boolean(false) );
-				}
+				// If the ship was built, return true
+				sendData( new Boolean(true) );
+				index++;
+			}
+			else{
+				sendData( new Boolean(false) );
 			}
-		} catch ( IOException e) {
-			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
 		}
 	}
 	
@@ -177,82 +133,79 @@ public class TCP_Server_Helper extends Thread {
 				// Set up the fleet for this player
 				fleetSetUp(player);
 				
-				// Once the player's fleet is set up, 
-				// increment this value by one
-				server.markSetup(player);
-				
-				// Wait for the other player to set up
-				// their fleet
+				// Once the player's fleet is set up, wait
+				// for the other player to set up their fleet
 				int setupTimeout = 15000; // 15 seconds
-				int elapsedTime = 0;
-				while( !server.checkSetupComplete() && elapsedTime < setupTimeout) {
-					Thread.sleep(1000); // Sleep for 1000ms to avoid overloading CPU
-					elapsedTime += 1000;
-				}
-				if (elapsedTime >= setupTimeout) {
+				if( !game.awaitSetup( player, setupTimeout ) ) {
 					System.out.println("Timeout reached, setup incomplete.");
 				}
 				sendData( new Boolean(true) );
 			}
 
-			while( server.checkStatus() ) {
-				int setupTimeout = 10000; // 10 seconds
-				int elapsedTime = 0;
-
-				int turn = server.getTurn();
-				int sign = server.getSign();
-				// If it is this player's turn
-				if( turn == player ) {
-					elapsedTime = 0;
+			// Players speaking WireCodec keep their own copy
+			// of the oceans and are sent only what changed
+			fleetView = game.viewOcean( player, true );
+			attacksView = game.viewOcean( 1 - player, false );
+			boolean deltas = link.windowed;
 
-					// Tell the player that the game
-					// is still going	
-					sendData(new Boolean(true));
-					
-					// Send the current player's ocean with their ships
-					sendData( new String("Your Fleet") );
-					sendData( server.printOcean( turn, true ) );
-					
-					// Send the waiting player's ocean without their
-					// ships. This is so that the guessing player
-					// can see their hits and misses.
-					sendData( new String("Your Attacks") );
-					sendData( server.printOcean( turn + sign, false ) );
-					
-					// Get the current player's desired target
-					Packet<int[]> packet = receiveData();
-					int[] target = packet.getObjectData();
-											
-					// Pass the target to the model. If it returns 
-					// true, then it hit, otherwise it is a miss.
-					if( server.checkHit(turn+sign, target, turn)){
-						sendData( new String( "Hit!" ) );
-					}
-					else {
-						sendData( new String( "Miss!" ) );
-					}
+			// Wait for this player's turn, which starts the
+			// moment the other player's move is applied
+			while( game.awaitTurn( player ) ) {
+				int turn = game.getTurn();
+				int sign = game.getSign();
 
-					sendData( new String("Opponent Ocean") );
-					sendData( server.printOcean( turn + sign, false ) );
-					// Change the turn
-					server.changeTurn();
-				} else {
-					Thread.sleep(1000); // Sleep for 1000ms to avoid overloading CPU
-					elapsedTime += 1000;
+				// Tell the player that the game is still
+				// going and send the current player's ocean
+				// with their ships, and the waiting player's
+				// ocean without their ships. This is so that
+				// the guessing player can see their hits and
+				// misses.
+				sendData( game.render( model -> TurnState.prompt( "Your Fleet", fleetView,
+						"Your Attacks", attacksView, deltas ) ) );
+				
+				// Get the current player's desired target
+				Packet<int[]> packet = receiveData();
+				int[] target = packet.getObjectData();
+				
+				// A third value asks for the oceans to be
+				// sent whole because the player's copies
+				// went wrong
+				if( target.length > 2 && target[2] != 0 ) {
+					fleetView.resync();
+					attacksView.resync();
 				}
+										
+				// Pass the target to the model, which tells
+				// us what became of the shot
+				String result = game.checkHit(turn+sign, target, turn).message;
+
+				// Send the result along with the
+				// opponent's ocean after the shot
+				sendData( game.render( model ->
+						TurnState.result( result, "Opponent Ocean", attacksView, deltas ) ) );
+				// Change the turn
+				game.changeTurn();
 			}
 			
-			// Indicate to the player that the game is over
-			sendData( new Boolean( false ) );
-			
-			// Tell the player who won
-			sendData( server.victory() );
+			// Indicate to the player that the game is
+			// over and who won
+			sendData( TurnState.over( game.victory() ) );
 		} catch ( IOException e) {
+			failed = true;
 			e.printStackTrace();
 		} catch (ClassNotFoundException e) {
+			failed = true;
 			e.printStackTrace();
 		} catch (InterruptedException e) {
-			e.printStackTrace();
+			
+			// Cancelled by the game's scope, which
+			// looks for the interrupt to know
+			failed = true;
+			Thread.currentThread().interrupt();
+		} finally {
+			
+			// Let the game know this player is done
+			game.left( player, failed );
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,457 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * This class is the non-blocking server's end of
+ * the connection to one player. It turns the bytes
+ * that arrive into Packets, acknowledges them, and
+ * sends Packets the same way a PacketLink does.
+ * Players speaking WireCodec frames get a window of
+ * Packets in flight with cumulative acknowledgments;
+ * players speaking the original Java serialization
+ * get one Packet at a time, each acknowledged before
+ * the next is sent.
+ */
+public class TCP_Session {
+
+	// The connection to the player
+	SocketChannel channel;
+
+	// The loop that services this session and
+	// this session's registration with it
+	TCP_EventLoop loop;
+	SelectionKey key;
+
+	// A reference to the main server
+	TCP_NIO_Server server;
+
+	// Bytes received but not yet turned into Packets
+	ByteBuffer inbound = ByteBuffer.allocate( 4096 );
+
+	// True once we know which format the player
+	// speaks, and whether it is WireCodec frames
+	boolean sniffed = false;
+	boolean binary;
+
+	// Finds where each Packet ends in inbound
+	SerialFrameScanner scanner = new SerialFrameScanner();
+
+	// Reads Packets out of inbound once the
+	// scanner has found a whole one
+	ObjectInputStream ois;
+	Feed feed = new Feed();
+
+	// Turns outgoing Packets into bytes
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	ObjectOutputStream oos;
+
+	// Packets waiting for room to be sent, and
+	// bytes waiting for the socket
+	ArrayDeque<Packet<?>> outbox = new ArrayDeque<>();
+	ArrayDeque<ByteBuffer> writes = new ArrayDeque<>();
+
+	// The id and send time of the Packet we are
+	// waiting to have acknowledged, 0 if none,
+	// for players using Java serialization
+	int awaitingAck = 0;
+	long sentAt;
+
+	// For players using WireCodec frames, the number
+	// given to the last Packet we sent, the Packets
+	// not yet acknowledged, the number of the last
+	// Packet received and whether the player still
+	// needs to hear it
+	int sequence = 0;
+	ArrayDeque<Packet<?>> inFlight = new ArrayDeque<>();
+	int lastReceived = 0;
+	boolean ackOwed = false;
+
+	// The name of the player, null until they send it
+	String playerName;
+
+	// The game this player is in and their
+	// numeric id in it
+	TCP_Match match;
+	int player;
+
+	boolean closed = false;
+
+	/**
+	 * The constructor.
+	 * @param   channel   the connection to the player
+	 * @param   loop      the loop servicing this session
+	 * @param   server    a reference to the main server
+	 */
+	public TCP_Session( SocketChannel channel, TCP_EventLoop loop, TCP_NIO_Server server ) throws IOException {
+		this.channel = channel;
+		this.loop = loop;
+		this.server = server;
+
+		channel.configureBlocking( false );
+		channel.setOption( StandardSocketOptions.TCP_NODELAY, true );
+	}
+
+	/**
+	 * An InputStream over the part of inbound the
+	 * scanner has found to hold whole objects.
+	 */
+	private class Feed extends InputStream {
+
+		// The absolute index in inbound we may read up to
+		int end;
+
+		public int read() {
+			if( inbound.position() >= end ) {
+				return -1;
+			}
+			return inbound.get() & 0xFF;
+		}
+
+		public int read( byte[] b, int off, int len ) {
+			int available = end - inbound.position();
+			if( available <= 0 ) {
+				return -1;
+			}
+			len = Math.min( len, available );
+			inbound.get( b, off, len );
+			return len;
+		}
+	}
+
+	/**
+	 * Called by the loop when bytes have arrived.
+	 */
+	void onReadable() {
+
+		try {
+			if( channel.read( inbound ) < 0 ) {
+				close();
+				return;
+			}
+
+			// Grow the buffer if a Packet does not fit in
+			// it, but no further than the largest frame
+			if( !inbound.hasRemaining() ) {
+				if( inbound.capacity() > WireCodec.MAX_FRAME ) {
+					close();
+					return;
+				}
+				ByteBuffer bigger = ByteBuffer.allocate( inbound.capacity() * 2 );
+				inbound.flip();
+				bigger.put( inbound );
+				inbound = bigger;
+			}
+
+			decode();
+		} catch ( IOException | ClassNotFoundException | RuntimeException e ) {
+			close();
+		}
+	}
+
+	/**
+	 * Turn every whole Packet in inbound into an
+	 * object and handle it.
+	 */
+	private void decode() throws IOException, ClassNotFoundException {
+
+		inbound.flip();
+		try {
+
+			// Players using Java serialization start with its
+			// stream header and wait for ours before going on
+			if( !sniffed ) {
+				if( inbound.remaining() < 2 ) {
+					return;
+				}
+				sniffed = true;
+				binary = !( inbound.get( inbound.position() ) == (byte) 0xAC
+						&& inbound.get( inbound.position() + 1 ) == (byte) 0xED );
+				if( !binary ) {
+					oos = new ObjectOutputStream( bytes );
+					drain();
+				}
+			}
+
+			if( binary ) {
+				while( !closed && WireCodec.hasFrame( inbound ) ) {
+					received( WireCodec.decode( inbound ) );
+				}
+
+				// Anything we sent while handling the frames
+				// carried their acknowledgment, otherwise
+				// send one on its own
+				synchronized( this ) {
+					if( ackOwed && !closed ) {
+						write( new Packet<>( lastReceived, true ) );
+					}
+				}
+				return;
+			}
+
+			// The first four bytes are the player's stream header
+			if( ois == null ) {
+				if( inbound.remaining() < 4 ) {
+					return;
+				}
+				feed.end = inbound.position() + 4;
+				ois = new ObjectInputStream( feed );
+			}
+
+			int end;
+			while( !closed && ( end = scanner.scan( inbound ) ) >= 0 ) {
+				feed.end = end;
+				received( (Packet<?>) ois.readObject() );
+			}
+		} finally {
+			inbound.compact();
+		}
+	}
+
+	/**
+	 * Handle one Packet from the player.
+	 * @param   packet   the Packet that arrived
+	 */
+	private void received( Packet<?> packet ) throws IOException {
+
+		if( binary ) {
+
+			// Every frame acknowledges what the player has
+			// received so far, and makes room in the window
+			synchronized( this ) {
+				acknowledged( packet.getAckId() );
+				if( packet.isAck() ) {
+					return;
+				}
+				lastReceived = packet.getPacketId();
+				ackOwed = true;
+			}
+		}
+
+		// An acknowledgment lets the next Packet go
+		else if( packet.isAck() ) {
+			synchronized( this ) {
+				if( packet.getPacketId() == awaitingAck ) {
+					server.recordRoundTrip( System.currentTimeMillis() - sentAt );
+					awaitingAck = 0;
+					sendNext();
+				}
+			}
+			return;
+		}
+
+		// Acknowledge everything else right away
+		else {
+			synchronized( this ) {
+				write( new Packet<>( packet.getPacketId(), true ) );
+			}
+		}
+
+		// The first thing a player sends is their name
+		if( playerName == null ) {
+			playerName = (String) packet.getObjectData();
+			send( new TCP_Communicator( playerName ) );
+			server.join( this );
+		}
+		else if( match != null ) {
+			match.received( player, packet );
+		}
+	}
+
+	/**
+	 * Forget every Packet the player has acknowledged
+	 * and send what the window now has room for.
+	 * @param   ackId   the number of the last Packet
+	 *                  the player has received
+	 */
+	private void acknowledged( int ackId ) {
+
+		Packet<?> newest = null;
+		while( !inFlight.isEmpty() && inFlight.peek().getPacketId() <= ackId ) {
+			newest = inFlight.poll();
+		}
+
+		if( newest != null ) {
+			server.recordRoundTrip( ( WireCodec.now() - newest.getTimestampNanos() ) / 1_000_000L );
+			sendNext();
+		}
+	}
+
+	/**
+	 * Queue an object to be sent to the player.
+	 * It is sent once there is room in the window,
+	 * or for players using Java serialization, once
+	 * everything before it has been acknowledged.
+	 * @param   data   the object to be sent
+	 */
+	public synchronized void send( Object data ) {
+
+		if( closed ) {
+			return;
+		}
+
+		// Players using Java serialization get a
+		// TurnState as the messages it replaced
+		if( !binary && data instanceof TurnState ) {
+			for( Object message : ( (TurnState) data ).messages() ) {
+				send( message );
+			}
+			return;
+		}
+
+		if( binary ) {
+			if( data instanceof Object[] ) {
+				outbox.add( new Packet<>( ++sequence, WireCodec.now(), null, (Object[]) data, false ) );
+			} else {
+				outbox.add( new Packet<>( ++sequence, WireCodec.now(), data, null, false ) );
+			}
+			sendNext();
+			return;
+		}
+
+		if( data instanceof Boolean ) {
+			outbox.add( new Packet<>( (Boolean) data ) );
+		} else if( data instanceof Integer ) {
+			outbox.add( new Packet<>( (Integer) data ) );
+		} else if( data instanceof String ) {
+			outbox.add( new Packet<>( (String) data ) );
+		} else if( data instanceof TCP_Communicator ) {
+			outbox.add( new Packet<>( (TCP_Communicator) data ) );
+		} else {
+			outbox.add( new Packet<>( (Object[]) data ) );
+		}
+
+		if( awaitingAck == 0 ) {
+			sendNext();
+		}
+	}
+
+	/**
+	 * Send the next queued Packet, if there is one,
+	 * or as many as fit in the window.
+	 */
+	private void sendNext() {
+
+		if( binary ) {
+			while( !outbox.isEmpty() && inFlight.size() < PacketLink.WINDOW ) {
+				Packet<?> packet = outbox.poll();
+				packet.setAckId( lastReceived );
+				ackOwed = false;
+				inFlight.add( packet );
+				write( packet );
+			}
+			return;
+		}
+
+		Packet<?> packet = outbox.poll();
+		if( packet != null ) {
+			awaitingAck = packet.getPacketId();
+			sentAt = packet.getTimestamp();
+			write( packet );
+		}
+	}
+
+	/**
+	 * Encode a Packet and start writing it. The object
+	 * stream is reset after each Packet so it does
+	 * not hold on to everything it has ever sent.
+	 * @param   packet   the Packet to be written
+	 */
+	private void write( Packet<?> packet ) {
+		try {
+			if( binary ) {
+				ByteBuffer frame = ByteBuffer.allocate( WireCodec.maxSize( packet ) );
+				WireCodec.encode( packet, frame );
+				frame.flip();
+				writes.add( frame );
+				flush();
+				return;
+			}
+
+			oos.writeObject( packet );
+			oos.reset();
+			drain();
+		} catch ( IOException e ) {
+			close();
+		}
+	}
+
+	/**
+	 * Move the serialized bytes to the socket,
+	 * asking the loop to tell us when it can take
+	 * more if it is full.
+	 */
+	private void drain() throws IOException {
+		oos.flush();
+		writes.add( ByteBuffer.wrap( bytes.toByteArray() ) );
+		bytes.reset();
+		flush();
+	}
+
+	private synchronized void flush() throws IOException {
+
+		while( !writes.isEmpty() ) {
+			ByteBuffer buffer = writes.peek();
+			channel.write( buffer );
+			if( buffer.hasRemaining() ) {
+				if( key != null ) {
+					key.interestOps( SelectionKey.OP_READ | SelectionKey.OP_WRITE );
+					loop.selector.wakeup();
+				}
+				return;
+			}
+			writes.poll();
+		}
+
+		if( key != null && key.isValid() && ( key.interestOps() & SelectionKey.OP_WRITE ) != 0 ) {
+			key.interestOps( SelectionKey.OP_READ );
+		}
+	}
+
+	/**
+	 * Called by the loop when the socket can
+	 * take more bytes.
+	 */
+	void onWritable() {
+		try {
+			flush();
+		} catch ( IOException e ) {
+			close();
+		}
+	}
+
+	/**
+	 * Close the connection and let the
+	 * game and server know.
+	 */
+	public void close() {
+
+		synchronized( this ) {
+			if( closed ) {
+				return;
+			}
+			closed = true;
+			outbox.clear();
+			inFlight.clear();
+			writes.clear();
+		}
+
+		try {
+			channel.close();
+		} catch ( IOException e ) {
+			e.printStackTrace();
+		}
+
+		server.left( this );
+		if( match != null ) {
+			match.abandon( this );
+		}
+	}
+}
@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class plays scripted games of battleship
+ * through an ImpairmentProxy and reports how long
+ * turns took and how many were played each second.
+ * The server runs in the same process, on TCP
+ * (TCP_NIO_Server) or on UDP (UDP_Server), and the
+ * players are the ordinary TCP_PlayerClient and
+ * UDP_PlayerClient given a View that plays by
+ * itself. Every player places their ships the same
+ * way and fires at every cell in turn, so runs can
+ * be compared with each other.
+ */
+public class TransportBenchmark {
+
+	// Where the results go. The players and their
+	// links print as they go, which is hidden.
+	static PrintStream out = System.out;
+
+	/**
+	 * A View that plays by itself. It remembers when
+	 * each shot was fired and how long it took until
+	 * its result was shown.
+	 */
+	@SuppressWarnings("serial")
+	static class ScriptedView extends View {
+
+		// The next cell to fire at, counting
+		// along the rows
+		int next = 0;
+
+		// How many times a ship could not be placed
+		int misplaced = 0;
+
+		// When the last shot was fired, 0 once
+		// its result has been shown
+		long fired = 0;
+
+		// How long each turn took, in microseconds
+		long[] turns = new long[100];
+		int count = 0;
+
+		/**
+		 * Place each ship along its own row,
+		 * moving down if it does not fit.
+		 */
+		public Object[] getPositions( String playerName, int index ) {
+			return new Object[] { ( 2 * index + misplaced++ ) % 10, 0, "east" };
+		}
+
+		/**
+		 * Fire at the next cell.
+		 */
+		public int[] getInput( String playerName ) {
+			int[] target = { next / 10 % 10, next % 10 };
+			next++;
+			fired = System.nanoTime();
+			return target;
+		}
+
+		/**
+		 * The first message after a shot is its result.
+		 */
+		public void message( String message ) {
+			if( fired != 0 ) {
+				if( count == turns.length ) {
+					turns = Arrays.copyOf( turns, count * 2 );
+				}
+				turns[count++] = ( System.nanoTime() - fired ) / 1000;
+				fired = 0;
+			}
+		}
+	}
+
+	/**
+	 * Play games through a proxy and report.
+	 * @param   transport   "tcp" or "udp"
+	 * @param   profile     how bad the link is
+	 * @param   games       the number of games to play
+	 * @param   parallel    the number of games played
+	 *                      at the same time
+	 */
+	public static void run( String transport, ImpairmentProxy.Profile profile, int games, int parallel )
+			throws IOException, InterruptedException {
+
+		boolean udp = transport.equalsIgnoreCase( "udp" );
+
+		// Start the server on any free port
+		UDP_Server udpServer = null;
+		TCP_NIO_Server tcpServer = null;
+		int serverPort;
+		Thread serving;
+		if( udp ) {
+			UDP_Server server = new UDP_Server( 0, 1 );
+			serverPort = server.server.channel.socket().getLocalPort();
+			serving = new Thread( server::serve, "udp-server" );
+			udpServer = server;
+		}
+		else {
+			TCP_NIO_Server server = new TCP_NIO_Server( 0, 1 );
+			serverPort = ( (InetSocketAddress) server.server.getLocalAddress() ).getPort();
+			serving = new Thread( () -> {
+				try {
+					server.acceptPlayers();
+				} catch ( IOException e ) {
+					e.printStackTrace();
+				}
+			}, "tcp-server" );
+			tcpServer = server;
+		}
+		serving.setDaemon( true );
+		serving.start();
+
+		ImpairmentProxy proxy = new ImpairmentProxy( profile,
+				new InetSocketAddress( InetAddress.getLoopbackAddress(), serverPort ) );
+		int port = udp ? proxy.startUdp( 0 ) : proxy.startTcp( 0 );
+
+		// Play the games a few at a time, two
+		// players to a game
+		List<ScriptedView> views = new ArrayList<>();
+		long start = System.nanoTime();
+		for( int game = 0; game < games; game += parallel ) {
+
+			List<Thread> players = new ArrayList<>();
+			for( int player = 0; player < 2 * Math.min( parallel, games - game ); player++ ) {
+				ScriptedView view = new ScriptedView();
+				views.add( view );
+				String name = "player" + ( 2 * game + player );
+				Thread playing = new Thread( () -> {
+					if( udp ) {
+						UDP_PlayerClient client = new UDP_PlayerClient();
+						client.view = view;
+						client.connect( name, InetAddress.getLoopbackAddress(), port );
+					}
+					else {
+						TCP_PlayerClient client = new TCP_PlayerClient();
+						client.view = view;
+						client.connect( name, InetAddress.getLoopbackAddress(), port );
+					}
+				}, name );
+				playing.start();
+				players.add( playing );
+			}
+			for( Thread playing : players ) {
+				playing.join();
+			}
+		}
+		double seconds = ( System.nanoTime() - start ) / 1e9;
+
+		// Put every turn's time together
+		int total = 0;
+		for( ScriptedView view : views ) {
+			total += view.count;
+		}
+		long[] micros = new long[total];
+		int filled = 0;
+		for( ScriptedView view : views ) {
+			System.arraycopy( view.turns, 0, micros, filled, view.count );
+			filled += view.count;
+		}
+		Arrays.sort( micros );
+
+		if( total == 0 ) {
+			out.println( transport + " " + profile.name + ": no turns were played" );
+		}
+		else {
+			out.printf( "%s %-10s games=%d turns=%d p50=%.1f p90=%.1f p99=%.1f max=%.1f ms" +
+					" turns/s=%.0f %s%n", transport, profile.name, games, total,
+					micros[total / 2] / 1000.0, micros[total * 9 / 10] / 1000.0,
+					micros[total * 99 / 100] / 1000.0, micros[total - 1] / 1000.0,
+					total / seconds, proxy );
+		}
+		// Let go of everything the run started, so
+		// the next one has the process to itself
+		proxy.close();
+		if( udpServer != null ) {
+			udpServer.close();
+		}
+		else {
+			tcpServer.close();
+		}
+		serving.join( 1000 );
+	}
+
+	/**
+	 * The main method. It plays games over each
+	 * transport and profile asked for.
+	 * @param   args   command line arguments: the
+	 *                 transports (tcp, udp or both),
+	 *                 the profiles separated by
+	 *                 semicolons, the number of games
+	 *                 and the number played at once
+	 */
+	public static void main( String [] args ) throws IOException, InterruptedException {
+
+		String transports = args.length > 0 ? args[0] : "both";
+		String profiles = args.length > 1 ? args[1] : "none;lan;wifi;mobile;lossy";
+		int games = args.length > 2 ? Integer.parseInt( args[2] ) : 4;
+		int parallel = args.length > 3 ? Integer.parseInt( args[3] ) : 1;
+
+		System.setOut( new PrintStream( OutputStream.nullOutputStream() ) );
+		for( String spec : profiles.split( ";" ) ) {
+			ImpairmentProxy.Profile profile = ImpairmentProxy.Profile.of( spec );
+			for( String transport : new String[] { "tcp", "udp" } ) {
+				if( transports.equals( "both" ) || transports.equalsIgnoreCase( transport ) ) {
+					run( transport, profile, games, parallel );
+				}
+			}
+		}
+		System.exit( 0 );
+	}
+}
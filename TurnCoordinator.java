@@ -0,0 +1,142 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The purpose of this class is to hand the turn
+ * from one player's helper to the other in a game
+ * of battleship. A helper waiting for its turn is
+ * parked on its own condition and woken the moment
+ * the other player's move has been applied, rather
+ * than checking every so often. Waiting for both
+ * fleets to be set up works the same way.
+ */
+public class TurnCoordinator {
+
+	// Guards everything below
+	ReentrantLock lock = new ReentrantLock();
+
+	// Signalled when it becomes each player's turn
+	// or the game ends
+	Condition[] turnChanged = { lock.newCondition(), lock.newCondition() };
+
+	// Signalled when a player finishes setting up
+	Condition setUp = lock.newCondition();
+
+	// Whose turn it currently is
+	int turn = 0;
+
+	// Determines whose turn it is
+	int sign = 1;
+
+	// False once the game is over
+	boolean playing = true;
+
+	// The number of players whose fleets are set up
+	int ready = 0;
+
+	/**
+	 * Mark a player's fleet as set up and wait for
+	 * the other player to finish theirs.
+	 * @param   player    the numeric id of the player
+	 * @param   timeout   the most time to wait, in
+	 *                    milliseconds
+	 * @return  boolean   true if both fleets are set
+	 *                    up, false if the time ran out
+	 */
+	public boolean awaitSetup( int player, long timeout ) throws InterruptedException {
+
+		lock.lock();
+		try {
+			ready++;
+			setUp.signalAll();
+
+			long nanos = TimeUnit.MILLISECONDS.toNanos( timeout );
+			while( ready < 2 && nanos > 0 ) {
+				nanos = setUp.awaitNanos( nanos );
+			}
+			return ready >= 2;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait until it is a player's turn or the game
+	 * is over.
+	 * @param   player    the numeric id of the player
+	 * @return  boolean   true if it is now their turn,
+	 *                    false if the game is over
+	 */
+	public boolean awaitTurn( int player ) throws InterruptedException {
+
+		lock.lock();
+		try {
+			while( playing && turn != player ) {
+				turnChanged[player].await();
+			}
+			return playing;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Hand the turn to the other player, waking them.
+	 * @param   stillPlaying   false if the move just
+	 *                         made ended the game
+	 */
+	public void changeTurn( boolean stillPlaying ) {
+
+		lock.lock();
+		try {
+			turn += sign;
+			sign *= -1;
+			playing = stillPlaying;
+
+			// Once the game is over both players
+			// need to hear about it
+			if( playing ) {
+				turnChanged[turn].signal();
+			} else {
+				turnChanged[0].signalAll();
+				turnChanged[1].signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * End the game early, waking both players.
+	 */
+	public void stop() {
+
+		lock.lock();
+		try {
+			playing = false;
+			turnChanged[0].signalAll();
+			turnChanged[1].signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getTurn() {
+		lock.lock();
+		try {
+			return turn;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getSign() {
+		lock.lock();
+		try {
+			return sign;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
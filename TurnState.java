@@ -0,0 +1,212 @@
+import java.io.Serializable;
+
+/**
+ * This class holds everything a player is told
+ * about one step of a game of battleship, so that
+ * it can be sent as a single message. A step is
+ * either the start of the player's turn, the result
+ * of the shot they just fired, or the end of the
+ * game. Fields that do not apply to a step are null.
+ *
+ * Oceans are sent either as text, or as BoardDeltas
+ * for players who keep their own copy of each ocean.
+ * Such a player calls update() to bring their copies
+ * up to date, which also fills in the text.
+ */
+public class TurnState implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// True while the game is still being played
+	boolean playing;
+
+	// True if the player should now pick a target
+	boolean asksForTarget;
+
+	// "Hit!" or "Miss!" for the shot just fired
+	String result;
+
+	// The player's own ocean, with their ships
+	String fleetLabel;
+	String fleet;
+
+	// The opponent's ocean, without their ships
+	String attacksLabel;
+	String attacks;
+
+	// Updates to the player's copies of the two
+	// oceans, in place of the text
+	BoardDelta fleetDelta;
+	BoardDelta attacksDelta;
+
+	// Who won, once the game is over
+	String winner;
+
+	/**
+	 * The constructor. Use prompt(), result() or
+	 * over() to build the usual steps.
+	 * @param   playing         true while the game goes on
+	 * @param   asksForTarget   true if the player should
+	 *                          now pick a target
+	 * @param   result          the result of the last shot
+	 * @param   fleetLabel      the title of the player's ocean
+	 * @param   fleet           the player's ocean
+	 * @param   attacksLabel    the title of the opponent's ocean
+	 * @param   attacks         the opponent's ocean
+	 * @param   winner          the message saying who won
+	 */
+	public TurnState( boolean playing, boolean asksForTarget, String result, String fleetLabel,
+			String fleet, String attacksLabel, String attacks, String winner ) {
+		this.playing = playing;
+		this.asksForTarget = asksForTarget;
+		this.result = result;
+		this.fleetLabel = fleetLabel;
+		this.fleet = fleet;
+		this.attacksLabel = attacksLabel;
+		this.attacks = attacks;
+		this.winner = winner;
+	}
+
+	/**
+	 * The start of a player's turn. It shows them
+	 * both oceans and asks for a target.
+	 * @param   fleetLabel     the title of their ocean
+	 * @param   fleet          their ocean, with their ships
+	 * @param   attacksLabel   the title of the opponent's ocean
+	 * @param   attacks        the opponent's ocean, without
+	 *                         their ships
+	 * @return  TurnState      the step
+	 */
+	public static TurnState prompt( String fleetLabel, String fleet, String attacksLabel, String attacks ) {
+		return new TurnState( true, true, null, fleetLabel, fleet, attacksLabel, attacks, null );
+	}
+
+	/**
+	 * The start of a player's turn, with both oceans
+	 * sent as text or as updates.
+	 * @param   fleetLabel     the title of their ocean
+	 * @param   fleet          their view of their ocean
+	 * @param   attacksLabel   the title of the opponent's ocean
+	 * @param   attacks        their view of the opponent's ocean
+	 * @param   deltas         true to send updates rather
+	 *                         than text
+	 * @return  TurnState      the step
+	 */
+	public static TurnState prompt( String fleetLabel, OceanView fleet, String attacksLabel,
+			OceanView attacks, boolean deltas ) {
+
+		if( !deltas ) {
+			return prompt( fleetLabel, fleet.print(), attacksLabel, attacks.print() );
+		}
+		TurnState state = prompt( fleetLabel, null, attacksLabel, null );
+		state.fleetDelta = fleet.next();
+		state.attacksDelta = attacks.next();
+		return state;
+	}
+
+	/**
+	 * The result of the shot a player just fired.
+	 * @param   result         "Hit!" or "Miss!"
+	 * @param   attacksLabel   the title of the opponent's ocean
+	 * @param   attacks        their view of the opponent's ocean
+	 * @param   deltas         true to send an update rather
+	 *                         than text
+	 * @return  TurnState      the step
+	 */
+	public static TurnState result( String result, String attacksLabel, OceanView attacks, boolean deltas ) {
+
+		if( !deltas ) {
+			return result( result, attacksLabel, attacks.print() );
+		}
+		TurnState state = result( result, attacksLabel, null );
+		state.attacksDelta = attacks.next();
+		return state;
+	}
+
+	/**
+	 * The result of the shot a player just fired.
+	 * @param   result         "Hit!" or "Miss!"
+	 * @param   attacksLabel   the title of the opponent's
+	 *                         ocean, or null to leave it out
+	 * @param   attacks        the opponent's ocean, or null
+	 * @return  TurnState      the step
+	 */
+	public static TurnState result( String result, String attacksLabel, String attacks ) {
+		return new TurnState( true, false, result, null, null, attacksLabel, attacks, null );
+	}
+
+	/**
+	 * The end of the game.
+	 * @param   winner      the message saying who won
+	 * @return  TurnState   the step
+	 */
+	public static TurnState over( String winner ) {
+		return new TurnState( false, false, null, null, null, null, null, winner );
+	}
+
+	/**
+	 * Apply the updates this step carries to the
+	 * player's copies of the oceans, and fill in
+	 * the text of the oceans from them.
+	 * @param   copies    the player's copy of their own
+	 *                    ocean and of the opponent's,
+	 *                    null until the first snapshot
+	 * @return  boolean   false if a copy no longer matches
+	 *                    the server's and must be sent again
+	 */
+	public boolean update( Ocean[] copies ) {
+
+		boolean matches = true;
+		if( fleetDelta != null ) {
+			copies[0] = fleetDelta.applyTo( copies[0] );
+			if( copies[0] == null ) {
+				matches = false;
+			} else {
+				fleet = copies[0].printOcean( true );
+			}
+		}
+		if( attacksDelta != null ) {
+			copies[1] = attacksDelta.applyTo( copies[1] );
+			if( copies[1] == null ) {
+				matches = false;
+			} else {
+				attacks = copies[1].printOcean( true );
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Show this step to the player.
+	 * @param   view   used to talk to the player
+	 */
+	public void show( View view ) {
+
+		String[] lines = { result, fleetLabel, fleet, attacksLabel, attacks, winner };
+		for( String line : lines ) {
+			if( line != null ) {
+				view.message( line );
+			}
+		}
+	}
+
+	/**
+	 * The separate messages this step was sent as
+	 * before TurnState existed, for players that
+	 * still expect them one at a time.
+	 * @return   Object[]   the messages, in order
+	 */
+	public Object[] messages() {
+
+		if( !playing ) {
+			return new Object[] { Boolean.FALSE, winner };
+		}
+		if( asksForTarget ) {
+			return new Object[] { Boolean.TRUE, fleetLabel, fleet, attacksLabel, attacks };
+		}
+		if( attacks == null ) {
+			return new Object[] { result };
+		}
+		return new Object[] { result, attacksLabel, attacks };
+	}
+}
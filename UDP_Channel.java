@@ -0,0 +1,1133 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class sends and receives WireCodec frames as
+ * UDP datagrams through a DatagramChannel. Frames are
+ * encoded straight into, and decoded straight out of,
+ * direct buffers from a BufferPool.
+ *
+ * Delivery is made reliable. Frames to each peer are
+ * numbered in order and kept until the peer
+ * acknowledges them. Anything not acknowledged in
+ * time is sent again, the timeout following the
+ * measured round trip time as in TCP (Jacobson and
+ * Karels, RFC 6298). Frames received are acknowledged
+ * straight away, duplicates are dropped, and frames
+ * that arrive early are held back, so receive()
+ * returns each peer's objects exactly once and in
+ * the order they were sent.
+ *
+ * No datagram is made larger than fits the path MTU,
+ * so IP never has to fragment one. A frame that would
+ * be larger is split into fragments, each numbered,
+ * acknowledged and sent again on its own, and put back
+ * together by the receiver. How much a receiver holds
+ * back, and for how long, is bounded. The system
+ * property udp.mtu sets the path MTU.
+ *
+ * Every datagram starts with a session token, picked
+ * at random by whoever opened the session. A peer is
+ * known by its address together with that token, so
+ * one channel can carry many sessions to the same
+ * address, each numbered and ordered on its own, and
+ * a player who comes back from the same port starts
+ * afresh rather than being taken for the old session.
+ *
+ * Frames for the same peer are not given a datagram
+ * each. They are gathered into a batch that goes out
+ * as one datagram when it is full, when the caller
+ * calls flush(), or at the latest a couple of
+ * milliseconds after its first frame. Acknowledgments
+ * wait a moment too, so that a reply can carry them
+ * instead of a datagram of their own.
+ *
+ * For links that lose a lot, forward error correction
+ * can be turned on by setting the system property
+ * udp.fec to a group size. After every group of that
+ * many datagrams to a peer, or a couple of milliseconds
+ * after the first of a group, a parity datagram is
+ * sent holding the XOR of them all. A receiver missing
+ * one datagram of a group rebuilds it from the parity
+ * and the rest, without waiting for it to be sent
+ * again. Either end can turn it on, as every datagram
+ * says whether it is protected.
+ *
+ * A thread of its own reads the channel and sends
+ * frames again, so acknowledgments go out even while
+ * the caller is busy with something else. Setting the
+ * system property udp.loss to a fraction drops that
+ * share of datagrams on purpose, to test recovery.
+ */
+public class UDP_Channel {
+
+	// The retransmission timeout before any round trip
+	// has been measured, and the bounds it is kept in,
+	// in milliseconds
+	public static final long INITIAL_RTO = 250;
+	public static final long MIN_RTO = 20;
+	public static final long MAX_RTO = 8000;
+
+	// How many times a frame is sent again before
+	// the peer is given up on
+	public static final int MAX_RETRIES = 15;
+
+	// How long close() waits for frames still
+	// unacknowledged, in milliseconds
+	public static final long FLUSH_TIMEOUT = 5000;
+
+	// How long a batch may wait for more frames before
+	// it is sent, unless the system property udp.coalesce
+	// says otherwise, and how long an acknowledgment may
+	// wait for a reply to ride on, in milliseconds. Both
+	// are kept well below MIN_RTO.
+	public static final long COALESCE_WINDOW = 2;
+	public static final long ACK_DELAY = 5;
+
+	// The receive buffer asked of the socket
+	public static final int RECEIVE_BUFFER = 4 << 20;
+
+	// Every datagram starts with the session token, a
+	// byte saying what kind of datagram it is, and for a
+	// protected one its parity group and place in it
+	public static final int DATAGRAM_HEADER_SIZE = 4 + 1 + 4 + 1;
+
+	// Kinds of datagram
+	public static final byte PLAIN = 0;
+	public static final byte PROTECTED = 1;
+	public static final byte PARITY = 2;
+
+	// The largest parity group, and how many recent
+	// groups a receiver keeps datagrams of
+	public static final int MAX_GROUP = 64;
+	public static final int GROUPS_KEPT = 8;
+
+	// The path MTU assumed unless told otherwise, and
+	// the room taken by the IP and UDP headers, allowing
+	// for IPv6
+	public static final int DEFAULT_MTU = 1500;
+	public static final int IP_OVERHEAD = 40 + 8;
+
+	// The most fragments a frame may be split into, and
+	// how long the receiver waits for the rest of a frame
+	// once its first fragment arrives, in milliseconds
+	public static final int MAX_FRAGMENTS = 1024;
+	public static final long REASSEMBLY_TIMEOUT = 30000;
+
+	// How far ahead of the next frame due a frame may
+	// arrive and still be held until its turn
+	public static final int MAX_EARLY = 256;
+
+	/**
+	 * One end of a session: the address of the peer
+	 * and the token the session was opened with.
+	 */
+	public static class Session {
+
+		SocketAddress address;
+		int token;
+
+		public Session( SocketAddress address, int token ) {
+			this.address = address;
+			this.token = token;
+		}
+
+		@Override
+		public boolean equals( Object other ) {
+			return other instanceof Session && token == ( (Session) other ).token
+					&& address.equals( ( (Session) other ).address );
+		}
+
+		@Override
+		public int hashCode() {
+			return address.hashCode() * 31 + token;
+		}
+
+		@Override
+		public String toString() {
+			return address + "#" + Integer.toHexString( token );
+		}
+	}
+
+	/**
+	 * A frame sent but not yet acknowledged.
+	 */
+	static class Outgoing {
+
+		int sequence;
+		ByteBuffer frame;
+
+		// When it was first sent, when it is next due to be
+		// sent again, both from System.nanoTime(), and how
+		// many times it has been sent again
+		long sentAt;
+		long deadline;
+		int retries = 0;
+	}
+
+	/**
+	 * An object received, waiting for the caller.
+	 */
+	static class Delivery {
+
+		// The object, or null if the peer stopped answering
+		Object value;
+		Session from;
+
+		Delivery( Object value, Session from ) {
+			this.value = value;
+			this.from = from;
+		}
+	}
+
+	/**
+	 * What we know about one peer.
+	 */
+	static class Peer {
+
+		Session session;
+
+		// The number of the last frame sent to the peer,
+		// and those not yet acknowledged, oldest first
+		int sent = 0;
+		ArrayDeque<Outgoing> unacked = new ArrayDeque<>();
+
+		// The number of the last frame from the peer handed
+		// to the caller, and frames that arrived early
+		int delivered = 0;
+		HashMap<Integer, Object> early = new HashMap<>();
+
+		// The frame being put back together from its
+		// fragments, null if none, and when its first
+		// fragment arrived
+		ByteBuffer partial;
+		int fragments;
+		long partialStarted;
+
+		// Frames waiting to go out together, after the
+		// token, null if none, and when the first was added
+		ByteBuffer batch;
+		long batchSince;
+
+		// True if frames have arrived that the peer has
+		// not been told about, when it must be told, and
+		// how many of them were fragments
+		boolean ackOwed = false;
+		long ackDue;
+		int owedFragments = 0;
+
+		// With error correction on, the XOR of the datagrams
+		// sent in the current group, each preceded by its
+		// length, and how much of it is in use. Then the
+		// number of the group, how many datagrams it has
+		// so far and when the first was sent.
+		byte[] parity;
+		int parityLength = 0;
+		int group = 0;
+		int grouped = 0;
+		long groupSince;
+
+		// The payloads of protected datagrams received in
+		// the last few groups, to rebuild one that is lost
+		LinkedHashMap<Integer, byte[][]> received;
+
+		// The smoothed round trip time and its variation,
+		// -1 until measured, and the retransmission
+		// timeout, all in nanoseconds
+		long srtt = -1;
+		long rttvar;
+		long rto = TimeUnit.MILLISECONDS.toNanos( INITIAL_RTO );
+
+		// True once the caller is done with the peer, so it
+		// can be dropped when nothing is left to send it
+		boolean forgotten = false;
+
+		Peer( Session session ) {
+			this.session = session;
+		}
+	}
+
+	// The channel datagrams travel through
+	DatagramChannel channel;
+
+	// Tells the reading thread when a datagram has arrived
+	Selector selector;
+
+	// The largest datagram sent, the most frames it can
+	// carry, and buffers of that size to encode frames
+	// into. Two bytes are kept back so that a parity
+	// datagram, which also covers the lengths of the
+	// datagrams in its group, still fits.
+	int maxDatagram;
+	int room;
+	BufferPool pool;
+
+	// The size of parity groups, 0 if error
+	// correction is off
+	final int fecGroup;
+
+	// The token of the session this channel opens
+	// when sent to by address alone
+	int token;
+
+	// Every session we have sent to or heard from, and
+	// those with something waiting: frames to send or
+	// acknowledge, fragments to put together, or being
+	// forgotten. Only these are looked at by the
+	// reading thread when it checks what is due.
+	ConcurrentHashMap<Session, Peer> peers = new ConcurrentHashMap<>();
+	Set<Peer> busy = ConcurrentHashMap.newKeySet();
+
+	// Objects received in order, waiting for the caller,
+	// and what is left at the end of them once the
+	// channel is closed
+	LinkedBlockingQueue<Delivery> deliveries = new LinkedBlockingQueue<>();
+	static final Delivery CLOSED = new Delivery( null, null );
+
+	// The session the last object received came
+	// from, and its address
+	Session session;
+	SocketAddress sender;
+
+	// Reads the channel and sends frames again
+	Thread reader;
+	volatile boolean open = true;
+
+	// When the next frame is due to be sent again,
+	// Long.MAX_VALUE if none is waiting
+	volatile long nextDeadline = Long.MAX_VALUE;
+
+	// The share of datagrams dropped on purpose
+	final double loss;
+	Random random = new Random();
+
+	// How long a batch may wait, in nanoseconds
+	long coalesce;
+
+	// Frames sent again, datagrams sent, and datagrams
+	// rebuilt from parity, for reporting
+	long retransmissions = 0;
+	LongAdder datagrams = new LongAdder();
+	long recovered = 0;
+
+	/**
+	 * The constructor. It opens the channel and starts
+	 * the thread that reads it.
+	 * @param   port   the port to listen on, or 0
+	 *                 for any free port
+	 */
+	public UDP_Channel( int port ) throws IOException {
+		channel = DatagramChannel.open();
+		channel.bind( new InetSocketAddress( port ) );
+
+		// A server carries many sessions on this one socket,
+		// so give bursts room rather than dropping them
+		channel.setOption( StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER );
+		channel.configureBlocking( false );
+		selector = Selector.open();
+		channel.register( selector, SelectionKey.OP_READ );
+
+		loss = Double.parseDouble( System.getProperty( "udp.loss", "0" ) );
+		maxDatagram = Integer.getInteger( "udp.mtu", DEFAULT_MTU ) - IP_OVERHEAD;
+		coalesce = TimeUnit.MILLISECONDS.toNanos( Long.getLong( "udp.coalesce", COALESCE_WINDOW ) );
+		room = maxDatagram - DATAGRAM_HEADER_SIZE - 2;
+		pool = new BufferPool( maxDatagram );
+		fecGroup = Math.min( MAX_GROUP, Integer.getInteger( "udp.fec", 0 ) );
+
+		// Zero is left free, so a token is never
+		// mistaken for a missing one
+		do {
+			token = new SecureRandom().nextInt();
+		} while( token == 0 );
+
+		reader = new Thread( this::read, "udp-reader" );
+		reader.setDaemon( true );
+		reader.start();
+	}
+
+	private Peer peer( Session session ) {
+		return peers.computeIfAbsent( session, Peer::new );
+	}
+
+	/**
+	 * Send an object in this channel's own session
+	 * with the address. It goes out with the next
+	 * batch, and is sent again until the peer
+	 * acknowledges it.
+	 * @param   value   the object to be sent
+	 * @param   to      where to send it
+	 */
+	public void send( Object value, SocketAddress to ) throws IOException {
+		send( value, new Session( to, token ) );
+	}
+
+	/**
+	 * Send an object within a session, in a single
+	 * frame if it fits and in fragments otherwise. It
+	 * goes out with the next batch, and is sent again
+	 * until the peer acknowledges it.
+	 * @param   value   the object to be sent
+	 * @param   to      the session to send it in
+	 */
+	public void send( Object value, Session to ) throws IOException {
+
+		Peer peer = peer( to );
+		long deadline = Long.MAX_VALUE;
+
+		if( WireCodec.frameSize( value ) <= room ) {
+			synchronized( peer ) {
+				deadline = queue( peer, value, null, 0, 0 );
+			}
+		}
+		else {
+
+			// Encode the whole frame, then send it in
+			// pieces that each fit into a datagram
+			ByteBuffer whole = ByteBuffer.allocate( WireCodec.frameSize( value ) );
+			WireCodec.encode( value, 0, 0, 0, whole );
+			whole.flip();
+
+			int end = whole.limit();
+			int piece = room - WireCodec.FRAGMENT_HEADER_SIZE;
+			int count = ( end + piece - 1 ) / piece;
+			if( count > MAX_FRAGMENTS ) {
+				throw new IOException( "Too large to send: " + end + " bytes" );
+			}
+
+			synchronized( peer ) {
+				for( int index = 0; index < count; index++ ) {
+					whole.limit( Math.min( end, whole.position() + piece ) );
+					deadline = Math.min( deadline, queue( peer, null, whole, index, count ) );
+				}
+			}
+		}
+
+		// Make sure the reading thread knows when to
+		// send the batch, and when to send it again
+		if( deadline < nextDeadline ) {
+			nextDeadline = deadline;
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Number a frame, keep it until it is acknowledged
+	 * and add it to the peer's batch. The caller holds
+	 * the peer's lock.
+	 * @param   peer    the peer it is sent to
+	 * @param   value   the object to be sent, or null
+	 *                  for a fragment
+	 * @param   piece   the bytes of the fragment
+	 * @param   index   which fragment it is
+	 * @param   count   the number of fragments
+	 * @return  long    when the batch or the frame is
+	 *                  next due to be sent
+	 */
+	private long queue( Peer peer, Object value, ByteBuffer piece, int index, int count ) throws IOException {
+
+		Outgoing out = new Outgoing();
+		out.frame = pool.acquire();
+		out.sequence = ++peer.sent;
+		if( value != null ) {
+			WireCodec.encode( value, out.sequence, peer.delivered, WireCodec.now(), out.frame );
+		} else {
+			WireCodec.encodeFragment( out.sequence, peer.delivered, WireCodec.now(),
+					index, count, piece, out.frame );
+		}
+		out.frame.flip();
+		out.sentAt = System.nanoTime();
+		out.deadline = out.sentAt + peer.rto;
+		peer.unacked.add( out );
+		busy.add( peer );
+
+		// The frame tells the peer everything we have
+		// received, so no acknowledgment is owed
+		peer.ackOwed = false;
+		peer.owedFragments = 0;
+		batch( peer, out.frame );
+		return peer.batch != null ? Math.min( out.deadline, peer.batchSince + coalesce ) : out.deadline;
+	}
+
+	/**
+	 * Add a frame to the peer's batch, first sending the
+	 * batch if the frame would not fit. The caller holds
+	 * the peer's lock.
+	 * @param   peer    the peer
+	 * @param   frame   the frame
+	 */
+	private void batch( Peer peer, ByteBuffer frame ) throws IOException {
+
+		int length = frame.limit();
+		if( peer.batch != null && peer.batch.remaining() < length ) {
+			sendBatch( peer );
+		}
+		if( peer.batch == null ) {
+			startBatch( peer );
+		}
+		peer.batch.put( peer.batch.position(), frame, 0, length );
+		peer.batch.position( peer.batch.position() + length );
+	}
+
+	/**
+	 * Start a new batch for a peer, leaving room
+	 * for the datagram's header.
+	 */
+	private void startBatch( Peer peer ) {
+		peer.batch = pool.acquire();
+		peer.batch.putInt( peer.session.token );
+		peer.batch.put( PLAIN );
+		peer.batch.putInt( 0 );
+		peer.batch.put( (byte) 0 );
+		peer.batch.limit( DATAGRAM_HEADER_SIZE + room );
+		peer.batchSince = System.nanoTime();
+	}
+
+	/**
+	 * Send the peer's batch now, along with any
+	 * acknowledgment owed to them. The caller holds
+	 * the peer's lock.
+	 * @param   peer   the peer
+	 */
+	private void flushBatch( Peer peer ) throws IOException {
+
+		if( peer.ackOwed ) {
+			if( peer.batch != null && peer.batch.remaining() < WireCodec.HEADER_SIZE ) {
+				sendBatch( peer );
+			}
+			if( peer.batch == null ) {
+				startBatch( peer );
+			}
+			WireCodec.encodeAck( peer.delivered, peer.delivered, WireCodec.now(), peer.batch );
+			peer.ackOwed = false;
+			peer.owedFragments = 0;
+		}
+		sendBatch( peer );
+	}
+
+	private void sendBatch( Peer peer ) throws IOException {
+		if( peer.batch != null ) {
+			peer.batch.flip();
+			if( fecGroup > 0 ) {
+				protect( peer, peer.batch );
+			}
+			transmit( peer.batch, peer.session.address );
+			pool.release( peer.batch );
+			peer.batch = null;
+
+			if( peer.grouped >= fecGroup && peer.grouped > 0 ) {
+				sendParity( peer );
+			}
+		}
+	}
+
+	/**
+	 * Mark a datagram as belonging to the peer's
+	 * current parity group and add it to the parity.
+	 * The caller holds the peer's lock.
+	 * @param   peer       the peer
+	 * @param   datagram   the datagram about to be sent
+	 */
+	private void protect( Peer peer, ByteBuffer datagram ) {
+
+		if( peer.parity == null ) {
+			peer.parity = new byte[2 + room];
+		}
+		if( peer.grouped == 0 ) {
+			peer.groupSince = System.nanoTime();
+			busy.add( peer );
+		}
+
+		datagram.put( 4, PROTECTED );
+		datagram.putInt( 5, peer.group );
+		datagram.put( 9, (byte) peer.grouped++ );
+
+		int length = datagram.limit() - DATAGRAM_HEADER_SIZE;
+		peer.parity[0] ^= (byte) ( length >> 8 );
+		peer.parity[1] ^= (byte) length;
+		for( int index = 0; index < length; index++ ) {
+			peer.parity[2 + index] ^= datagram.get( DATAGRAM_HEADER_SIZE + index );
+		}
+		peer.parityLength = Math.max( peer.parityLength, 2 + length );
+	}
+
+	/**
+	 * Send the parity of the peer's current group
+	 * and start the next. The caller holds the
+	 * peer's lock.
+	 * @param   peer   the peer
+	 */
+	private void sendParity( Peer peer ) throws IOException {
+
+		ByteBuffer datagram = pool.acquire();
+		datagram.putInt( peer.session.token );
+		datagram.put( PARITY );
+		datagram.putInt( peer.group );
+		datagram.put( (byte) peer.grouped );
+		datagram.put( peer.parity, 0, peer.parityLength );
+		datagram.flip();
+		transmit( datagram, peer.session.address );
+		pool.release( datagram );
+
+		Arrays.fill( peer.parity, 0, peer.parityLength, (byte) 0 );
+		peer.parityLength = 0;
+		peer.group++;
+		peer.grouped = 0;
+	}
+
+	/**
+	 * Send whatever is waiting for a session now,
+	 * rather than when its batch is due.
+	 * @param   to   the session
+	 */
+	public void flush( Session to ) throws IOException {
+		Peer peer = peers.get( to );
+		if( peer != null ) {
+			long deadline;
+			synchronized( peer ) {
+				flushBatch( peer );
+				deadline = peer.grouped > 0 ? peer.groupSince + coalesce : Long.MAX_VALUE;
+			}
+
+			// Make sure the reading thread knows
+			// when to send the parity
+			if( deadline < nextDeadline ) {
+				nextDeadline = deadline;
+				selector.wakeup();
+			}
+		}
+	}
+
+	/**
+	 * Send whatever is waiting for this channel's own
+	 * session with the address now.
+	 * @param   to   where it is going
+	 */
+	public void flush( SocketAddress to ) throws IOException {
+		flush( new Session( to, token ) );
+	}
+
+	/**
+	 * Let a session go once everything sent in it
+	 * has been acknowledged. Anything that arrives in
+	 * it afterwards is taken for a new session.
+	 * @param   session   the session
+	 */
+	public void forget( Session session ) {
+		Peer peer = peers.get( session );
+		if( peer != null ) {
+			synchronized( peer ) {
+				peer.forgotten = true;
+				busy.add( peer );
+			}
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Put a frame on the wire, unless it is
+	 * chosen to be dropped.
+	 */
+	private void transmit( ByteBuffer frame, SocketAddress to ) throws IOException {
+		frame.position( 0 );
+		if( loss > 0 && random.nextDouble() < loss ) {
+			return;
+		}
+		datagrams.increment();
+		channel.send( frame, to );
+	}
+
+	/**
+	 * Wait for the next object from any peer. The
+	 * session it came from is left in session, and its
+	 * address in sender. If a peer stops answering an
+	 * IOException is thrown, with session and sender
+	 * saying which.
+	 * @param   timeout   the most time to wait, in
+	 *                    milliseconds, 0 for ever
+	 * @return  Object    the object received
+	 */
+	public Object receive( int timeout ) throws IOException {
+
+		Delivery delivery;
+		try {
+			if( timeout > 0 ) {
+				delivery = deliveries.poll( timeout, TimeUnit.MILLISECONDS );
+			} else {
+				delivery = deliveries.take();
+			}
+		} catch ( InterruptedException e ) {
+			throw new InterruptedIOException( "Interrupted while receiving" );
+		}
+
+		if( delivery == null ) {
+			throw new SocketTimeoutException( "Nothing received in " + timeout + " ms" );
+		}
+		if( delivery == CLOSED ) {
+
+			// Left for anyone else waiting
+			deliveries.add( CLOSED );
+			throw new ClosedChannelException();
+		}
+		session = delivery.from;
+		sender = delivery.from.address;
+		if( delivery.value == null ) {
+			throw new IOException( "No answer from " + sender );
+		}
+		return delivery.value;
+	}
+
+	/**
+	 * The reading thread. It handles every datagram
+	 * that arrives and sends frames again when due.
+	 */
+	private void read() {
+
+		ByteBuffer in = ByteBuffer.allocateDirect( BufferPool.DATAGRAM_SIZE );
+
+		while( open ) {
+			try {
+				long wait = retransmit();
+				selector.select( wait );
+				selector.selectedKeys().clear();
+
+				SocketAddress from;
+				in.clear();
+				while( ( from = channel.receive( in ) ) != null ) {
+					in.flip();
+					handle( from, in );
+					in.clear();
+				}
+			} catch ( IOException | RuntimeException e ) {
+				if( open ) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Handle one datagram. A parity datagram may
+	 * give back one that was lost.
+	 * @param   from   where it came from
+	 * @param   in     the datagram
+	 */
+	private void handle( SocketAddress from, ByteBuffer in ) throws IOException {
+
+		Session session = new Session( from, in.getInt() );
+		byte kind = in.get();
+		int group = in.getInt();
+		int index = in.get() & 0xFF;
+		Peer peer = peers.get( session );
+
+		// A session is only taken on for a datagram that
+		// starts with the first frame of data sent in it,
+		// so datagrams of garbage, stray acknowledgements
+		// and parity for nothing we have do not each
+		// leave a Peer behind. Should that frame be lost,
+		// it is sent again with those after it.
+		if( peer == null ) {
+			if( kind == PARITY ) {
+				return;
+			}
+			Packet<Object> first = WireCodec.decode( in.duplicate() );
+			if( first.isAck() || first.getPacketId() != 1 ) {
+				return;
+			}
+			peer = peer( session );
+		}
+
+		synchronized( peer ) {
+			if( kind == PARITY ) {
+				in = recover( peer, group, index, in );
+				if( in == null ) {
+					return;
+				}
+			}
+			else if( kind == PROTECTED ) {
+				remember( peer, group, index, in );
+			}
+
+			while( in.hasRemaining() ) {
+				handle( peer, WireCodec.decode( in ) );
+			}
+		}
+	}
+
+	/**
+	 * Keep a copy of a protected datagram's payload
+	 * until its group's parity arrives.
+	 * @param   peer    the peer it came from
+	 * @param   group   its parity group
+	 * @param   index   its place in the group
+	 * @param   in      the payload, left unread
+	 */
+	private void remember( Peer peer, int group, int index, ByteBuffer in ) {
+
+		if( index >= MAX_GROUP ) {
+			return;
+		}
+		if( peer.received == null ) {
+			peer.received = new LinkedHashMap<>() {
+				@Override
+				protected boolean removeEldestEntry( Map.Entry<Integer, byte[][]> eldest ) {
+					return size() > GROUPS_KEPT;
+				}
+			};
+		}
+
+		byte[] payload = new byte[in.remaining()];
+		in.get( in.position(), payload );
+		peer.received.computeIfAbsent( group, key -> new byte[MAX_GROUP][] )[index] = payload;
+	}
+
+	/**
+	 * Rebuild the datagram missing from a group, if
+	 * exactly one is missing.
+	 * @param   peer         the peer it came from
+	 * @param   group        the parity group
+	 * @param   count        the number of datagrams in it
+	 * @param   in           the parity
+	 * @return  ByteBuffer   the payload of the missing
+	 *                       datagram, or null if none can
+	 *                       be rebuilt
+	 */
+	private ByteBuffer recover( Peer peer, int group, int count, ByteBuffer in ) {
+
+		// The count and the parity come from the peer, so
+		// both are checked before anything is read by them
+		if( count > MAX_GROUP || in.remaining() < 2 ) {
+			return null;
+		}
+
+		byte[][] payloads = peer.received == null ? null : peer.received.remove( group );
+		int missing = -1;
+		for( int index = 0; index < count; index++ ) {
+			if( payloads == null || payloads[index] == null ) {
+				if( missing >= 0 ) {
+					return null;
+				}
+				missing = index;
+			}
+		}
+		if( missing < 0 ) {
+			return null;
+		}
+
+		// The parity, XORed with every datagram that did
+		// arrive, leaves the one that did not
+		byte[] lost = new byte[in.remaining()];
+		in.get( lost );
+		for( int index = 0; index < count; index++ ) {
+			byte[] payload = payloads == null ? null : payloads[index];
+			if( index == missing || payload.length > lost.length - 2 ) {
+				continue;
+			}
+			lost[0] ^= (byte) ( payload.length >> 8 );
+			lost[1] ^= (byte) payload.length;
+			for( int at = 0; at < payload.length; at++ ) {
+				lost[2 + at] ^= payload[at];
+			}
+		}
+
+		int length = ( ( lost[0] & 0xFF ) << 8 ) | ( lost[1] & 0xFF );
+		if( length > lost.length - 2 ) {
+			return null;
+		}
+		recovered++;
+		return ByteBuffer.wrap( lost, 2, length );
+	}
+
+	/**
+	 * Handle one frame. The caller holds the peer's lock.
+	 * @param   peer     the peer it came from
+	 * @param   packet   the frame
+	 */
+	private void handle( Peer peer, Packet<Object> packet ) throws IOException {
+
+		acknowledged( peer, packet.getAckId() );
+		if( packet.isAck() ) {
+			return;
+		}
+
+		int sequence = packet.getPacketId();
+		boolean inOrder = sequence == peer.delivered + 1;
+		if( inOrder ) {
+
+			// The next frame in order, along with any
+			// that arrived early and can now follow it
+			deliver( peer, WireCodec.value( packet ) );
+			peer.delivered++;
+			Object next;
+			while( ( next = peer.early.remove( peer.delivered + 1 ) ) != null ) {
+				deliver( peer, next );
+				peer.delivered++;
+			}
+		}
+
+		// Frames too far ahead are dropped, to be
+		// sent again once there is room for them
+		else if( sequence > peer.delivered + 1 && sequence <= peer.delivered + MAX_EARLY ) {
+			peer.early.putIfAbsent( sequence, WireCodec.value( packet ) );
+		}
+
+		// Duplicates are dropped, but acknowledged again in
+		// case the first acknowledgment was lost. As in TCP,
+		// frames out of order and every second fragment are
+		// acknowledged as soon as the datagrams waiting have
+		// been read, so the peer soon learns what is missing.
+		// Anything else waits a moment in case a reply can
+		// carry it.
+		long due = System.nanoTime();
+		if( inOrder && !( packet.getObjectData() instanceof WireCodec.Fragment && ++peer.owedFragments >= 2 ) ) {
+			due += TimeUnit.MILLISECONDS.toNanos( ACK_DELAY );
+		}
+		if( !peer.ackOwed || due < peer.ackDue ) {
+			peer.ackOwed = true;
+			peer.ackDue = due;
+			busy.add( peer );
+		}
+	}
+
+	/**
+	 * Hand the next object from a peer to the caller.
+	 * Fragments are put back together first, and only
+	 * the whole object is handed over. The caller holds
+	 * the peer's lock.
+	 * @param   peer    the peer it came from
+	 * @param   value   the object or fragment
+	 */
+	private void deliver( Peer peer, Object value ) throws IOException {
+
+		if( !( value instanceof WireCodec.Fragment ) ) {
+			deliveries.add( new Delivery( value, peer.session ) );
+			return;
+		}
+
+		// Fragments arrive in order, so a frame is started
+		// by its first fragment and added to by the rest.
+		// No fragment is bigger than the first, which
+		// bounds the room the frame can take.
+		WireCodec.Fragment fragment = (WireCodec.Fragment) value;
+		if( fragment.index == 0 && fragment.count > 0 && fragment.count <= MAX_FRAGMENTS ) {
+			peer.partial = ByteBuffer.allocate( fragment.count * fragment.bytes.length );
+			peer.fragments = 0;
+			peer.partialStarted = System.nanoTime();
+		}
+
+		// The rest of a frame that was given up on, or
+		// a fragment that does not fit, is dropped
+		if( peer.partial == null || fragment.index != peer.fragments
+				|| fragment.bytes.length > peer.partial.remaining() ) {
+			peer.partial = null;
+			return;
+		}
+
+		peer.partial.put( fragment.bytes );
+		if( ++peer.fragments == fragment.count ) {
+			peer.partial.flip();
+			deliveries.add( new Delivery( WireCodec.decodeValue( peer.partial ), peer.session ) );
+			peer.partial = null;
+		}
+	}
+
+	/**
+	 * Forget every frame the peer has received, and
+	 * measure the round trip from the newest of them
+	 * unless it had to be sent again.
+	 * @param   peer   the peer
+	 * @param   ack    the number of the last frame
+	 *                 they received in order
+	 */
+	private void acknowledged( Peer peer, int ack ) {
+
+		Outgoing newest = null;
+		while( !peer.unacked.isEmpty() && peer.unacked.peek().sequence <= ack ) {
+			newest = peer.unacked.poll();
+			pool.release( newest.frame );
+		}
+		if( newest == null ) {
+			return;
+		}
+
+		if( newest.retries == 0 ) {
+			long sample = System.nanoTime() - newest.sentAt;
+			if( peer.srtt < 0 ) {
+				peer.srtt = sample;
+				peer.rttvar = sample / 2;
+			} else {
+				peer.rttvar = ( 3 * peer.rttvar + Math.abs( peer.srtt - sample ) ) / 4;
+				peer.srtt = ( 7 * peer.srtt + sample ) / 8;
+			}
+		}
+
+		// Progress undoes any backing off
+		if( peer.srtt >= 0 ) {
+			peer.rto = Math.min( TimeUnit.MILLISECONDS.toNanos( MAX_RTO ),
+					Math.max( TimeUnit.MILLISECONDS.toNanos( MIN_RTO ), peer.srtt + 4 * peer.rttvar ) );
+		}
+	}
+
+	/**
+	 * Send again every frame whose time is up, doubling
+	 * the timeout of its peer, send batches and
+	 * acknowledgments that are due, and drop frames
+	 * whose fragments have taken too long to arrive.
+	 * @return   long   the milliseconds until anything
+	 *                  is next due, 0 if nothing is
+	 */
+	private long retransmit() throws IOException {
+
+		long now = System.nanoTime();
+		long next = Long.MAX_VALUE;
+
+		for( Peer peer : busy ) {
+			synchronized( peer ) {
+				boolean backedOff = false;
+				for( Outgoing out : peer.unacked ) {
+					if( out.deadline <= now ) {
+						if( !backedOff ) {
+							peer.rto = Math.min( peer.rto * 2, TimeUnit.MILLISECONDS.toNanos( MAX_RTO ) );
+							backedOff = true;
+						}
+						out.retries++;
+						out.deadline = now + peer.rto;
+						retransmissions++;
+						batch( peer, out.frame );
+					}
+					next = Math.min( next, out.deadline );
+				}
+
+				// Frames sent again are already late, so they
+				// go straight out, as do batches that have
+				// waited long enough and acknowledgments due
+				if( backedOff || peer.ackOwed && peer.ackDue <= now
+						|| peer.batch != null && peer.batchSince + coalesce <= now ) {
+					flushBatch( peer );
+				}
+				if( peer.ackOwed ) {
+					next = Math.min( next, peer.ackDue );
+				}
+
+				// A group that fills slowly has its parity sent
+				// anyway, so a loss in it is not left waiting
+				if( peer.grouped > 0 ) {
+					if( peer.groupSince + coalesce <= now ) {
+						sendParity( peer );
+					} else {
+						next = Math.min( next, peer.groupSince + coalesce );
+					}
+				}
+				if( peer.batch != null ) {
+					next = Math.min( next, peer.batchSince + coalesce );
+				}
+
+				// A peer that never answers is given up on,
+				// and the caller told
+				if( !peer.unacked.isEmpty() && peer.unacked.peek().retries > MAX_RETRIES ) {
+					while( !peer.unacked.isEmpty() ) {
+						pool.release( peer.unacked.poll().frame );
+					}
+					if( !peer.forgotten ) {
+						deliveries.add( new Delivery( null, peer.session ) );
+					}
+					peer.forgotten = true;
+				}
+
+				if( peer.partial != null ) {
+					long expires = peer.partialStarted + TimeUnit.MILLISECONDS.toNanos( REASSEMBLY_TIMEOUT );
+					if( expires <= now ) {
+						peer.partial = null;
+					} else {
+						next = Math.min( next, expires );
+					}
+				}
+
+				if( peer.forgotten && peer.unacked.isEmpty() ) {
+					flushBatch( peer );
+					peers.remove( peer.session );
+				}
+				if( peer.unacked.isEmpty() && peer.batch == null && !peer.ackOwed && peer.grouped == 0
+						&& ( peer.partial == null || peer.forgotten ) ) {
+					busy.remove( peer );
+				}
+			}
+		}
+
+		nextDeadline = next;
+		if( next == Long.MAX_VALUE ) {
+			return 0;
+		}
+		return Math.max( 1, TimeUnit.NANOSECONDS.toMillis( next - now ) + 1 );
+	}
+
+	/**
+	 * Wait a while for every frame sent to be
+	 * acknowledged, then close the channel.
+	 */
+	public void close() {
+
+		for( Peer peer : peers.values() ) {
+			synchronized( peer ) {
+				try {
+					flushBatch( peer );
+				} catch ( IOException e ) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		long giveUp = System.currentTimeMillis() + FLUSH_TIMEOUT;
+		while( System.currentTimeMillis() < giveUp && unacknowledged() ) {
+			try {
+				Thread.sleep( 10 );
+			} catch ( InterruptedException e ) {
+				break;
+			}
+		}
+
+		open = false;
+		try {
+			selector.wakeup();
+			reader.join( 1000 );
+			selector.close();
+			channel.close();
+		} catch ( IOException | InterruptedException e ) {
+			e.printStackTrace();
+		}
+
+		// Anyone waiting to receive is told
+		deliveries.add( CLOSED );
+	}
+
+	private boolean unacknowledged() {
+		for( Peer peer : peers.values() ) {
+			synchronized( peer ) {
+				if( !peer.unacked.isEmpty() ) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
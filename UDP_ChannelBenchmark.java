@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class measures UDP_Channel over the loopback
+ * interface. By default it sends a shot and its result
+ * back and forth, once with a fresh array and
+ * DatagramPacket for every datagram and once through
+ * UDP_Channel, and reports how many bytes each
+ * allocates per round trip. Given "turns", it instead
+ * reports how long turns take over a lossy link with
+ * error correction off and on.
+ *
+ * Counting allocations needs the HotSpot extension of
+ * ThreadMXBean, so that part only runs on a JVM that
+ * has it.
+ */
+public class UDP_ChannelBenchmark {
+
+	/**
+	 * The number of bytes the current thread has
+	 * allocated so far.
+	 */
+	private static long allocated() {
+		return ( (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean() )
+				.getThreadAllocatedBytes( Thread.currentThread().getId() );
+	}
+
+	/**
+	 * Open a channel that drops a share of datagrams on
+	 * purpose and protects them with parity. Both are set
+	 * through the system properties the channel reads
+	 * when it is made, before its reading thread starts.
+	 * @param   loss          the share of datagrams dropped
+	 * @param   group         the parity group size, 0 for none
+	 * @return  UDP_Channel   the channel, on any free port
+	 */
+	private static UDP_Channel open( double loss, int group ) throws IOException {
+		System.setProperty( "udp.loss", Double.toString( loss ) );
+		System.setProperty( "udp.fec", Integer.toString( group ) );
+		try {
+			return new UDP_Channel( 0 );
+		} finally {
+			System.clearProperty( "udp.loss" );
+			System.clearProperty( "udp.fec" );
+		}
+	}
+
+	/**
+	 * Play turns between two channels over the loopback
+	 * interface, a shot one way and its result the other,
+	 * dropping datagrams on purpose, and report how long
+	 * turns took with error correction off and on.
+	 * @param   turns   the number of turns in each run
+	 */
+	public static void turnLatency( int turns ) throws IOException {
+
+		double[] losses = { 0, 0.05, 0.1, 0.2 };
+		int[] groups = { 0, 2, 4 };
+		TurnState result = TurnState.result( "Hit!", null, null );
+
+		for( double loss : losses ) {
+			for( int group : groups ) {
+				UDP_Channel server = open( loss, group );
+				UDP_Channel client = open( loss, group );
+				SocketAddress address = new InetSocketAddress( InetAddress.getLoopbackAddress(),
+						server.channel.socket().getLocalPort() );
+
+				// The server answers every shot with its result
+				Thread answering = new Thread( () -> {
+					try {
+						while( true ) {
+							server.receive( 0 );
+							server.send( result, server.session );
+							server.flush( server.session );
+						}
+					} catch ( IOException e ) {
+						// Closed at the end of the run
+					}
+				} );
+				answering.setDaemon( true );
+				answering.start();
+
+				long[] micros = new long[turns];
+				for( int turn = 0; turn < turns; turn++ ) {
+					long start = System.nanoTime();
+					client.send( new int[] { turn / 10 % 10, turn % 10 }, address );
+					client.flush( address );
+					client.receive( 0 );
+					micros[turn] = ( System.nanoTime() - start ) / 1000;
+				}
+				Arrays.sort( micros );
+
+				// The server goes first, so the client is still
+				// there to acknowledge its last result
+				server.close();
+				client.close();
+
+				System.out.printf( "loss=%2.0f%% fec=%s p50=%6.1f p90=%6.1f p99=%6.1f max=%6.1f ms"
+						+ " datagrams/turn=%.1f rebuilt=%d retransmissions=%d%n",
+						loss * 100, group == 0 ? "off" : "" + group,
+						micros[turns / 2] / 1000.0, micros[turns * 9 / 10] / 1000.0,
+						micros[turns * 99 / 100] / 1000.0, micros[turns - 1] / 1000.0,
+						(double) ( server.datagrams.sum() + client.datagrams.sum() ) / turns,
+						server.recovered + client.recovered,
+						server.retransmissions + client.retransmissions );
+			}
+		}
+	}
+
+	/**
+	 * Send a shot and its result back and forth, with
+	 * fresh arrays and through UDP_Channel, and report
+	 * the bytes allocated per round trip.
+	 * @param   trips   the number of round trips
+	 */
+	public static void allocation( int trips ) throws IOException {
+
+		int[] target = { 4, 7 };
+		TurnState result = TurnState.result( "Hit!", null, null );
+		Object[] values = { target, result };
+
+		// A fresh buffer, array and DatagramPacket per datagram
+		DatagramSocket socket = new DatagramSocket( 0, InetAddress.getLoopbackAddress() );
+		InetAddress address = InetAddress.getLoopbackAddress();
+		int port = socket.getLocalPort();
+		long before = 0;
+		for( int trip = -trips / 10; trip < trips; trip++ ) {
+			if( trip == 0 ) {
+				before = allocated();
+			}
+			for( Object value : values ) {
+				ByteBuffer frame = ByteBuffer.allocate( WireCodec.frameSize( value ) );
+				WireCodec.encode( value, trip, 0, WireCodec.now(), frame );
+				socket.send( new DatagramPacket( frame.array(), frame.position(), address, port ) );
+				byte[] bytes = new byte[2048];
+				DatagramPacket receive = new DatagramPacket( bytes, bytes.length );
+				socket.receive( receive );
+				WireCodec.value( WireCodec.decode( ByteBuffer.wrap( receive.getData(), 0, receive.getLength() ) ) );
+			}
+		}
+		long arrays = ( allocated() - before ) / trips;
+		socket.close();
+
+		// Pooled direct buffers, sent reliably
+		UDP_Channel channel = open( 0, 0 );
+		SocketAddress self = new InetSocketAddress( InetAddress.getLoopbackAddress(),
+				channel.channel.socket().getLocalPort() );
+		for( int trip = -trips / 10; trip < trips; trip++ ) {
+			if( trip == 0 ) {
+				before = allocated();
+			}
+			channel.send( target, self );
+			channel.flush( self );
+			channel.receive( 0 );
+			channel.send( result, self );
+			channel.flush( self );
+			channel.receive( 0 );
+		}
+		long pooled = ( allocated() - before ) / trips;
+		channel.close();
+
+		System.out.println( "round trips=" + trips +
+				" fresh arrays=" + arrays + " bytes/op" +
+				" pooled channel=" + pooled + " bytes/op" +
+				" retransmissions=" + channel.retransmissions );
+	}
+
+	/**
+	 * The main method.
+	 * @param   args   command line arguments, optionally
+	 *                 the number of round trips, or
+	 *                 "turns" and the number of turns
+	 */
+	public static void main( String [] args ) throws IOException {
+
+		if( args.length > 0 && args[0].equals( "turns" ) ) {
+			turnLatency( args.length > 1 ? Integer.parseInt( args[1] ) : 1000 );
+		}
+		else {
+			allocation( args.length > 0 ? Integer.parseInt( args[0] ) : 200_000 );
+		}
+	}
+}
@@ -1,12 +1,7 @@
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 
 /**
  * This class handles communication via UDP
@@ -30,8 +25,18 @@ public class UDP_Communicator implements Serializable{
 	// on in its machine
 	int serverPort;
 	
-	// DatagramSocket connection to server
-	DatagramSocket socket;
+	// UDP_Channel connection to server, and the
+	// server's address and port to send to
+	UDP_Channel socket;
+	InetSocketAddress serverAddress;
+	
+	// Our copies of our own ocean and of the
+	// opponent's, kept up to date by the server
+	Ocean[] copies = new Ocean[2];
+	
+	// True if a copy went wrong and the server
+	// should send the oceans whole
+	boolean resync = false;
 	
 	/**
 	 * Constructor. It initializes nearly everything
@@ -48,16 +53,32 @@ public class UDP_Communicator implements Serializable{
 	}
 	
 	/**
-	 * Initialize the socket.
-	 * @param   socket   the Datagramsocket through
+	 * Initialize the socket. Objects go back to the
+	 * address this one came from, so they stay in the
+	 * session the player opened with the server.
+	 * @param   socket   the UDP_Channel through
 	 *                   which this object connects
 	 *                   to the server
 	 */
-	public void setSocket( DatagramSocket socket ) {
+	public void setSocket( UDP_Channel socket ) {
 		this.socket = socket;
+		if( socket.sender instanceof InetSocketAddress ) {
+			serverAddress = (InetSocketAddress) socket.sender;
+		} else {
+			serverAddress = new InetSocketAddress( server, serverPort );
+		}
 		view = new View();
 	}
 	
+	/**
+	 * Play through a different View, for example
+	 * one that plays by itself.
+	 * @param   view   the View
+	 */
+	public void setView( View view ) {
+		this.view = view;
+	}
+	
 	/**
 	 * This method contains the logic
 	 * needed to send objects through
@@ -70,22 +91,11 @@ public class UDP_Communicator implements Serializable{
 		
 		try {
 			
-			// Byte array to hold object we wish to send
-			byte[] bufInput = new byte[2048]; 
-			
-			// Convert the object into bytes
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			ObjectOutputStream oos = new ObjectOutputStream( baos );
-			oos.writeObject( obj );
-			oos.flush();
-			bufInput = baos.toByteArray();
-			oos.close();
-			baos.close();
-			
-			// Create a datagram packet to send the object
-			DatagramPacket send = new DatagramPacket( bufInput, bufInput.length,
-					server, serverPort );
-			socket.send( send );
+			// Encode the object into a frame and send it
+			// now, as nothing else is sent until the
+			// server answers
+			socket.send( obj, serverAddress );
+			socket.flush( serverAddress );
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -103,27 +113,12 @@ public class UDP_Communicator implements Serializable{
 		
 		try {
 			
-			// Byte array to hold the object that we receive
-			byte[] bufOutput = new byte[2048];
-			
-			// Create a datagram object to receive the object
-			DatagramPacket receive = new DatagramPacket( bufOutput, bufOutput.length );
-			socket.receive( receive );
-			
-			// Convert the object from bytes into an object
-			ByteArrayInputStream bais = new ByteArrayInputStream( receive.getData() );
-			ObjectInputStream ois = new ObjectInputStream( bais );
-			Object result = ois.readObject();
-			ois.close();
-			bais.close();
-			
-			return result;
+			// Wait for a frame and decode it back into an object
+			return socket.receive( 0 );
 			
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
-		} 		
+		}
 		return null;
 	}
 	
@@ -155,6 +150,21 @@ public class UDP_Communicator implements Serializable{
 		}
 	}
 	
+	/**
+	 * Ask the player where they want to attack.
+	 * If our copies of the oceans went wrong, a
+	 * third value asks the server to send them whole.
+	 * @return   int[]   the target
+	 */
+	private int[] target() {
+		int[] target = view.getInput( playerName );
+		if( resync ) {
+			resync = false;
+			return new int[] { target[0], target[1], 1 };
+		}
+		return target;
+	}
+	
 	/**
 	 * This method contains the player side
 	 * logic of a game of battle ship. 
@@ -171,33 +181,24 @@ public class UDP_Communicator implements Serializable{
 		// So long as no one has won, keep playing
 		while( game ) {
 			
-			// Blocks until the server sends a boolean
-			// value. Once it receives a value, it must
-			// be this player's turn. If the value is 
-			// false, then the game is over.
-			if( (boolean) receive() ){
-				
-				// The player's ocean
-				view.message( ( String ) receive() );
-				view.message( ( String ) receive() );
-				
-				// The player's guesses
-				view.message( ( String ) receive() );
-				view.message( ( String ) receive() );
-				
-				// Get desired target
-				send( view.getInput(playerName) );
-				
-				// See if it hit or not
-				view.message( ( String ) receive() );
-
+			// Blocks until the server sends the next
+			// TurnState. It holds the player's ocean and
+			// guesses at the start of their turn, whether
+			// their shot hit, or who won once the game
+			// is over.
+			TurnState state = ( TurnState ) receive();
+			
+			// Bring our copies of the oceans up to date
+			if( !state.update( copies ) ) {
+				resync = true;
 			}
-			else{
-				game = false;
+			state.show( view );
+			
+			// Get desired target
+			if( state.asksForTarget ) {
+				send( target() );
 			}
+			game = state.playing;
 		}
-		
-		// Find out who won
-		view.message( ( String ) receive()); 
 	}
 }
\ No newline at end of file
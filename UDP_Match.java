@@ -0,0 +1,232 @@
+/**
+ * This class contains the server-side logic of one
+ * game of battleship on UDP_Server. It follows the
+ * same order of messages the UDP players expect, but
+ * instead of blocking on each receive it is called
+ * whenever one of its players' objects arrives. A
+ * game always runs on the same worker thread, so it
+ * sees each player's objects one at a time and in
+ * the order they were sent.
+ */
+public class UDP_Match {
+
+	// The numeric id of this game
+	int id;
+
+	// A reference to the main server
+	UDP_Server server;
+
+	// Model of the BattleShip game
+	Model model = new Model();
+
+	// The players and the sessions they play in
+	Player[] players = new Player[2];
+	UDP_Channel.Session[] sessions = new UDP_Channel.Session[2];
+
+	// The boat and hit marks of the players
+	char[] boatMarks = { 'A', 'B' };
+	char[] hitMarks = { 'a', 'b' };
+
+	// The number of ships each player has built
+	int[] built = new int[2];
+
+	// What each player has seen of their own
+	// ocean and of their opponent's
+	OceanView[] fleetViews = new OceanView[2];
+	OceanView[] attacksViews = new OceanView[2];
+
+	// Whose turn it currently is
+	int turn = 0;
+
+	// Determines whose turn it is
+	int sign = 1;
+
+	// True once the game has ended, one way or another
+	boolean over = false;
+
+	/**
+	 * The constructor. It pairs up two players
+	 * who have sent their names.
+	 * @param   id       the numeric id of this game
+	 * @param   first    the first player waiting
+	 * @param   second   the second player waiting
+	 * @param   server   a reference to the main server
+	 */
+	public UDP_Match( int id, UDP_Server.Waiting first, UDP_Server.Waiting second, UDP_Server server ) {
+		this.id = id;
+		this.server = server;
+
+		UDP_Server.Waiting[] waiting = { first, second };
+		for( int player = 0; player < 2; player++ ) {
+			players[player] = new Player( waiting[player].playerName,
+					boatMarks[player], hitMarks[player] );
+			sessions[player] = waiting[player].session;
+		}
+
+		// Ships sunk are counted, not printed
+		model.onSunk( id, ( game, player, ship ) -> server.shipsSunk.increment() );
+		model.record( id, server.log );
+	}
+
+	/**
+	 * Which player plays in a session.
+	 * @param   session   the session
+	 * @return  int       the numeric id of the player
+	 */
+	public int player( UDP_Channel.Session session ) {
+		return sessions[0].equals( session ) ? 0 : 1;
+	}
+
+	/**
+	 * Set up the model and ask both players
+	 * for their first ship.
+	 */
+	public void start() {
+
+		model.modelSetUp( players[0].shipMark, players[1].shipMark );
+		for( int player = 0; player < 2; player++ ) {
+			model.join( player, players[player].playerName );
+			fleetViews[player] = model.viewOcean( player, true );
+			attacksViews[player] = model.viewOcean( 1 - player, false );
+		}
+
+		for( int player = 0; player < 2; player++ ) {
+			server.send( Integer.valueOf( 0 ), sessions[player] );
+		}
+	}
+
+	/**
+	 * Handle an object from one of the players. While
+	 * they are building ships it holds a position and
+	 * direction, after that it holds their target.
+	 * @param   player   the numeric id of the player
+	 * @param   value    the object they sent
+	 */
+	public void received( int player, Object value ) {
+
+		if( over ) {
+			return;
+		}
+
+		try {
+			if( built[player] < 4 ) {
+				buildShip( player, (Object[]) value );
+			}
+			else if( player == turn && built[turn + sign] == 4 ) {
+				int[] target = (int[]) value;
+
+				// A third value asks for the oceans to be
+				// sent whole because the player's copies
+				// went wrong
+				if( target.length > 2 && target[2] != 0 ) {
+					fleetViews[player].resync();
+					attacksViews[player].resync();
+				}
+				shoot( target );
+			}
+		} catch ( RuntimeException e ) {
+
+			// A player who sends something we can
+			// not make sense of forfeits the game
+			abandon( player, GameLog.FORFEIT );
+		}
+	}
+
+	/**
+	 * Try to build a ship for a player and ask them
+	 * for the next one, or start the game once both
+	 * fleets are complete.
+	 * @param   player   the numeric id of the player
+	 * @param   inputs   the desired place and direction
+	 */
+	private void buildShip( int player, Object[] inputs ) {
+
+		if( model.buildShip( player, (Integer) inputs[0],
+				(Integer) inputs[1], (String) inputs[2] ) ) {
+			server.send( Boolean.TRUE, sessions[player] );
+			built[player]++;
+		}
+		else {
+			server.send( Boolean.FALSE, sessions[player] );
+		}
+
+		if( built[player] < 4 ) {
+			server.send( Integer.valueOf( built[player] ), sessions[player] );
+		}
+
+		// Once both fleets are built the game begins
+		else if( built[0] == 4 && built[1] == 4 ) {
+			sendTurn();
+		}
+	}
+
+	/**
+	 * Tell the current player that the game is still
+	 * going and send them what changed on both oceans.
+	 */
+	private void sendTurn() {
+
+		// The current player's ocean with their ships,
+		// and the waiting player's ocean without their
+		// ships, so that the guessing player can see
+		// their hits and misses
+		server.send( TurnState.prompt( "Your ocean:", fleetViews[turn],
+				"Your guesses:", attacksViews[turn], true ), sessions[turn] );
+	}
+
+	/**
+	 * Fire the current player's shot, tell them how
+	 * it went, and move on to the next turn or end
+	 * the game.
+	 * @param   target   the coordinates being targeted
+	 */
+	private void shoot( int[] target ) {
+
+		// Pass the target to the model, which tells
+		// us what became of the shot
+		String result = model.checkHit( turn + sign, target[0], target[1],
+				players[turn].hitMark ).message;
+		server.send( TurnState.result( result, null, null ), sessions[turn] );
+
+		// Change the turn
+		turn += sign;
+		sign *= -1;
+		server.turns.increment();
+
+		if( model.checkStatus() ) {
+			sendTurn();
+		}
+		else {
+			finish( players[model.victory()].playerName );
+		}
+	}
+
+	/**
+	 * Tell both players that the game is over
+	 * and who won.
+	 * @param   winner   the name of the winner
+	 */
+	private void finish( String winner ) {
+
+		over = true;
+		for( int player = 0; player < 2; player++ ) {
+			server.send( TurnState.over( winner + " has won!" ), sessions[player] );
+		}
+		server.finished( this );
+	}
+
+	/**
+	 * Called when one of the players stops answering
+	 * or forfeits. If the game was still going, the
+	 * other player wins.
+	 * @param   player   the numeric id of the player
+	 * @param   reason   why, as GameLog has it
+	 */
+	public void abandon( int player, int reason ) {
+
+		if( !over ) {
+			model.gameOver( 1 - player, reason );
+			finish( players[1 - player].playerName );
+		}
+	}
+}
@@ -1,11 +1,6 @@
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
@@ -17,6 +12,11 @@ import java.net.UnknownHostException;
  *
  */
 public class UDP_PlayerClient {
+
+	// If set, the player plays through this View
+	// instead of the one the game makes, for example
+	// one that plays by itself
+	View view;
 	
 	/**
 	 * This method sets up the UDP connection
@@ -32,50 +32,29 @@ public class UDP_PlayerClient {
 	public void connect( String playerName, InetAddress server, int port ) {
 		
 		// The client's end
-		DatagramSocket socket = null;
+		UDP_Channel socket = null;
 		
 		try {
 			
 			// Set up the client's end
-			socket = new DatagramSocket();
-			
-			// Set the timeout to 1000 milliseconds. If 1000 milliseconds
-			// pass while waiting to receive an answer from the server,
-			// a SocketException will be thrown and this program will
-			// terminate
-			socket.setSoTimeout( 1000 );
+			socket = new UDP_Channel( 0 );
 						
 			// Send the player's name to the server
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			ObjectOutputStream oos = new ObjectOutputStream( baos );
-			oos.writeObject(playerName);
-			byte[] send = baos.toByteArray();
-			
-			// A DatagramPacket to send to the server
-			DatagramPacket packet = new DatagramPacket( 
-					send, send.length, server, port );
-			
-			// Send the packet
-			socket.send(packet);
-			
-			// A byte array. It is used to receive data from a DatagramPacket
-			byte receive[] = new byte[4096];
+			InetSocketAddress address = new InetSocketAddress( server, port );
+			socket.send( playerName, address );
+			socket.flush( address );
 			
-			// Create a packet to receive whatever the server may send
-			packet = new DatagramPacket( receive, receive.length );
-			socket.receive(packet);
-						
-			// Although these streams are not used for I/O, they
-			// are useful in converting bytes back into objects
-			ByteArrayInputStream bais = new ByteArrayInputStream(packet.getData());
-			ObjectInputStream ois = new ObjectInputStream(bais);
-			UDP_Communicator communicate = (UDP_Communicator) ois.readObject();
-			
-			// Set the timeout to infinity
-			socket.setSoTimeout(0);
+			// Wait for the UDP_Communicator. If 5000 milliseconds
+			// pass while waiting to receive an answer from the server,
+			// a SocketTimeoutException will be thrown and this program
+			// will terminate
+			UDP_Communicator communicate = (UDP_Communicator) socket.receive( 5000 );
 			
 			// Pass the socket to the UDP_Communicator object
 			communicate.setSocket( socket );
+			if( view != null ) {
+				communicate.setView( view );
+			}
 			
 			// Start the game
 			communicate.game();
@@ -88,12 +67,10 @@ public class UDP_PlayerClient {
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
 		} finally{
-			socket.disconnect();
-			socket.close();
+			if( socket != null ) {
+				socket.close();
+			}
 		}		
 	}
 	
@@ -1,365 +1,337 @@
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * This class is a server in a game
- * of battle ship. It communicates to its
- * players via UDP.
+ * This class is a server for games of battle
+ * ship. It communicates to its players via UDP,
+ * all of them through a single UDP_Channel.
+ * Every object received is looked up in a table
+ * of sessions, keyed by the address, port and
+ * session token it came from, and handed to the
+ * UDP_Match that session plays in. Matches are
+ * spread over a few worker threads, each match
+ * always on the same one, so many games run at
+ * once and each still sees its players' objects
+ * in order. Whatever a match sends while handling
+ * one object is flushed together once it is done,
+ * so it goes out in as few datagrams as fit.
  *
  */
 public class UDP_Server {
-	
-	// UDP socket through which we will communicate with
-	// the player
-	DatagramSocket server;
-	
+
+	// UDP channel through which we will communicate with
+	// the players
+	UDP_Channel server;
+
 	// The port that this server shall listen on
 	int port = 4455;
-	
-	// Model of the BattleShip game
-	Model model;
-	
-	// The players
-	Player[] players = new Player[2];
-	
-	// The IP Address objects of the players' machines
-	InetAddress[] playerMachine = new InetAddress[2];
-	
-	// Ports through which the players connected to the server
-	int[] playerPort = new int[2];
-			
-	// The boat and hit marks of the players
-	char[] boatMarks = { 'A', 'B' };
-	char[] hitMarks = { 'a', 'b' };
-	
-	// The UDP_Communicators that shall handle 
-	// communication with the server
-	UDP_Communicator[] comms = new UDP_Communicator[2];
-	
-	// Whose turn it currently is
-	int turn = 0;
-	
-	// Determines whose turn it is
-	int sign = 1;
+
+	// The threads the matches run on
+	ExecutorService[] workers;
+
+	// The session table: the match each session plays in
+	ConcurrentHashMap<UDP_Channel.Session, UDP_Match> sessions = new ConcurrentHashMap<>();
+
+	// Where every game's moves are recorded, if the
+	// system property game.log names a directory
+	GameLog log = GameLog.fromProperties();
+
+	// The games currently being played, keyed by game
+	// id. Ids carry on from those in the log, if any.
+	ConcurrentHashMap<Integer, UDP_Match> matches = new ConcurrentHashMap<>();
+	AtomicInteger gameIds = new AtomicInteger( log == null ? 0 : log.lastGame() );
+
+	// Players who have sent their name and are waiting
+	// for an opponent, and the same keyed by session
+	// so they can be taken out if they stop answering
+	Matchmaker<Waiting> lobby = new Matchmaker<>( 1 );
+	ConcurrentHashMap<UDP_Channel.Session, Waiting> waiting = new ConcurrentHashMap<>();
+
+	// False once the server is closed
+	volatile boolean running = true;
+
+	// Numbers reported while the server runs
+	LongAdder turns = new LongAdder();
+	LongAdder shipsSunk = new LongAdder();
 
 	/**
-	 * The constructor. It initializes the DatagramSocket
-	 * and the model. 
+	 * A player in the lobby.
 	 */
-	public UDP_Server(){
-		
-		try{
-			server = new DatagramSocket( port );
+	static class Waiting {
+
+		String playerName;
+		UDP_Channel.Session session;
+
+		Waiting( String playerName, UDP_Channel.Session session ) {
+			this.playerName = playerName;
+			this.session = session;
 		}
-		catch ( SocketException e ) {
-			e.printStackTrace();
+	}
+
+	/**
+	 * The constructor. It initializes the UDP_Channel
+	 * and the worker threads.
+	 * @param   port    the port to listen on
+	 * @param   count   the number of worker threads
+	 */
+	public UDP_Server( int port, int count ) throws IOException {
+		this.port = port;
+		server = new UDP_Channel( port );
+
+		workers = new ExecutorService[count];
+		for( int worker = 0; worker < count; worker++ ) {
+			workers[worker] = Executors.newSingleThreadExecutor();
 		}
-		
-		model = new Model();
 	}
-	
+
 	/**
 	 * This method contains the logic
 	 * needed to send objects through
 	 * UDP.
-	 * @param   obj      the object to be sent
-	 * @param   player   the player to whom
-	 *                   an object is being sent
+	 * @param   obj       the object to be sent
+	 * @param   session   the session of the player
+	 *                    to whom it is being sent
 	 */
-	public void send( Object obj, int player ) {
-		
+	public void send( Object obj, UDP_Channel.Session session ) {
+
 		try {
-			
-			// Byte array to hold object we wish to send
-			byte[] bufInput = new byte[1024]; 
-			
-			// Convert the object into bytes
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			ObjectOutputStream oos = new ObjectOutputStream( baos );
-			oos.writeObject( obj );
-			oos.flush();
-			bufInput = baos.toByteArray();
-			oos.close();
-			baos.close();
-			
-			// Create a datagram packet to send the object
-			DatagramPacket send = new DatagramPacket( bufInput, bufInput.length,
-					playerMachine[player], playerPort[player] );
-			server.send( send );
+
+			// Encode the object into a frame and send it
+			server.send( obj, session );
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
-	
+
 	/**
-	 * This method contains the logic
-	 * needed for receiving objects 
-	 * through UDP.
-	 * @param    player   the player to whom obj is sent
-	 * @return   Object   the object that is received through
-	 *                    the connection
+	 * Run something for a match on its worker, then
+	 * send everything it sent to the players.
+	 * @param   match   the match
+	 * @param   event   what to run
+	 */
+	private void dispatch( UDP_Match match, Runnable event ) {
+		workers[match.id % workers.length].execute( () -> {
+			event.run();
+			for( UDP_Channel.Session session : match.sessions ) {
+				flush( session );
+			}
+		} );
+	}
+
+	/**
+	 * Send whatever is waiting for a player now.
+	 * @param   session   the player's session
 	 */
-	public Object receive(){
-		
+	public void flush( UDP_Channel.Session session ) {
 		try {
-			
-			// Byte array to hold the object that we receive
-			byte[] bufOutput = new byte[1024];
-			
-			// Create a datagram object to receive the object
-			DatagramPacket receive = new DatagramPacket( bufOutput, bufOutput.length );
-			server.receive( receive );
-			
-			// Convert the object from bytes into an object
-			ByteArrayInputStream bais = new ByteArrayInputStream( receive.getData() );
-			ObjectInputStream ois = new ObjectInputStream( bais );
-			Object result = ois.readObject();
-			ois.close();
-			bais.close();
-			
-			return result;
-			
+			server.flush( session );
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
 		}
-		return null;
 	}
-	
+
 	/**
-	 * This method waits to receive a packet from two
-	 * players. If it doesn't hear from a player within
-	 * three minutes it automatically closes the server.
-	 * @return   boolean   true if two players connect,
-	 *                     false if the timeout occurred
+	 * This method receives objects from every player
+	 * for as long as the server runs and hands each
+	 * to the match it belongs to. A name from a new
+	 * session puts that player in the lobby. If it
+	 * doesn't hear from anyone for three minutes while
+	 * no game is being played, it stops.
 	 */
-	public boolean getPlayers(){
-		
-		try {
-			
-			// Set time out to three minutes. This gives
-			// any players enough time to connect.
-			server.setSoTimeout(180000);
-			
-			// The current player we are trying to make
-			int player = 0;
-			
-			// Get two players to play the game
-			while( player != 2 ) {
-				
-				// A byte array to hold the name of a player
-				byte[] nameBuf = new byte[1024];
-				
-				// Datagram packet to receive the name of a player
-				DatagramPacket receive = new DatagramPacket( nameBuf, nameBuf.length);
-				server.receive(receive);
-								
-				// The IP address of the machine that sent the name
-				playerMachine[player] = receive.getAddress();
-				
-				// Port through which the name was sent
-				playerPort[player] = receive.getPort();
-								
-				// Convert the name from bytes into a String
-				ByteArrayInputStream bais = new ByteArrayInputStream( receive.getData() );
-				ObjectInputStream ois = new ObjectInputStream( bais );
-				String playerName = (String) ois.readObject();
-				
-				// Create a player object
-				players[player] = new Player( playerName, boatMarks[player], hitMarks[player]);
-				
-				// Create a UDP_Communicator object and send it to the player
-				comms[player] = new UDP_Communicator( playerName, InetAddress.getLocalHost(), port );
-				
-				// Convert the UDP_Communicator object into bytes
-				ByteArrayOutputStream boas = new ByteArrayOutputStream();
-				ObjectOutputStream oos = new ObjectOutputStream( boas );
-				oos.writeObject( comms[player] );
-				oos.flush();
-				byte[] commBuf = boas.toByteArray();
-								
-				// Send the UPD_Communicator object to the player
-				DatagramPacket send = new DatagramPacket( commBuf, commBuf.length,
-						playerMachine[player], playerPort[player] );
-				server.send(send);
-				oos.close();
-				boas.close();
-				
-				player++;
+	public void serve() {
+
+		while( running ) {
+
+			try {
+
+				// Receive the next object from anyone. Set time
+				// out to three minutes. This gives any players
+				// enough time to connect.
+				Object value = server.receive( 180000 );
+				UDP_Channel.Session session = server.session;
+
+				UDP_Match match = sessions.get( session );
+				if( match != null ) {
+					int player = match.player( session );
+					dispatch( match, () -> match.received( player, value ) );
+				}
+				else if( value instanceof String && !waiting.containsKey( session ) ) {
+					join( (String) value, session );
+				}
+
+			} catch ( SocketTimeoutException e ) {
+				if( matches.isEmpty() && lobby.queueDepth() == 0 ) {
+					System.out.println( "Not enough players." );
+					return;
+				}
+			} catch ( ClosedChannelException e ) {
+
+				// Closed by close()
+				return;
+			} catch ( IOException e ) {
+
+				// A player stopped answering, and the channel
+				// left their session behind. If they were
+				// playing, their opponent wins.
+				left( server.session );
 			}
-			
-			return true;
-		} catch ( SocketTimeoutException e ) {
-			System.out.println( "Not enough players." );
-			return false;
-		} catch (IOException e) {
-			e.printStackTrace();
-			server.disconnect();
-			server.close();
-			return false;
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
-			return false;
-		} 
+		}
 	}
-	
+
 	/**
-	 * This method sets up a game of BattleShip.
-	 * If the server does not receive connections
-	 * to two players, this method will return false.
-	 * @return   boolean   true if two players connected,
-	 *                     false otherwise
+	 * Called once a player has sent their name. If
+	 * someone is waiting in the lobby they are paired
+	 * and their game begins, otherwise the player waits.
+	 * @param   playerName   the name of the player
+	 * @param   session      the session they sent it in
 	 */
-	public boolean controlSetUp(){
-		
-		// Wait for two players to connect
-		if( getPlayers() ) {
-			
-			// Once two players have connected, 
-			// set up the model and the fleets
-			model.modelSetUp( players[0].shipMark, players[1].shipMark );
-			fleetSetUp(0);
-			fleetSetUp(1);
-			return true;
+	private void join( String playerName, UDP_Channel.Session session ) throws IOException {
+
+		// Create a UDP_Communicator object and send it to the player
+		send( new UDP_Communicator( playerName, InetAddress.getLocalHost(), port ), session );
+		flush( session );
+
+		Waiting player = new Waiting( playerName, session );
+		waiting.put( session, player );
+		Waiting other = lobby.join( player );
+		if( other != null ) {
+			waiting.remove( session );
+			waiting.remove( other.session );
+
+			UDP_Match match = new UDP_Match( gameIds.incrementAndGet(), other, player, this );
+			matches.put( match.id, match );
+			sessions.put( other.session, match );
+			sessions.put( session, match );
+			dispatch( match, match::start );
 		}
-		else{
-			return false;
+	}
+
+	/**
+	 * Called when a player stops answering.
+	 * @param   session   the player's session
+	 */
+	private void left( UDP_Channel.Session session ) {
+
+		Waiting player = waiting.remove( session );
+		if( player != null ) {
+			lobby.leave( player );
+		}
+
+		UDP_Match match = sessions.get( session );
+		if( match != null ) {
+			int gone = match.player( session );
+			dispatch( match, () -> match.abandon( gone, GameLog.DISCONNECT ) );
 		}
 	}
-	
-	/** 
-	 * This method creates a fleet 
-	 * of ships for a game of
-	 * battle ship according to user
-	 * input. However, ships can not
-	 * touch or overlap.
+
+	/**
+	 * Called on its worker when a game has ended. Its
+	 * sessions are let go once the players have
+	 * acknowledged everything sent to them.
+	 * @param   match   the game that ended
 	 */
-	private void fleetSetUp( int player ) {
-		
-		// The input row
-		int row = 0;
-		
-		// The input column
-		int column = 0;
-		
-		// The input direction
-		String direction = "";
-		
-		// Index in the ships array where we
-		// will place the new ship
-		int index = 0;
-		
-		// Continue until the user has filled the 
-		// array of ships
-		while( index != 4 ) {
-			
-			// Array of Objects to hold the returned
-			// integer coordinates and String direction
-			send( new Integer(index), player );
-			Object[] inputs = (Object[]) receive();
-			row = (Integer) inputs[0];
-			column = (Integer) inputs[1];
-			direction = (String) inputs[2];
-			
-			// If the ship can be built, increment index
-			if( model.buildShip( player, row, column, direction ) ) {
-				send( new Boolean( true ), player );
-				index++;
-			}
-			else{
-				send( new Boolean( false ), player );
-			}
+	public void finished( UDP_Match match ) {
+
+		matches.remove( match.id );
+		for( UDP_Channel.Session session : match.sessions ) {
+			sessions.remove( session );
+			server.forget( session );
 		}
 	}
-	
+
 	/**
-	 * The purpose of this method is to manage a game
-	 * of battle ship.
+	 * Stop the server. The games being played are
+	 * left to finish what they were doing and the
+	 * players to hear the last of it, then the
+	 * channel, the workers and the log are closed.
 	 */
-	public void playGameWith(  ) {
-		
-		// Set the first player to guess
-		Player current = players[0];
-		
-		// Set the player waiting for their turn.
-		Player waiting = players[1];
-		
-		// Used for when the current player changes
-		Player temp;
-		
-		// So long as either player has at least one ship still
-		// afloat, the game continues
-		while( model.checkStatus() ) {
-			
-			// Tell the current player that the game
-			// is still going
-			send( new Boolean(true), turn );
-			
-			// Print the current player's ocean with their ships
-			send( new String( "Your ocean:" ), turn );
-			send( model.printOcean( turn, true), turn );
-			
-			// Print the waiting player's ocean without their
-			// ships. This is so that the guessing player
-			// can see their hits and misses.
-			send( new String( "Your guesses:" ), turn );
-			send( model.printOcean( turn + sign, false), turn );
-			
-			// Ask the current player where they want to attack
-			int[] target = (int[]) receive();
-						
-			// Check to see if it hit or not.If it returns true, 
-			// then it hit, otherwise it is a miss.
-			if( model.checkHit( turn+sign, target[0], target[1], players[turn].hitMark ) ) {
-				send( new String( "Hit!" ), turn );
-			}
-			else {
-				send( new String( "Miss!" ), turn );
+	public void close() {
+
+		running = false;
+		for( ExecutorService worker : workers ) {
+			worker.shutdown();
+		}
+		for( ExecutorService worker : workers ) {
+			try {
+				worker.awaitTermination( UDP_Channel.FLUSH_TIMEOUT, TimeUnit.MILLISECONDS );
+			} catch ( InterruptedException e ) {
+				break;
 			}
-			
-			// Switch current and waiting players
-			temp = current;
-			current = waiting;
-			waiting = temp;
-			
-			// Update the turn
-			turn += sign;
-			sign *= -1;
 		}
-		
-		// Let the players know that the game is over
-		send( new Boolean( false ), 0 );
-		send( new Boolean( false ), 1 );
-		
-		// Find out who the winner is
-		int winner = model.victory();
-		send( players[winner].playerName + " has won!", 0 );
-		send( players[winner].playerName + " has won!", 1 );
-		
-		// The game is over, so close the socket.
-		server.disconnect();
 		server.close();
+		if( log != null ) {
+			log.close();
+		}
 	}
-	
+
 	/**
-	 * The main method. It sets up the server
-	 * and starts the game. If there are not enough
-	 * players it stops running after three minutes.
-	 * @param   args   command line arguments ( not used )
+	 * Print how many games and sessions the server
+	 * has, how many players are waiting and for how
+	 * long, and how many turns were played, every
+	 * few seconds.
+	 * @param   seconds   the time between reports
 	 */
-	public static void main( String [] args ) {
-		UDP_Server server = new UDP_Server();
-		if( server.controlSetUp() ) {
-			server.playGameWith();
-		}
+	public void report( int seconds ) {
+
+		Thread reporter = new Thread( () -> {
+
+			long lastTurns = 0;
+			long lastDatagrams = 0;
+			while( true ) {
+				try {
+					Thread.sleep( seconds * 1000L );
+				} catch ( InterruptedException e ) {
+					return;
+				}
+
+				long totalTurns = turns.sum();
+				System.out.println( "sessions=" + server.peers.size() +
+						" games=" + matches.size() +
+						" waiting=" + lobby.queueDepth() +
+						" timeToMatch=" + lobby.averageWaitMicros() + " us" +
+						" turns/s=" + ( totalTurns - lastTurns ) / seconds +
+						" sunk=" + shipsSunk.sum() +
+						" datagrams/turn=" + String.format( "%.1f", totalTurns == lastTurns ? 0.0
+								: (double) ( server.datagrams.sum() - lastDatagrams ) / ( totalTurns - lastTurns ) ) +
+						" retransmissions=" + server.retransmissions );
+				lastTurns = totalTurns;
+				lastDatagrams = server.datagrams.sum();
+			}
+		}, "udp-report" );
+		reporter.setDaemon( true );
+		reporter.start();
+	}
+
+	/**
+	 * The main method. It sets up the server and plays
+	 * games until players stop coming. If there are not
+	 * enough players it stops running after three minutes.
+	 * @param   args   command line arguments, optionally
+	 *                 the port and the number of workers
+	 */
+	public static void main( String [] args ) throws IOException {
+
+		// The port to listen on
+		int port = args.length > 0 ? Integer.parseInt( args[0] ) : 4455;
+
+		// One worker per core unless told otherwise
+		int count = args.length > 1 ? Integer.parseInt( args[1] )
+				: Runtime.getRuntime().availableProcessors();
+
+		UDP_Server server = new UDP_Server( port, count );
+		server.report( 5 );
+		server.serve();
+
+		// Let the players hear the end of the
+		// last games before closing
+		server.close();
 	}
-}
\ No newline at end of file
+}
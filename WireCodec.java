@@ -0,0 +1,652 @@
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * The purpose of this class is to turn messages into
+ * compact binary frames and back. It replaces Java
+ * serialization, which spends most of every message
+ * on class descriptors. A frame is laid out as:
+ *
+ *   int    length of everything after this field
+ *   byte   type tag
+ *   int    sequence id
+ *   int    sequence id of the last frame received
+ *          from the other side, 0 if none
+ *   long   timestamp, in nanoseconds since the epoch
+ *   ...    payload, depending on the type tag
+ *
+ * The payload of an object array is a count followed
+ * by a tag and payload for each element. A TurnState
+ * is a byte of flags followed by its six strings,
+ * each of which may be null, and its two BoardDeltas,
+ * each preceded by a byte that is 0 if it is null.
+ * A fragment carries one piece of a frame too large
+ * for a single datagram: its index, the number of
+ * pieces, and a count followed by that many bytes.
+ */
+public class WireCodec {
+
+	// Type tags
+	public static final byte ACK = 0;
+	public static final byte BOOLEAN = 1;
+	public static final byte INTEGER = 2;
+	public static final byte STRING = 3;
+	public static final byte INT_ARRAY = 4;
+	public static final byte OBJECT_ARRAY = 5;
+	public static final byte TCP_COMMUNICATOR = 6;
+	public static final byte UDP_COMMUNICATOR = 7;
+	public static final byte TURN_STATE = 8;
+	public static final byte FRAGMENT = 9;
+
+	// The size of the length, tag, sequence id,
+	// acknowledgment and timestamp fields
+	public static final int HEADER_SIZE = 4 + 1 + 4 + 4 + 8;
+
+	// The size of a fragment's frame besides its bytes
+	public static final int FRAGMENT_HEADER_SIZE = HEADER_SIZE + 4 + 4 + 4;
+
+	// The most bytes a frame may hold after its length,
+	// and the most cells a board sent may have. Sizes
+	// come from the peer, so nothing is made larger.
+	public static final int MAX_FRAME = 1 << 24;
+	public static final long MAX_BOARD_CELLS = 1L << 36;
+
+	/**
+	 * One piece of a frame that was split up
+	 * to fit into datagrams.
+	 */
+	public static class Fragment {
+
+		int index;
+		int count;
+		byte[] bytes;
+
+		Fragment( int index, int count, byte[] bytes ) {
+			this.index = index;
+			this.count = count;
+			this.bytes = bytes;
+		}
+	}
+
+	// The difference between System.nanoTime() and the
+	// time since the epoch, taken once so that now()
+	// does not create an Instant on every call
+	private static final long EPOCH_OFFSET;
+	static {
+		Instant start = Instant.now();
+		EPOCH_OFFSET = start.getEpochSecond() * 1_000_000_000L + start.getNano() - System.nanoTime();
+	}
+
+	/**
+	 * The current time in nanoseconds since the epoch.
+	 * @return   long   the timestamp
+	 */
+	public static long now() {
+		return EPOCH_OFFSET + System.nanoTime();
+	}
+
+	/**
+	 * An upper bound on the number of bytes a Packet
+	 * will take up once encoded.
+	 * @param   packet   the Packet to be encoded
+	 * @return  int      the most bytes it can need
+	 */
+	public static int maxSize( Packet<?> packet ) {
+		if( packet.isAck() ) {
+			return HEADER_SIZE;
+		}
+		return frameSize( value( packet ) );
+	}
+
+	/**
+	 * An upper bound on the number of bytes a frame
+	 * carrying the given value will take up.
+	 * @param   value   the object to be encoded
+	 * @return  int     the most bytes it can need
+	 */
+	public static int frameSize( Object value ) {
+		return HEADER_SIZE + payloadSize( value );
+	}
+
+	/**
+	 * An upper bound on the number of bytes a value,
+	 * without its tag, will take up once encoded.
+	 */
+	private static int payloadSize( Object value ) {
+
+		if( value instanceof Boolean ) {
+			return 1;
+		} else if( value instanceof Integer ) {
+			return 4;
+		} else if( value instanceof String ) {
+			return 4 + 3 * ( (String) value ).length();
+		} else if( value instanceof int[] ) {
+			return 4 + 4 * ( (int[]) value ).length;
+		} else if( value instanceof Object[] ) {
+			int size = 4;
+			for( Object element : (Object[]) value ) {
+				size += 1 + payloadSize( element );
+			}
+			return size;
+		} else if( value instanceof TCP_Communicator ) {
+			return payloadSize( ( (TCP_Communicator) value ).playerName );
+		} else if( value instanceof UDP_Communicator ) {
+			return payloadSize( ( (UDP_Communicator) value ).playerName ) + 1 + 16 + 4;
+		} else if( value instanceof TurnState ) {
+			TurnState state = (TurnState) value;
+			return 1 + nullableSize( state.result ) + nullableSize( state.fleetLabel )
+					+ nullableSize( state.fleet ) + nullableSize( state.attacksLabel )
+					+ nullableSize( state.attacks ) + nullableSize( state.winner )
+					+ deltaSize( state.fleetDelta ) + deltaSize( state.attacksDelta );
+		}
+		throw new IllegalArgumentException( "Can not encode " + value );
+	}
+
+	private static int nullableSize( String value ) {
+		return value == null ? 4 : payloadSize( value );
+	}
+
+	// A BoardDelta is its version, flags, checksum,
+	// then for a snapshot the board size, then either
+	// every cell, or a count and the position and mark
+	// of each cell listed
+	private static int deltaSize( BoardDelta delta ) {
+		if( delta == null ) {
+			return 1;
+		}
+		int size = 1 + 4 + 1 + 4 + 4;
+		if( delta.snapshot && delta.changedRows == null ) {
+			return size + 4 + delta.marks.length;
+		}
+		if( delta.snapshot ) {
+			size += 8;
+		}
+		return size + 9 * delta.marks.length;
+	}
+
+	/**
+	 * The object a Packet carries.
+	 * @param   packet   the Packet
+	 * @return  Object   its array if it has one,
+	 *                   otherwise its single object
+	 */
+	public static Object value( Packet<?> packet ) {
+		return packet.getObjectsArray() != null ? packet.getObjectsArray() : packet.getObjectData();
+	}
+
+	/**
+	 * Encode a Packet into a frame.
+	 * @param   packet   the Packet to be encoded
+	 * @param   out      the buffer the frame is put in
+	 */
+	public static void encode( Packet<?> packet, ByteBuffer out ) {
+		if( packet.isAck() ) {
+			encodeAck( packet.getPacketId(), packet.getAckId(), packet.getTimestampNanos(), out );
+		}
+		else {
+			encode( value( packet ), packet.getPacketId(), packet.getAckId(),
+					packet.getTimestampNanos(), out );
+		}
+	}
+
+	/**
+	 * Encode an acknowledgment into a frame.
+	 * @param   sequence    the sequence id of the frame
+	 * @param   ack         the sequence id of the last frame
+	 *                      received
+	 * @param   timestamp   the time it was sent, in
+	 *                      nanoseconds since the epoch
+	 * @param   out         the buffer the frame is put in
+	 */
+	public static void encodeAck( int sequence, int ack, long timestamp, ByteBuffer out ) {
+		int start = out.position();
+		out.putInt( 0 );
+		out.put( ACK );
+		out.putInt( sequence );
+		out.putInt( ack );
+		out.putLong( timestamp );
+		out.putInt( start, out.position() - start - 4 );
+	}
+
+	/**
+	 * Encode one piece of a larger frame into a
+	 * frame of its own.
+	 * @param   sequence    the sequence id of the frame
+	 * @param   ack         the sequence id of the last frame
+	 *                      received, 0 if none
+	 * @param   timestamp   the time it was sent, in
+	 *                      nanoseconds since the epoch
+	 * @param   index       which piece this is, from 0
+	 * @param   count       the number of pieces
+	 * @param   piece       the bytes of the piece, which
+	 *                      are all consumed
+	 * @param   out         the buffer the frame is put in
+	 */
+	public static void encodeFragment( int sequence, int ack, long timestamp,
+			int index, int count, ByteBuffer piece, ByteBuffer out ) {
+		int start = out.position();
+		out.putInt( 0 );
+		out.put( FRAGMENT );
+		out.putInt( sequence );
+		out.putInt( ack );
+		out.putLong( timestamp );
+		out.putInt( index );
+		out.putInt( count );
+		out.putInt( piece.remaining() );
+		out.put( piece );
+		out.putInt( start, out.position() - start - 4 );
+	}
+
+	/**
+	 * Encode a single value into a frame.
+	 * @param   value       the object to be encoded
+	 * @param   sequence    the sequence id of the frame
+	 * @param   ack         the sequence id of the last frame
+	 *                      received, 0 if none
+	 * @param   timestamp   the time it was sent, in
+	 *                      nanoseconds since the epoch
+	 * @param   out         the buffer the frame is put in
+	 */
+	public static void encode( Object value, int sequence, int ack, long timestamp, ByteBuffer out ) {
+
+		// Leave room for the length
+		int start = out.position();
+		out.putInt( 0 );
+
+		out.put( tag( value ) );
+		out.putInt( sequence );
+		out.putInt( ack );
+		out.putLong( timestamp );
+		putValue( value, out );
+
+		out.putInt( start, out.position() - start - 4 );
+	}
+
+	/**
+	 * The type tag of a value.
+	 */
+	private static byte tag( Object value ) {
+
+		if( value instanceof Boolean ) {
+			return BOOLEAN;
+		} else if( value instanceof Integer ) {
+			return INTEGER;
+		} else if( value instanceof String ) {
+			return STRING;
+		} else if( value instanceof int[] ) {
+			return INT_ARRAY;
+		} else if( value instanceof Object[] ) {
+			return OBJECT_ARRAY;
+		} else if( value instanceof TCP_Communicator ) {
+			return TCP_COMMUNICATOR;
+		} else if( value instanceof UDP_Communicator ) {
+			return UDP_COMMUNICATOR;
+		} else if( value instanceof TurnState ) {
+			return TURN_STATE;
+		}
+		throw new IllegalArgumentException( "Can not encode " + value );
+	}
+
+	/**
+	 * Write the payload of a value.
+	 */
+	private static void putValue( Object value, ByteBuffer out ) {
+
+		if( value instanceof Boolean ) {
+			out.put( (byte) ( (Boolean) value ? 1 : 0 ) );
+		} else if( value instanceof Integer ) {
+			out.putInt( (Integer) value );
+		} else if( value instanceof String ) {
+			putString( (String) value, out );
+		} else if( value instanceof int[] ) {
+			int[] array = (int[]) value;
+			out.putInt( array.length );
+			for( int element : array ) {
+				out.putInt( element );
+			}
+		} else if( value instanceof Object[] ) {
+			Object[] array = (Object[]) value;
+			out.putInt( array.length );
+			for( Object element : array ) {
+				out.put( tag( element ) );
+				putValue( element, out );
+			}
+		} else if( value instanceof TCP_Communicator ) {
+			putString( ( (TCP_Communicator) value ).playerName, out );
+		} else if( value instanceof TurnState ) {
+			TurnState state = (TurnState) value;
+			out.put( (byte) ( ( state.playing ? 1 : 0 ) | ( state.asksForTarget ? 2 : 0 ) ) );
+			putNullable( state.result, out );
+			putNullable( state.fleetLabel, out );
+			putNullable( state.fleet, out );
+			putNullable( state.attacksLabel, out );
+			putNullable( state.attacks, out );
+			putNullable( state.winner, out );
+			putDelta( state.fleetDelta, out );
+			putDelta( state.attacksDelta, out );
+		} else {
+			UDP_Communicator comm = (UDP_Communicator) value;
+			putString( comm.playerName, out );
+			byte[] address = comm.server.getAddress();
+			out.put( (byte) address.length );
+			out.put( address );
+			out.putInt( comm.serverPort );
+		}
+	}
+
+	private static void putString( String value, ByteBuffer out ) {
+
+		// Plain ASCII, which is all the game sends,
+		// is copied over without an extra array
+		int length = value.length();
+		boolean ascii = true;
+		for( int index = 0; index < length && ascii; index++ ) {
+			ascii = value.charAt( index ) < 0x80;
+		}
+		if( ascii ) {
+			out.putInt( length );
+			for( int index = 0; index < length; index++ ) {
+				out.put( (byte) value.charAt( index ) );
+			}
+			return;
+		}
+
+		byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+		out.putInt( bytes.length );
+		out.put( bytes );
+	}
+
+	// A null string is written as a length of -1
+	private static void putNullable( String value, ByteBuffer out ) {
+		if( value == null ) {
+			out.putInt( -1 );
+		} else {
+			putString( value, out );
+		}
+	}
+
+	private static void putDelta( BoardDelta delta, ByteBuffer out ) {
+
+		if( delta == null ) {
+			out.put( (byte) 0 );
+			return;
+		}
+		out.put( (byte) 1 );
+		out.putInt( delta.version );
+		boolean listed = delta.changedRows != null;
+		out.put( (byte) ( ( delta.snapshot ? 1 : 0 ) | ( delta.checked ? 2 : 0 ) | ( listed ? 4 : 0 ) ) );
+		out.putInt( delta.checksum );
+
+		if( delta.snapshot ) {
+			out.putInt( delta.rows );
+			out.putInt( delta.columns );
+		}
+		if( !listed ) {
+			for( char mark : delta.marks ) {
+				out.put( (byte) mark );
+			}
+		}
+		else {
+			out.putInt( delta.marks.length );
+			for( int index = 0; index < delta.marks.length; index++ ) {
+				out.putInt( delta.changedRows[index] );
+				out.putInt( delta.changedColumns[index] );
+				out.put( (byte) delta.marks[index] );
+			}
+		}
+	}
+
+	/**
+	 * Check whether a whole frame has arrived.
+	 * @param   in        the bytes received so far,
+	 *                    starting at the frame
+	 * @return  boolean   true if the frame is complete
+	 */
+	public static boolean hasFrame( ByteBuffer in ) {
+		return in.remaining() >= 4 && in.remaining() - 4 >= frameLength( in.getInt( in.position() ) );
+	}
+
+	/**
+	 * Check the length a frame says it has.
+	 * @param   length   the length, not counting itself
+	 * @return  int      the same length
+	 */
+	public static int frameLength( int length ) {
+		if( length < HEADER_SIZE - 4 || length > MAX_FRAME ) {
+			throw new IllegalArgumentException( "Frame of " + length + " bytes" );
+		}
+		return length;
+	}
+
+	/**
+	 * Read the number of elements that follow, checking
+	 * that the buffer could hold that many.
+	 * @param   in            the buffer
+	 * @param   elementSize   the fewest bytes an element takes
+	 * @return  int           the number
+	 */
+	private static int count( ByteBuffer in, int elementSize ) {
+		return count( in.getInt(), in, elementSize );
+	}
+
+	/**
+	 * Check a number of elements read from the peer.
+	 * @param   count         the number
+	 * @param   in            the buffer holding them
+	 * @param   elementSize   the fewest bytes an element takes
+	 * @return  int           the same number
+	 */
+	private static int count( long count, ByteBuffer in, int elementSize ) {
+		if( count < 0 || count * elementSize > in.remaining() ) {
+			throw new IllegalArgumentException( count + " elements in " + in.remaining() + " bytes" );
+		}
+		return (int) count;
+	}
+
+	/**
+	 * Take one frame off a buffer, so that decoding it
+	 * can not read into the frame after it.
+	 * @param   in           the buffer holding the frame,
+	 *                       left just past its end
+	 * @return  ByteBuffer   the frame, after its length
+	 */
+	private static ByteBuffer frame( ByteBuffer in ) {
+
+		int length = frameLength( in.getInt( in.position() ) );
+		if( in.remaining() - 4 < length ) {
+			throw new IllegalArgumentException( "Frame of " + length + " bytes in " + in.remaining() );
+		}
+		ByteBuffer frame = in.slice( in.position() + 4, length );
+		in.position( in.position() + 4 + length );
+		return frame;
+	}
+
+	/**
+	 * Check that a frame held exactly what it said.
+	 * @param   frame   the frame, decoded
+	 */
+	private static void consumed( ByteBuffer frame ) {
+		if( frame.hasRemaining() ) {
+			throw new IllegalArgumentException( frame.remaining() + " bytes left over in a frame" );
+		}
+	}
+
+	/**
+	 * Decode one frame into a Packet. The buffer
+	 * must hold the whole frame, and the frame
+	 * nothing else.
+	 * @param   in       the buffer holding the frame,
+	 *                   left just past its end
+	 * @return  Packet   the decoded Packet
+	 */
+	public static Packet<Object> decode( ByteBuffer in ) throws UnknownHostException {
+
+		in = frame( in );
+		byte tag = in.get();
+		int sequence = in.getInt();
+		int ack = in.getInt();
+		long timestamp = in.getLong();
+
+		Packet<Object> packet;
+		if( tag == ACK ) {
+			packet = new Packet<>( sequence, timestamp, null, null, true );
+		}
+		else {
+			Object value = getValue( tag, in );
+			if( value instanceof Object[] ) {
+				packet = new Packet<>( sequence, timestamp, null, (Object[]) value, false );
+			}
+			else {
+				packet = new Packet<>( sequence, timestamp, value, null, false );
+			}
+		}
+
+		consumed( in );
+		packet.setAckId( ack );
+		return packet;
+	}
+
+	/**
+	 * Decode one frame straight into the object it
+	 * carries, without building a Packet around it.
+	 * The buffer must hold the whole frame, and the
+	 * frame nothing else.
+	 * @param   in       the buffer holding the frame,
+	 *                   left just past its end
+	 * @return  Object   the object, or null for an ACK
+	 */
+	public static Object decodeValue( ByteBuffer in ) throws UnknownHostException {
+
+		// Skip the sequence id, acknowledgment and
+		// timestamp after the tag
+		in = frame( in );
+		byte tag = in.get();
+		in.position( in.position() + 4 + 4 + 8 );
+		Object value = tag == ACK ? null : getValue( tag, in );
+		consumed( in );
+		return value;
+	}
+
+	/**
+	 * Read the payload of a value with the given tag.
+	 */
+	private static Object getValue( byte tag, ByteBuffer in ) throws UnknownHostException {
+
+		switch( tag ) {
+
+			case BOOLEAN:
+				return in.get() != 0;
+
+			case INTEGER:
+				return in.getInt();
+
+			case STRING:
+				return getString( in );
+
+			case INT_ARRAY: {
+				int[] array = new int[count( in, 4 )];
+				for( int index = 0; index < array.length; index++ ) {
+					array[index] = in.getInt();
+				}
+				return array;
+			}
+
+			case OBJECT_ARRAY: {
+				Object[] array = new Object[count( in, 1 )];
+				for( int index = 0; index < array.length; index++ ) {
+					array[index] = getValue( in.get(), in );
+				}
+				return array;
+			}
+
+			case TCP_COMMUNICATOR:
+				return new TCP_Communicator( getString( in ) );
+
+			case UDP_COMMUNICATOR: {
+				String playerName = getString( in );
+				byte[] address = new byte[count( in.get() & 0xFF, in, 1 )];
+				in.get( address );
+				return new UDP_Communicator( playerName, InetAddress.getByAddress( address ), in.getInt() );
+			}
+
+			case TURN_STATE: {
+				byte flags = in.get();
+				TurnState state = new TurnState( ( flags & 1 ) != 0, ( flags & 2 ) != 0, getString( in ),
+						getString( in ), getString( in ), getString( in ), getString( in ), getString( in ) );
+				state.fleetDelta = getDelta( in );
+				state.attacksDelta = getDelta( in );
+				return state;
+			}
+
+			case FRAGMENT: {
+				int index = in.getInt();
+				int count = in.getInt();
+				byte[] bytes = new byte[count( in, 1 )];
+				in.get( bytes );
+				return new Fragment( index, count, bytes );
+			}
+
+			default:
+				throw new IllegalArgumentException( "Unknown type tag " + tag );
+		}
+	}
+
+	private static BoardDelta getDelta( ByteBuffer in ) {
+
+		if( in.get() == 0 ) {
+			return null;
+		}
+		BoardDelta delta = new BoardDelta();
+		delta.version = in.getInt();
+		byte flags = in.get();
+		delta.snapshot = ( flags & 1 ) != 0;
+		delta.checked = ( flags & 2 ) != 0;
+		delta.checksum = in.getInt();
+
+		if( delta.snapshot ) {
+			delta.rows = in.getInt();
+			delta.columns = in.getInt();
+			if( delta.rows < 0 || delta.columns < 0
+					|| (long) delta.rows * delta.columns > MAX_BOARD_CELLS ) {
+				throw new IllegalArgumentException( "Board of " + delta.rows + " by " + delta.columns );
+			}
+		}
+		if( ( flags & 4 ) == 0 ) {
+			delta.marks = new char[count( (long) delta.rows * delta.columns, in, 1 )];
+			for( int index = 0; index < delta.marks.length; index++ ) {
+				delta.marks[index] = (char) ( in.get() & 0xFF );
+			}
+		}
+		else {
+			int count = count( in, 9 );
+			delta.marks = new char[count];
+			delta.changedRows = new int[count];
+			delta.changedColumns = new int[count];
+			for( int index = 0; index < count; index++ ) {
+				delta.changedRows[index] = in.getInt();
+				delta.changedColumns[index] = in.getInt();
+				delta.marks[index] = (char) ( in.get() & 0xFF );
+			}
+		}
+		return delta;
+	}
+
+	private static String getString( ByteBuffer in ) {
+		int length = in.getInt();
+		if( length < 0 ) {
+			return null;
+		}
+		count( length, in, 1 );
+		if( !in.hasArray() ) {
+			byte[] bytes = new byte[length];
+			in.get( bytes );
+			return new String( bytes, StandardCharsets.UTF_8 );
+		}
+		String value = new String( in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8 );
+		in.position( in.position() + length );
+		return value;
+	}
+}